@@ -16,7 +16,11 @@
 
 package com.btmatthews.maven.plugins.inmemdb;
 
+import com.btmatthews.utils.monitor.Logger;
+
 import javax.sql.DataSource;
+import java.io.File;
+import java.util.Map;
 
 /**
  * Describes the operations that are used by the Mojos to launch in-memory
@@ -34,4 +38,141 @@ public interface SQLDatabase extends Database {
      * @return The data source.
      */
     DataSource getDataSource();
+
+    /**
+     * Get the data source used by the loaders. This connects to the in-memory database using the embedded driver
+     * from within the JVM that is hosting the database, avoiding the serialization and network round trips incurred
+     * by clients connecting over the network.
+     *
+     * @return The data source.
+     * @since 2.0.0
+     */
+    DataSource getLoaderDataSource();
+
+    /**
+     * Get the port on which the database server accepts connections.
+     *
+     * @return The port.
+     * @since 2.0.0
+     */
+    int getPort();
+
+    /**
+     * Get the JDBC URL that clients use to connect to the database.
+     *
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    String getUrl();
+
+    /**
+     * Get the settings that determine the contents and format of the database, such as its name, storage backend,
+     * performance profile, transaction model and connection attributes. Settings that change from run to run, such as
+     * the port and the directory of databases stored on disk, are excluded so that the settings can be used to
+     * identify cached snapshots of the database.
+     *
+     * @return The settings sorted by name.
+     * @since 2.0.0
+     */
+    Map<String, String> getSettings();
+
+    /**
+     * Get the JDBC URL that clients use to connect to one of the copies of the database.
+     *
+     * @param number The number of the copy. This can be a place holder such as {@code ${surefire.forkNumber}} that is
+     *               substituted later.
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    String getCopyUrl(String number);
+
+    /**
+     * Get the JDBC URL that clients use to connect to a clone of the database created on demand using the
+     * {@code clone} command.
+     *
+     * @param name The name of the clone. This can be a place holder that is substituted later.
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    String getCloneUrl(String name);
+
+    /**
+     * Undo the settings of the performance profile that only apply while the database is being loaded. Called once
+     * the sources have been loaded and before the copies are created or the baseline is saved.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @since 2.0.0
+     */
+    void endLoad(Logger logger);
+
+    /**
+     * Save the current state of the database as the baseline that it is returned to by the {@code reset} command. This
+     * has no effect unless the database is resettable.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the baseline was saved or is not needed. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    boolean saveBaseline(Logger logger);
+
+    /**
+     * Refresh the optimizer statistics so that queries against the loaded tables are planned using their actual
+     * contents rather than the statistics collected when they were empty. This has no effect unless the database was
+     * configured to refresh its statistics.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @since 2.0.0
+     */
+    void refreshStatistics(Logger logger);
+
+    /**
+     * Switch the database and its copies to the read-only mode of the database engine so that concurrent readers do
+     * not pay for write locking and accidental writes fail fast. This has no effect unless the database was
+     * configured to be read-only after its sources were loaded.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @since 2.0.0
+     */
+    void makeReadOnly(Logger logger);
+
+    /**
+     * Log the heap and native memory in use by the JVM before and after the database has been loaded together with
+     * the size of the database if it is stored outside the heap and the number of rows and bytes of each table. The
+     * report is also written to the memory report file if one was configured.
+     *
+     * @param logger Used to log the memory usage.
+     * @since 2.0.0
+     */
+    void logMemoryUsage(Logger logger);
+
+    /**
+     * Create the copies of the database from its current state. The copies are served alongside the database and are
+     * named after it with the suffixes {@code _1} to {@code _N}.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if all the copies were created. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    boolean createCopies(Logger logger);
+
+    /**
+     * Write a snapshot of the database state to a directory using the engine's native backup or script facility.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that will contain the snapshot. The directory must exist and be empty.
+     * @return {@code true} if the snapshot was written. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    boolean snapshot(Logger logger, File directory);
+
+    /**
+     * Replace the database state with the contents of a snapshot previously written by
+     * {@link #snapshot(Logger, File)}.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that contains the snapshot.
+     * @return {@code true} if the snapshot was restored. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    boolean restore(Logger logger, File directory);
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.cache;
+
+import com.btmatthews.maven.plugins.inmemdb.Source;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Accumulates values and the contents of sources into a SHA-256 digest that identifies a database configuration.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class Fingerprint {
+
+    /**
+     * The prefix used to denote that a resource should be loaded from the classpath rather than the file system.
+     */
+    private static final String CLASSPATH_PREFIX = "classpath:";
+    /**
+     * The algorithm used to compute the fingerprints.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    /**
+     * The size of the buffer used when reading sources.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * The characters used to render fingerprints as hexadecimal strings.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    /**
+     * The message digest used to compute the fingerprint.
+     */
+    private final MessageDigest digest;
+
+    /**
+     * Construct an empty fingerprint.
+     */
+    public Fingerprint() {
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Add a string to the fingerprint. The string is terminated so that adjacent values cannot be confused.
+     *
+     * @param value The string value.
+     * @return The fingerprint.
+     * @throws IOException If the string could not be encoded.
+     */
+    public Fingerprint add(final String value) throws IOException {
+        if (value != null) {
+            digest.update(value.getBytes("UTF-8"));
+        }
+        digest.update((byte) 0);
+        return this;
+    }
+
+    /**
+     * Add the type, location and contents of a source file or class path resource to the fingerprint.
+     *
+     * @param source The source.
+     * @return The fingerprint.
+     * @throws IOException If there was an error reading the source.
+     */
+    public Fingerprint add(final Source source) throws IOException {
+        return add(source, true);
+    }
+
+    /**
+     * Add the type and contents of a source file or class path resource to the fingerprint but not its location, so
+     * that the same content found under different paths has the same fingerprint. The location is added instead if
+     * the source cannot be read.
+     *
+     * @param source The source.
+     * @return The fingerprint.
+     * @throws IOException If there was an error reading the source.
+     */
+    public Fingerprint addContent(final Source source) throws IOException {
+        return add(source, false);
+    }
+
+    /**
+     * Add the type, optionally the location, and the contents of a source file or class path resource to the
+     * fingerprint.
+     *
+     * @param source   The source.
+     * @param location If {@code true} the location is always added. Otherwise, it is only added if the source cannot
+     *                 be read.
+     * @return The fingerprint.
+     * @throws IOException If there was an error reading the source.
+     */
+    private Fingerprint add(final Source source, final boolean location) throws IOException {
+        add(source.getClass().getName());
+        if (location) {
+            add(source.getSourceFile());
+        }
+        add(String.valueOf(source.getQualifiedTableNames()));
+        final InputStream inputStream;
+        if (source.getSourceFile().startsWith(CLASSPATH_PREFIX)) {
+            final String resource = source.getSourceFile().substring(CLASSPATH_PREFIX.length());
+            inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        } else {
+            final File file = new File(source.getSourceFile());
+            inputStream = file.isFile() ? new FileInputStream(file) : null;
+        }
+        if (inputStream != null) {
+            try {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int count = inputStream.read(buffer);
+                while (count != -1) {
+                    digest.update(buffer, 0, count);
+                    count = inputStream.read(buffer);
+                }
+            } finally {
+                inputStream.close();
+            }
+        } else if (!location) {
+            add(source.getSourceFile());
+        }
+        return this;
+    }
+
+    /**
+     * Complete the fingerprint and render it as a hexadecimal string. The fingerprint cannot be used after this
+     * method has been called.
+     *
+     * @return The hexadecimal string.
+     */
+    public String toHex() {
+        final byte[] bytes = digest.digest();
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            builder.append(HEX_DIGITS[(b >> 4) & 0x0f]);
+            builder.append(HEX_DIGITS[b & 0x0f]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.cache;
+
+import com.btmatthews.maven.plugins.inmemdb.SQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.Source;
+import com.btmatthews.utils.monitor.Logger;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches snapshots of a database taken after each of its sources has been loaded. Each snapshot is keyed by a
+ * fingerprint chained from the fingerprint of the previous snapshot and the contents of the source, starting from a
+ * fingerprint of the database engine, its version and the settings of the database. A later build can restore the deepest snapshot
+ * whose sources are unchanged and only load the sources that follow it.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class SnapshotCache {
+
+    /**
+     * The directory containing the cached snapshots.
+     */
+    private final File directory;
+
+    /**
+     * Construct a snapshot cache that stores the snapshots in {@code directory}.
+     *
+     * @param directory The directory containing the cached snapshots.
+     */
+    public SnapshotCache(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Compute the fingerprint of an empty database. This is the root of the chain of fingerprints that identify the
+     * snapshots taken after each source has been loaded. It is computed from the configured settings of the database
+     * rather than its connection URL, which contains the port and directory that can change from run to run.
+     *
+     * @param type     The database type.
+     * @param database The database.
+     * @return The fingerprint rendered as a hexadecimal string.
+     * @throws IOException  If there was an error encoding the fingerprint.
+     * @throws SQLException If there was an error reading the database meta-data.
+     */
+    public String computeKey(final String type, final SQLDatabase database) throws IOException, SQLException {
+        final Fingerprint fingerprint = new Fingerprint().add(type);
+        final Connection connection = database.getLoaderDataSource().getConnection();
+        try {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            fingerprint.add(metaData.getDatabaseProductName());
+            fingerprint.add(metaData.getDatabaseProductVersion());
+        } finally {
+            connection.close();
+        }
+        for (final Map.Entry<String, String> setting : database.getSettings().entrySet()) {
+            fingerprint.add(setting.getKey()).add(String.valueOf(setting.getValue()));
+        }
+        return fingerprint.toHex();
+    }
+
+    /**
+     * Compute the fingerprint of the database after {@code source} has been loaded on top of the database identified
+     * by {@code parentKey}. Chaining the fingerprints means that a change to one source invalidates the snapshots
+     * for that source and all the sources that follow it, but not those that precede it.
+     *
+     * @param parentKey The fingerprint of the database before the source is loaded.
+     * @param source    The source.
+     * @return The fingerprint rendered as a hexadecimal string.
+     * @throws IOException If there was an error reading the source.
+     */
+    public String computeKey(final String parentKey, final Source source) throws IOException {
+        return new Fingerprint().add(parentKey).add(source).toHex();
+    }
+
+    /**
+     * Determine whether a snapshot with the fingerprint {@code key} has been cached.
+     *
+     * @param key The fingerprint.
+     * @return {@code true} if the snapshot has been cached. Otherwise, {@code false}.
+     */
+    public boolean contains(final String key) {
+        return new File(directory, key).isDirectory();
+    }
+
+    /**
+     * Restore the database from the snapshot with the fingerprint {@code key} if one has been cached.
+     *
+     * @param logger   Used to report errors and raise exceptions.
+     * @param database The database.
+     * @param key      The fingerprint.
+     * @return {@code true} if the snapshot was restored. Otherwise, {@code false}.
+     */
+    public boolean restore(final Logger logger, final SQLDatabase database, final String key) {
+        final File snapshot = new File(directory, key);
+        if (!snapshot.isDirectory()) {
+            return false;
+        }
+        final long startTime = System.nanoTime();
+        if (database.restore(logger, snapshot)) {
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            logger.logInfo("Restored database snapshot " + key + " in " + elapsed + " ms");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove the snapshot with the fingerprint {@code key} from the cache, for example because it could not be
+     * restored, so that a later build loads the sources again.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param key    The fingerprint.
+     */
+    public void evict(final Logger logger, final String key) {
+        try {
+            FileUtils.deleteDirectory(new File(directory, key));
+        } catch (final IOException exception) {
+            logger.logError("Cannot remove database snapshot " + key + " from the cache", exception);
+        }
+    }
+
+    /**
+     * Remove the snapshots whose fingerprints are not in {@code keys} from the cache. The snapshots of sources that
+     * have changed can never be restored again, so they are removed rather than left to accumulate. Temporary
+     * directories of snapshots that are still being written are kept.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param keys   The fingerprints of the snapshots to keep.
+     */
+    public void retainOnly(final Logger logger, final Collection<String> keys) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (file.isDirectory() && !file.getName().contains(".tmp") && !keys.contains(file.getName())) {
+                logger.logInfo("Removing stale database snapshot " + file.getName() + " from the cache");
+                evict(logger, file.getName());
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot of the database to the cache with the fingerprint {@code key}. The snapshot is written to a
+     * temporary directory which is renamed once it is complete, so an interrupted build never leaves a partial
+     * snapshot behind.
+     *
+     * @param logger   Used to report errors and raise exceptions.
+     * @param database The database.
+     * @param key      The fingerprint.
+     */
+    public void store(final Logger logger, final SQLDatabase database, final String key) {
+        final File snapshot = new File(directory, key);
+        final File temporary = new File(directory, key + ".tmp" + System.nanoTime());
+        if (!temporary.mkdirs()) {
+            logger.logError("Cannot create snapshot cache directory " + temporary);
+            return;
+        }
+        final long startTime = System.nanoTime();
+        try {
+            if (database.snapshot(logger, temporary) && temporary.renameTo(snapshot)) {
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                logger.logInfo("Stored database snapshot " + key + " in " + elapsed + " ms");
+            }
+        } finally {
+            if (temporary.exists()) {
+                try {
+                    FileUtils.deleteDirectory(temporary);
+                } catch (final IOException exception) {
+                    logger.logError("Cannot delete temporary snapshot directory " + temporary, exception);
+                }
+            }
+        }
+    }
+}
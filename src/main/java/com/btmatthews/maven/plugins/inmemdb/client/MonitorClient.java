@@ -0,0 +1,300 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Sends commands to the monitor of a running database server and waits for them to be executed. The monitor closes
+ * the connection once a command has been executed, so unlike
+ * {@link com.btmatthews.utils.monitor.Monitor#sendCommand(String, com.btmatthews.utils.monitor.Logger)} this client
+ * can tell that a command has completed.
+ * <p/>
+ * The client can be used from tests to clone a template database before each test class:
+ * <pre>
+ * final MonitorClient client = new MonitorClient("inmemdb", 11527);
+ * final String url = client.cloneDatabase("test", "orders", System.getProperty("clone.url"));
+ * </pre>
+ * where the {@code clone.url} system property is set from the {@code inmemdb.jdbc.clone.url} project property
+ * published by the run goal. A database can also be reset between test classes:
+ * <pre>
+ * new MonitorClient("inmemdb", 11527).resetDatabase("test");
+ * </pre>
+ * A test can also pin a session on the server for the code under test and discard its work afterwards:
+ * <pre>
+ * final MonitorClient client = new MonitorClient("inmemdb", 11527);
+ * final String url = client.beginScope("test", "orders");
+ * try {
+ *     ...
+ * } finally {
+ *     client.endScope("test", "orders");
+ * }
+ * </pre>
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class MonitorClient {
+
+    /**
+     * The place holder for the name of the clone in the JDBC URL template published by the run goal.
+     */
+    public static final String NAME_PLACE_HOLDER = "{name}";
+    /**
+     * The default time in milliseconds to wait for a command to be executed.
+     */
+    private static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * The pattern that database names must match.
+     */
+    private static final Pattern NAME_PATTERN = Pattern.compile("\\w+");
+    /**
+     * The user name used to connect to clones if none is given. It is the default user name of the run goal.
+     */
+    private static final String DEFAULT_USERNAME = "sa";
+    /**
+     * The monitor key that must prefix any commands.
+     */
+    private final String monitorKey;
+    /**
+     * The port on which the monitor is listening.
+     */
+    private final int monitorPort;
+    /**
+     * The time in milliseconds to wait for a command to be executed.
+     */
+    private final long timeout;
+
+    /**
+     * Construct a client that waits up to 30 seconds for commands to be executed.
+     *
+     * @param monitorKey  The monitor key that must prefix any commands.
+     * @param monitorPort The port on which the monitor is listening.
+     */
+    public MonitorClient(final String monitorKey, final int monitorPort) {
+        this(monitorKey, monitorPort, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Construct a client.
+     *
+     * @param monitorKey  The monitor key that must prefix any commands.
+     * @param monitorPort The port on which the monitor is listening.
+     * @param timeout     The time in milliseconds to wait for a command to be executed.
+     */
+    public MonitorClient(final String monitorKey, final int monitorPort, final long timeout) {
+        this.monitorKey = monitorKey;
+        this.monitorPort = monitorPort;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Send a command to the monitor and wait for it to be executed.
+     *
+     * @param command The command.
+     * @throws IOException If the monitor could not be reached or did not execute the command in time.
+     */
+    public void sendCommand(final String command) throws IOException {
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLocalHost(), monitorPort);
+        } catch (final ConnectException exception) {
+            socket = new Socket("localhost", monitorPort);
+        }
+        try {
+            socket.setSoTimeout((int) timeout);
+            final PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
+            writer.println(monitorKey);
+            writer.println(command);
+            writer.flush();
+            final InputStream inputStream = socket.getInputStream();
+            while (inputStream.read() != -1) {
+                continue;
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reset a database to the state it was in after its sources were loaded. The database must have been started with
+     * the {@code resettable} option. Errors resetting the database are reported in the log of the server.
+     *
+     * @param database The name of the database.
+     * @return The time in milliseconds taken to reset the database, including the round trip to the monitor.
+     * @throws IOException If the monitor could not be reached or did not execute the command in time.
+     */
+    public long resetDatabase(final String database) throws IOException {
+        final long startTime = System.nanoTime();
+        sendCommand("configure reset=" + database);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Begin a transaction scope on the server by pinning a connection to a database in manual commit mode. The
+     * returned URL resolves to the pinned connection in the JVM that hosts the server, so it can be given to code
+     * under test that runs in the same build, such as a web application deployed by another plug-in. Work done
+     * through it is discarded by {@link #endScope(String, String)}. Tests running in another JVM should use a
+     * {@link TransactionScope} of their own instead. Errors beginning the scope are reported in the log of the
+     * server.
+     *
+     * @param database The name of the database.
+     * @param name     The name of the scope. It may only contain letters, digits and underscores.
+     * @return The JDBC URL of the pinned connection.
+     * @throws IOException If the monitor could not be reached or did not execute the command in time.
+     */
+    public String beginScope(final String database, final String name) throws IOException {
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid transaction scope name: " + name);
+        }
+        sendCommand("configure begin=" + database + " " + name);
+        return SessionDriver.URL_PREFIX + name;
+    }
+
+    /**
+     * End a transaction scope that was begun by {@link #beginScope(String, String)}, rolling back the work done
+     * through its pinned connection. Errors rolling back the scope are reported in the log of the server.
+     *
+     * @param database The name of the database.
+     * @param name     The name of the scope.
+     * @return The time in milliseconds taken to roll back the scope, including the round trip to the monitor.
+     * @throws IOException If the monitor could not be reached or did not execute the command in time.
+     */
+    public long endScope(final String database, final String name) throws IOException {
+        final long startTime = System.nanoTime();
+        sendCommand("configure end=" + database + " " + name);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Clone a template database that has already been loaded using the default credentials of the run goal. See
+     * {@link #cloneDatabase(String, String, String, String, String)}.
+     *
+     * @param template    The name of the template database.
+     * @param name        The name of the clone. It may only contain letters, digits and underscores.
+     * @param urlTemplate The JDBC URL template published by the run goal.
+     * @return The JDBC URL of the clone.
+     * @throws IOException If the monitor could not be reached, did not execute the command in time or the clone could
+     *                     not be created.
+     */
+    public String cloneDatabase(final String template, final String name, final String urlTemplate)
+            throws IOException {
+        return cloneDatabase(template, name, urlTemplate, DEFAULT_USERNAME, "");
+    }
+
+    /**
+     * Clone a template database that has already been loaded. The clone is created by the server using the
+     * database engine's own snapshot facility so the sources are not loaded again. The monitor does not report
+     * whether a command succeeded, so the client compares the tables of the template with those of the clone before
+     * and after sending the command. A clone never replaces an existing database, so the client fails if a database
+     * with the same name already has tables. Otherwise, it fails if the clone does not have the same tables as the
+     * template once the command has been executed. A template without tables cannot be cloned because the clone could
+     * not be told apart from an empty database. Some database servers create an empty database when a client
+     * connects to one that does not exist, so connecting alone does not prove that the clone was created. The reason
+     * a clone could not be created is reported in the log of the server.
+     *
+     * @param template    The name of the template database.
+     * @param name        The name of the clone. It may only contain letters, digits and underscores.
+     * @param urlTemplate The JDBC URL template published by the run goal.
+     * @param username    The user name used to connect to the clone.
+     * @param password    The password used to connect to the clone.
+     * @return The JDBC URL of the clone.
+     * @throws IOException If the monitor could not be reached, did not execute the command in time, a database with
+     *                     the same name as the clone already exists or the clone could not be created.
+     */
+    public String cloneDatabase(final String template, final String name, final String urlTemplate,
+                                final String username, final String password) throws IOException {
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid database name: " + name);
+        }
+        final String url = urlTemplate.replace(NAME_PLACE_HOLDER, name);
+        final Properties properties = new Properties();
+        properties.setProperty("user", username);
+        if (password.length() > 0) {
+            properties.setProperty("password", password);
+        }
+        final Set<String> templateTables;
+        try {
+            templateTables = getTableNames(urlTemplate.replace(NAME_PLACE_HOLDER, template), properties);
+        } catch (final SQLException exception) {
+            throw new IOException("Cannot clone database " + template + " because it cannot be reached", exception);
+        }
+        if (templateTables.isEmpty()) {
+            throw new IOException("Cannot clone database " + template + " because it does not have any tables");
+        }
+        try {
+            if (!getTableNames(url, properties).isEmpty()) {
+                throw new IOException("Cannot clone database " + template + " as " + name
+                        + " because a database with that name already exists");
+            }
+        } catch (final SQLException exception) {
+            // The clone does not exist yet
+        }
+        sendCommand("configure clone=" + template + " " + name);
+        try {
+            if (getTableNames(url, properties).equals(templateTables)) {
+                return url;
+            }
+            throw new IOException("Cannot clone database " + template + " as " + name
+                    + ". See the log of the server for the reason");
+        } catch (final SQLException exception) {
+            throw new IOException("Cannot clone database " + template + " as " + name
+                    + ". See the log of the server for the reason", exception);
+        }
+    }
+
+    /**
+     * Get the qualified names of the tables of a database.
+     *
+     * @param url        The JDBC URL of the database.
+     * @param properties The connection properties.
+     * @return The qualified table names.
+     * @throws SQLException If there was an error connecting to the database or reading its meta data.
+     */
+    private static Set<String> getTableNames(final String url, final Properties properties) throws SQLException {
+        final Set<String> names = new HashSet<String>();
+        final Connection connection = DriverManager.getConnection(url, properties);
+        try {
+            final ResultSet resultSet = connection.getMetaData().getTables(null, null, "%", new String[]{"TABLE"});
+            try {
+                while (resultSet.next()) {
+                    names.add(resultSet.getString("TABLE_SCHEM") + "." + resultSet.getString("TABLE_NAME"));
+                }
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            connection.close();
+        }
+        return names;
+    }
+}
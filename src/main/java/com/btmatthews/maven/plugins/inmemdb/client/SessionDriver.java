@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.client;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A JDBC driver that hands out the connections pinned by the active {@link TransactionScope}s. The URLs accepted by
+ * the driver have the form {@code jdbc:inmemdb:session:<name>} where {@code <name>} is the name of the scope.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class SessionDriver implements Driver {
+
+    /**
+     * The prefix of the URLs accepted by the driver.
+     */
+    static final String URL_PREFIX = "jdbc:inmemdb:session:";
+    /**
+     * The active transaction scopes keyed by name.
+     */
+    private static final ConcurrentMap<String, TransactionScope> SCOPES =
+            new ConcurrentHashMap<String, TransactionScope>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new SessionDriver());
+        } catch (final SQLException exception) {
+            throw new IllegalStateException("Cannot register the transaction scope driver", exception);
+        }
+    }
+
+    /**
+     * Register an active transaction scope.
+     *
+     * @param scope The transaction scope.
+     * @return {@code true} if the scope was registered or {@code false} if a scope with the same name is active.
+     */
+    static boolean register(final TransactionScope scope) {
+        return SCOPES.putIfAbsent(scope.getName(), scope) == null;
+    }
+
+    /**
+     * Unregister a transaction scope that has ended.
+     *
+     * @param scope The transaction scope.
+     */
+    static void unregister(final TransactionScope scope) {
+        SCOPES.remove(scope.getName(), scope);
+    }
+
+    /**
+     * Get the pinned connection of the transaction scope named by the URL.
+     *
+     * @param url  The JDBC URL.
+     * @param info Ignored.
+     * @return The pinned connection or {@code null} if the URL is not accepted by this driver.
+     * @throws SQLException If there is no active transaction scope with the name.
+     */
+    @Override
+    public Connection connect(final String url, final Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        final TransactionScope scope = SCOPES.get(url.substring(URL_PREFIX.length()));
+        if (scope == null) {
+            throw new SQLException("There is no active transaction scope for " + url);
+        }
+        return scope.getConnection();
+    }
+
+    /**
+     * Determine whether the URL refers to a transaction scope.
+     *
+     * @param url The JDBC URL.
+     * @return {@code true} if the URL starts with {@code jdbc:inmemdb:session:}. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean acceptsURL(final String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    /**
+     * The driver does not support any connection properties.
+     *
+     * @param url  The JDBC URL.
+     * @param info Ignored.
+     * @return An empty array.
+     */
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(final String url, final Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    /**
+     * Get the major version of the driver.
+     *
+     * @return Always {@code 2}.
+     */
+    @Override
+    public int getMajorVersion() {
+        return 2;
+    }
+
+    /**
+     * Get the minor version of the driver.
+     *
+     * @return Always {@code 0}.
+     */
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    /**
+     * The driver only hands out connections opened by other drivers so it is not JDBC compliant itself.
+     *
+     * @return Always {@code false}.
+     */
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    /**
+     * The driver does not use {@code java.util.logging}.
+     *
+     * @return Never returns.
+     * @throws SQLFeatureNotSupportedException Always.
+     */
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.regex.Pattern;
+
+/**
+ * Pins a single database connection to a test and discards everything done through it when the scope ends. The
+ * connection is switched to manual commit mode when the scope begins and the transaction is rolled back when
+ * {@link #end()} is called, so no data has to be reloaded between tests.
+ * <p/>
+ * Code under test can share the pinned connection by connecting to the URL returned by {@link #getUrl()}. The
+ * connections handed out ignore requests to commit, close or re-enable automatic commit so that the work done by the
+ * code under test cannot escape the scope:
+ * <pre>
+ * final TransactionScope scope = TransactionScope.begin("orders", System.getProperty("jdbc.url"), "sa", "");
+ * try {
+ *     dataSource.setUrl(scope.getUrl());
+ *     ...
+ * } finally {
+ *     scope.end();
+ * }
+ * </pre>
+ * The URL is only valid in the JVM that began the scope. A scope can also be begun on the server with
+ * {@link MonitorClient#beginScope(String, String)}, in which case the URL is valid in the JVM that hosts the server.
+ * All the work is done through one connection so code under test that uses several threads must not rely on them
+ * being isolated from each other.
+ * <p/>
+ * Requests to switch the pinned connection to automatic commit mode are ignored and it cannot be unwrapped to reach
+ * the underlying connection. A scope can only discard work that the database performs transactionally: most
+ * databases commit implicitly when DDL statements such as {@code CREATE TABLE} or {@code DROP TABLE} are executed, so
+ * schema changes made within a scope, and any work done before them, survive when the scope ends.
+ * <p/>
+ * Nested scopes are supported with savepoints. {@link #beginNested()} marks the current state and
+ * {@link #rollback(Savepoint)} discards the work done since then while keeping the work done before it.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class TransactionScope {
+
+    /**
+     * The pattern that the names of transaction scopes must match.
+     */
+    private static final Pattern NAME_PATTERN = Pattern.compile("\\w+");
+    /**
+     * The name of the transaction scope.
+     */
+    private final String name;
+    /**
+     * The pinned connection.
+     */
+    private final Connection connection;
+    /**
+     * The connection handed out to clients which prevents the work done through it from being committed.
+     */
+    private final Connection pinnedConnection;
+
+    /**
+     * Begin a transaction scope on a connection. The scope takes ownership of the connection and closes it when the
+     * scope ends.
+     *
+     * @param name       The name of the scope. It may only contain letters, digits and underscores.
+     * @param connection The connection.
+     * @throws SQLException If the transaction could not be started or a scope with the same name already exists.
+     */
+    public TransactionScope(final String name, final Connection connection) throws SQLException {
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid transaction scope name: " + name);
+        }
+        this.name = name;
+        this.connection = connection;
+        this.pinnedConnection = (Connection) Proxy.newProxyInstance(
+                TransactionScope.class.getClassLoader(),
+                new Class[]{Connection.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                            throws Throwable {
+                        return invokePinned(proxy, method, args);
+                    }
+                });
+        connection.setAutoCommit(false);
+        if (!SessionDriver.register(this)) {
+            throw new SQLException("A transaction scope named " + name + " already exists");
+        }
+    }
+
+    /**
+     * Open a connection to a database and begin a transaction scope on it.
+     *
+     * @param name     The name of the scope. It may only contain letters, digits and underscores.
+     * @param url      The JDBC URL of the database.
+     * @param username The user name used to connect to the database.
+     * @param password The password used to connect to the database.
+     * @return The transaction scope.
+     * @throws SQLException If the connection could not be opened or the transaction could not be started.
+     */
+    public static TransactionScope begin(final String name, final String url, final String username,
+                                         final String password) throws SQLException {
+        final Connection connection = DriverManager.getConnection(url, username, password);
+        try {
+            return new TransactionScope(name, connection);
+        } catch (final SQLException exception) {
+            connection.close();
+            throw exception;
+        } catch (final RuntimeException exception) {
+            connection.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Get the name of the transaction scope.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the JDBC URL that code under test can use to share the pinned connection.
+     *
+     * @return The JDBC URL.
+     */
+    public String getUrl() {
+        return SessionDriver.URL_PREFIX + name;
+    }
+
+    /**
+     * Get the pinned connection.
+     *
+     * @return The pinned connection.
+     */
+    public Connection getConnection() {
+        return pinnedConnection;
+    }
+
+    /**
+     * Discard the work done since the scope began or was last rolled back without ending the scope.
+     *
+     * @throws SQLException If the transaction could not be rolled back.
+     */
+    public void rollback() throws SQLException {
+        connection.rollback();
+    }
+
+    /**
+     * Begin a nested scope by setting a savepoint on the pinned connection.
+     *
+     * @return The savepoint that marks the beginning of the nested scope.
+     * @throws SQLException If the database does not support savepoints or the savepoint could not be set.
+     */
+    public Savepoint beginNested() throws SQLException {
+        return connection.setSavepoint();
+    }
+
+    /**
+     * Discard the work done since a nested scope began without ending the enclosing scope.
+     *
+     * @param savepoint The savepoint returned by {@link #beginNested()}.
+     * @throws SQLException If the transaction could not be rolled back to the savepoint.
+     */
+    public void rollback(final Savepoint savepoint) throws SQLException {
+        connection.rollback(savepoint);
+    }
+
+    /**
+     * Discard the work done within the scope and close the pinned connection.
+     *
+     * @throws SQLException If the transaction could not be rolled back.
+     */
+    public void end() throws SQLException {
+        SessionDriver.unregister(this);
+        try {
+            connection.rollback();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Invoke a method on the pinned connection on behalf of a client. Requests to commit, close or re-enable automatic
+     * commit are ignored and requests to unwrap the connection only succeed for the interfaces that the connection
+     * handed out to the client implements.
+     *
+     * @param proxy  The connection handed out to the client.
+     * @param method The method.
+     * @param args   The method arguments.
+     * @return The result of invoking the method.
+     * @throws Throwable If the method threw an exception.
+     */
+    private Object invokePinned(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String methodName = method.getName();
+        if ("equals".equals(methodName)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(methodName)) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(methodName)) {
+            return getUrl();
+        } else if ("commit".equals(methodName) || "close".equals(methodName)
+                || "setAutoCommit".equals(methodName)) {
+            return null;
+        } else if ("isClosed".equals(methodName)) {
+            return false;
+        } else if ("isWrapperFor".equals(methodName)) {
+            return ((Class<?>) args[0]).isInstance(proxy);
+        } else if ("unwrap".equals(methodName)) {
+            if (((Class<?>) args[0]).isInstance(proxy)) {
+                return proxy;
+            }
+            throw new SQLException("The connection pinned by transaction scope " + name + " cannot be unwrapped");
+        }
+        try {
+            return method.invoke(connection, args);
+        } catch (final InvocationTargetException exception) {
+            throw exception.getCause();
+        }
+    }
+}
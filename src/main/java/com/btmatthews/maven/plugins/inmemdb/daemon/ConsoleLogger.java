@@ -0,0 +1,75 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.daemon;
+
+import com.btmatthews.utils.monitor.Logger;
+
+import java.io.PrintStream;
+import java.util.Date;
+
+/**
+ * A {@link Logger} that writes time stamped messages to the standard output and error streams of the detached JVM.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class ConsoleLogger implements Logger {
+
+    /**
+     * Write an information message to the log file.
+     *
+     * @param message The information message.
+     */
+    @Override
+    public void logInfo(final String message) {
+        log(System.out, "INFO", message);
+    }
+
+    /**
+     * Write an error message to the log file.
+     *
+     * @param message The error message.
+     */
+    @Override
+    public void logError(final String message) {
+        log(System.err, "ERROR", message);
+    }
+
+    /**
+     * Write an error message to the log file.
+     *
+     * @param message The error message.
+     * @param cause   The exception that is associated with the error message.
+     */
+    @Override
+    public void logError(final String message, final Throwable cause) {
+        log(System.err, "ERROR", message);
+        cause.printStackTrace(System.err);
+    }
+
+    /**
+     * Write a time stamped message to a stream.
+     *
+     * @param stream  The stream.
+     * @param level   The message level.
+     * @param message The message.
+     */
+    private static void log(final PrintStream stream, final String level, final String message) {
+        stream.println(new Date() + " [" + level + "] " + message);
+        stream.flush();
+    }
+}
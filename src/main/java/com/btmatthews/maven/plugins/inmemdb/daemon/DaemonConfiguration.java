@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.daemon;
+
+import com.btmatthews.maven.plugins.inmemdb.Source;
+import com.btmatthews.maven.plugins.inmemdb.cache.Fingerprint;
+import com.btmatthews.maven.plugins.inmemdb.mojo.DataSet;
+import com.btmatthews.maven.plugins.inmemdb.mojo.Script;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Describes a database server that runs in a detached JVM. The description is written to a properties file by the
+ * Maven plug-in and read back by the detached JVM.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class DaemonConfiguration {
+
+    /**
+     * The property holding the database type.
+     */
+    private static final String TYPE = "type";
+    /**
+     * The property holding the key used to authenticate monitor commands.
+     */
+    private static final String MONITOR_KEY = "monitor.key";
+    /**
+     * The property holding the port on which the monitor listens for commands.
+     */
+    private static final String MONITOR_PORT = "monitor.port";
+    /**
+     * The property holding the number of minutes the server can be idle before it is stopped.
+     */
+    private static final String IDLE_TIMEOUT = "idle.timeout";
+    /**
+     * The prefix for properties holding the server configuration parameters.
+     */
+    private static final String CONFIG_PREFIX = "config.";
+    /**
+     * The prefix for properties holding the additional database connection attributes.
+     */
+    private static final String ATTRIBUTE_PREFIX = "attribute.";
+    /**
+     * The prefix for properties describing the sources used to populate the database.
+     */
+    private static final String SOURCE_PREFIX = "source.";
+    /**
+     * The name of the server configuration parameter that holds the additional database connection attributes.
+     */
+    private static final String ATTRIBUTES = "attributes";
+    /**
+     * The name of the server configuration parameter that holds the port.
+     */
+    private static final String PORT = "port";
+    /**
+     * The name of the server configuration parameter that holds the embedded mode flag.
+     */
+    private static final String EMBEDDED = "embedded";
+    /**
+     * The comment written to the properties file.
+     */
+    private static final String COMMENT = "inmemdb daemon configuration";
+    /**
+     * The properties that describe the database server.
+     */
+    private final Properties properties;
+
+    /**
+     * Construct the description of a database server.
+     *
+     * @param type        The database type.
+     * @param monitorKey  The key used to authenticate monitor commands.
+     * @param monitorPort The port on which the monitor listens for commands.
+     * @param idleTimeout The number of minutes the server can be idle before it is stopped.
+     * @param config      The server configuration parameters.
+     * @param sources     The sources used to populate the database.
+     */
+    public DaemonConfiguration(final String type,
+                               final String monitorKey,
+                               final int monitorPort,
+                               final int idleTimeout,
+                               final Map<String, Object> config,
+                               final List<? extends Source> sources) {
+        properties = new Properties();
+        properties.setProperty(TYPE, type);
+        properties.setProperty(MONITOR_KEY, monitorKey);
+        properties.setProperty(MONITOR_PORT, Integer.toString(monitorPort));
+        properties.setProperty(IDLE_TIMEOUT, Integer.toString(idleTimeout));
+        for (final Map.Entry<String, Object> entry : config.entrySet()) {
+            if (ATTRIBUTES.equals(entry.getKey())) {
+                for (final Map.Entry<?, ?> attribute : ((Map<?, ?>) entry.getValue()).entrySet()) {
+                    properties.setProperty(ATTRIBUTE_PREFIX + attribute.getKey(), String.valueOf(attribute.getValue()));
+                }
+            } else if (entry.getValue() != null) {
+                properties.setProperty(CONFIG_PREFIX + entry.getKey(), entry.getValue().toString());
+            }
+        }
+        if (sources != null) {
+            int index = 0;
+            for (final Source source : sources) {
+                final String prefix = SOURCE_PREFIX + index++ + ".";
+                properties.setProperty(prefix + "type", source instanceof DataSet ? "dataset" : "script");
+                properties.setProperty(prefix + "file", source.getSourceFile());
+                if (source.getQualifiedTableNames() != null) {
+                    properties.setProperty(prefix + "qualified", source.getQualifiedTableNames().toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Construct the description of a database server from properties that were read from a file.
+     *
+     * @param properties The properties that describe the database server.
+     */
+    private DaemonConfiguration(final Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Read the description of a database server from a properties file.
+     *
+     * @param file The properties file.
+     * @return The description of the database server.
+     * @throws IOException If there was an error reading the properties file.
+     */
+    public static DaemonConfiguration read(final File file) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream inputStream = new FileInputStream(file);
+        try {
+            properties.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        return new DaemonConfiguration(properties);
+    }
+
+    /**
+     * Write the description of the database server to a properties file.
+     *
+     * @param file The properties file.
+     * @throws IOException If there was an error writing the properties file.
+     */
+    public void write(final File file) throws IOException {
+        final OutputStream outputStream = new FileOutputStream(file);
+        try {
+            properties.store(outputStream, COMMENT);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Get the database type.
+     *
+     * @return The database type.
+     */
+    public String getType() {
+        return properties.getProperty(TYPE);
+    }
+
+    /**
+     * Get the key used to authenticate monitor commands.
+     *
+     * @return The monitor key.
+     */
+    public String getMonitorKey() {
+        return properties.getProperty(MONITOR_KEY);
+    }
+
+    /**
+     * Get the port on which the monitor listens for commands.
+     *
+     * @return The monitor port.
+     */
+    public int getMonitorPort() {
+        return Integer.parseInt(properties.getProperty(MONITOR_PORT));
+    }
+
+    /**
+     * Get the number of minutes the server can be idle before it is stopped.
+     *
+     * @return The idle timeout in minutes.
+     */
+    public int getIdleTimeout() {
+        return Integer.parseInt(properties.getProperty(IDLE_TIMEOUT));
+    }
+
+    /**
+     * Get the server configuration parameters converted back to the types expected by
+     * {@link com.btmatthews.utils.monitor.Server#configure(String, Object, com.btmatthews.utils.monitor.Logger)}.
+     *
+     * @return A {@link Map} containing the server configuration parameters.
+     */
+    public Map<String, Object> getServerConfig() {
+        final Map<String, Object> config = new HashMap<String, Object>();
+        final Map<String, String> attributes = new HashMap<String, String>();
+        for (final Object key : properties.keySet()) {
+            final String name = (String) key;
+            final String value = properties.getProperty(name);
+            if (name.startsWith(ATTRIBUTE_PREFIX)) {
+                attributes.put(name.substring(ATTRIBUTE_PREFIX.length()), value);
+            } else if (name.startsWith(CONFIG_PREFIX)) {
+                final String parameter = name.substring(CONFIG_PREFIX.length());
+                if (PORT.equals(parameter)) {
+                    config.put(parameter, Integer.valueOf(value));
+                } else if (EMBEDDED.equals(parameter)) {
+                    config.put(parameter, Boolean.valueOf(value));
+                } else {
+                    config.put(parameter, value);
+                }
+            }
+        }
+        if (!attributes.isEmpty()) {
+            config.put(ATTRIBUTES, attributes);
+        }
+        return config;
+    }
+
+    /**
+     * Get the sources used to populate the database.
+     *
+     * @return The sources.
+     */
+    public List<Source> getSources() {
+        final List<Source> sources = new ArrayList<Source>();
+        String prefix = SOURCE_PREFIX + sources.size() + ".";
+        while (properties.containsKey(prefix + "file")) {
+            final String file = properties.getProperty(prefix + "file");
+            if ("dataset".equals(properties.getProperty(prefix + "type"))) {
+                final String qualified = properties.getProperty(prefix + "qualified");
+                sources.add(new DataSet(file, qualified == null ? null : Boolean.valueOf(qualified)));
+            } else {
+                sources.add(new Script(file));
+            }
+            prefix = SOURCE_PREFIX + sources.size() + ".";
+        }
+        return sources;
+    }
+
+    /**
+     * Compute the fingerprint of the database server configuration and the contents of the sources. Two descriptions
+     * with the same fingerprint describe interchangeable database servers. The idle timeout is excluded because it
+     * does not affect the state of the database.
+     *
+     * @return The fingerprint rendered as a hexadecimal string.
+     * @throws IOException If there was an error reading one of the sources.
+     */
+    public String computeFingerprint() throws IOException {
+        final Fingerprint fingerprint = new Fingerprint();
+        final Map<String, String> sorted = new TreeMap<String, String>();
+        for (final Object key : properties.keySet()) {
+            if (!IDLE_TIMEOUT.equals(key)) {
+                sorted.put((String) key, properties.getProperty((String) key));
+            }
+        }
+        for (final Map.Entry<String, String> entry : sorted.entrySet()) {
+            fingerprint.add(entry.getKey()).add(entry.getValue());
+        }
+        for (final Source source : getSources()) {
+            fingerprint.add(source);
+        }
+        return fingerprint.toHex();
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.daemon;
+
+import com.btmatthews.maven.plugins.inmemdb.client.MonitorClient;
+import com.btmatthews.utils.monitor.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launches a database server in a detached JVM, or reattaches to one started by an earlier Maven invocation with an
+ * identical configuration and sources. A database server can also be launched in a child JVM that is destroyed when
+ * the Maven JVM exits. The configuration, status and log files for a server are kept in a directory and are named
+ * after the monitor port.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class DaemonLauncher {
+
+    /**
+     * The maximum time to wait for a detached JVM to start the server and load the sources.
+     */
+    private static final long LAUNCH_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * The maximum time to wait for a detached JVM to stop the server.
+     */
+    private static final long STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * The interval between checks of the status file.
+     */
+    private static final long POLL_INTERVAL = 100L;
+    /**
+     * The suffix of the file to which the description of the database server is written.
+     */
+    private static final String CONFIGURATION_SUFFIX = ".properties";
+    /**
+     * The suffix of the status file written by the detached JVM.
+     */
+    private static final String STATUS_SUFFIX = ".status";
+    /**
+     * The suffix of the log file to which the detached JVM writes its output.
+     */
+    private static final String LOG_SUFFIX = ".log";
+    /**
+     * The description of the database server.
+     */
+    private final DaemonConfiguration configuration;
+    /**
+     * The file to which the description of the database server is written.
+     */
+    private final File configurationFile;
+    /**
+     * The status file written by the detached JVM.
+     */
+    private final File statusFile;
+    /**
+     * The log file to which the detached JVM writes its output.
+     */
+    private final File logFile;
+    /**
+     * The options passed to the JVM that is launched, such as its heap size and garbage collector.
+     */
+    private final List<String> jvmArguments;
+    /**
+     * The directory containing the class data sharing archives or {@code null} if archives are not used.
+     */
+    private final File archiveDirectory;
+    /**
+     * The process running the launched JVM or {@code null} if a JVM has not been launched.
+     */
+    private Process process;
+
+    /**
+     * Construct a launcher.
+     *
+     * @param directory     The directory containing the configuration, status and log files.
+     * @param configuration The description of the database server.
+     */
+    public DaemonLauncher(final File directory, final DaemonConfiguration configuration) {
+        this(directory, configuration, Collections.<String>emptyList());
+    }
+
+    /**
+     * Construct a launcher that passes options to the JVM it launches.
+     *
+     * @param directory     The directory containing the configuration, status and log files.
+     * @param configuration The description of the database server.
+     * @param jvmArguments  The options passed to the JVM, such as its heap size and garbage collector.
+     */
+    public DaemonLauncher(final File directory, final DaemonConfiguration configuration,
+                          final List<String> jvmArguments) {
+        this(directory, configuration, jvmArguments, null);
+    }
+
+    /**
+     * Construct a launcher that passes options to the JVM it launches and speeds up its start-up with a class data
+     * sharing archive. The archive is written by the first JVM launched for the database type when it stops.
+     *
+     * @param directory        The directory containing the configuration, status and log files.
+     * @param configuration    The description of the database server.
+     * @param jvmArguments     The options passed to the JVM, such as its heap size and garbage collector.
+     * @param archiveDirectory The directory containing the class data sharing archives or {@code null} if archives
+     *                         are not used.
+     */
+    public DaemonLauncher(final File directory, final DaemonConfiguration configuration,
+                          final List<String> jvmArguments, final File archiveDirectory) {
+        this.configuration = configuration;
+        this.jvmArguments = jvmArguments;
+        this.archiveDirectory = archiveDirectory;
+        configurationFile = getFile(directory, configuration.getMonitorPort(), CONFIGURATION_SUFFIX);
+        statusFile = getFile(directory, configuration.getMonitorPort(), STATUS_SUFFIX);
+        logFile = getFile(directory, configuration.getMonitorPort(), LOG_SUFFIX);
+    }
+
+    /**
+     * Get the port of the database server controlled by the monitor listening on {@code monitorPort} if that server
+     * is running. This allows a server that was allocated an ephemeral port to be reattached.
+     *
+     * @param directory   The directory containing the configuration, status and log files.
+     * @param monitorPort The port on which the monitor listens for commands.
+     * @return The port or {@code null} if no server is running or the port was not configured.
+     */
+    public static Integer getRunningPort(final File directory, final int monitorPort) {
+        final File configurationFile = getFile(directory, monitorPort, CONFIGURATION_SUFFIX);
+        if (!getFile(directory, monitorPort, STATUS_SUFFIX).isFile() || !configurationFile.isFile()) {
+            return null;
+        }
+        try {
+            return (Integer) DaemonConfiguration.read(configurationFile).getServerConfig().get("port");
+        } catch (final IOException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Get one of the files for the database server controlled by the monitor listening on {@code monitorPort}.
+     *
+     * @param directory   The directory containing the configuration, status and log files.
+     * @param monitorPort The port on which the monitor listens for commands.
+     * @param suffix      The file name suffix.
+     * @return The file.
+     */
+    private static File getFile(final File directory, final int monitorPort, final String suffix) {
+        return new File(directory, "inmemdb-" + monitorPort + suffix);
+    }
+
+    /**
+     * Reattach to a running database server if it was started with the same fingerprint by renewing its lease. A
+     * running server with a different fingerprint is stopped.
+     *
+     * @param logger Used to log information and error messages.
+     * @return {@code true} if a running server was reattached. Otherwise, {@code false}.
+     * @throws IOException If there was an error computing the fingerprint.
+     */
+    public boolean attach(final Logger logger) throws IOException {
+        final DaemonStatus status = DaemonStatus.read(statusFile);
+        if (status == null) {
+            return false;
+        }
+        if (configuration.computeFingerprint().equals(status.getFingerprint())) {
+            if (sendCommand("configure " + LeasedServer.LEASE + "=attach")) {
+                logger.logInfo("Reusing database server started by an earlier build (log file: " + logFile + ")");
+                reportErrors(status, logger);
+                return true;
+            }
+            logger.logInfo("Discarding status of database server that is no longer running");
+            statusFile.delete();
+            return false;
+        }
+        logger.logInfo("Stopping database server because its configuration or sources have changed");
+        stopServer();
+        return false;
+    }
+
+    /**
+     * Stop a database server that was left running by an earlier build, for example because that build was killed
+     * before it could stop the server, so that a new server can be launched on the same monitor port.
+     *
+     * @param logger Used to log information messages.
+     */
+    public void stop(final Logger logger) {
+        if (statusFile.exists()) {
+            logger.logInfo("Stopping database server left running by an earlier build");
+            stopServer();
+        }
+    }
+
+    /**
+     * Send the stop command to the running database server and wait for it to delete its status file. The status
+     * file is deleted immediately if the monitor cannot be reached.
+     */
+    private void stopServer() {
+        if (!sendCommand("stop")) {
+            statusFile.delete();
+        }
+        final long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+        while (statusFile.exists() && System.currentTimeMillis() < deadline) {
+            sleep();
+        }
+    }
+
+    /**
+     * Launch a detached JVM that starts the database server and loads the sources, then wait until it reports that
+     * the server is ready.
+     *
+     * @param logger Used to log information and error messages.
+     * @return {@code true} if the server is ready. Otherwise, {@code false}.
+     * @throws IOException If there was an error writing the configuration or launching the JVM.
+     */
+    public boolean launch(final Logger logger) throws IOException {
+        final File directory = configurationFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        statusFile.delete();
+        configuration.write(configurationFile);
+        final List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(jvmArguments);
+        final String classPath = getClassPath();
+        final SharedArchive archive = getSharedArchive(classPath, logger);
+        final boolean archiveUsed = archive != null && archive.exists();
+        if (archive != null) {
+            command.addAll(archive.getJvmArguments());
+        }
+        command.add("-cp");
+        command.add(classPath);
+        command.add(DaemonMain.class.getName());
+        command.add(configurationFile.getAbsolutePath());
+        command.add(statusFile.getAbsolutePath());
+        command.add(logFile.getAbsolutePath());
+        logger.logInfo("Launching database server in a detached JVM (log file: " + logFile + ")");
+        if (!jvmArguments.isEmpty()) {
+            logger.logInfo("Database server JVM options: " + jvmArguments);
+        }
+        final long startTime = System.nanoTime();
+        process = Runtime.getRuntime().exec(command.toArray(new String[command.size()]), null,
+                new File(System.getProperty("user.dir")));
+        process.getOutputStream().close();
+        process.getInputStream().close();
+        process.getErrorStream().close();
+        final long deadline = System.currentTimeMillis() + LAUNCH_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            final DaemonStatus status = DaemonStatus.read(statusFile);
+            if (status != null) {
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                if (archive == null) {
+                    logger.logInfo("Database server was ready in " + elapsed + " ms");
+                } else {
+                    archive.logStartup(archiveUsed, elapsed, logger);
+                }
+                reportErrors(status, logger);
+                return true;
+            }
+            if (hasExited(process)) {
+                logger.logError("Database server exited before it was ready (log file: " + logFile + ")");
+                return false;
+            }
+            sleep();
+        }
+        logger.logError("Timed out waiting for database server to start (log file: " + logFile + ")");
+        return false;
+    }
+
+    /**
+     * Get the class data sharing archive for the database type and classpath.
+     *
+     * @param classPath The classpath of the JVM.
+     * @param logger    Used to log information messages.
+     * @return The archive or {@code null} if archives are not used or not supported by the JVM.
+     * @throws IOException If there was an error computing the name of the archive.
+     */
+    private SharedArchive getSharedArchive(final String classPath, final Logger logger) throws IOException {
+        if (archiveDirectory == null) {
+            return null;
+        }
+        if (!SharedArchive.isSupported()) {
+            logger.logInfo("Not using a class data sharing archive because it requires Java 13 or later");
+            return null;
+        }
+        if (!SharedArchive.isArchivable(classPath)) {
+            logger.logInfo("Not using a class data sharing archive because the classpath contains directories");
+            return null;
+        }
+        return new SharedArchive(archiveDirectory, configuration.getType(), classPath);
+    }
+
+    /**
+     * Destroy the launched JVM when the Maven JVM exits so that a server that was not stopped by the build, for
+     * example because the build failed or was interrupted, does not outlive it. Nothing happens if the launched JVM
+     * has already exited.
+     */
+    public void destroyOnExit() {
+        final Process launched = process;
+        if (launched != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread("inmemdb-destroy") {
+                @Override
+                public void run() {
+                    launched.destroy();
+                }
+            });
+        }
+    }
+
+    /**
+     * Send a command to the monitor controlling the database server and wait for it to be executed. Unlike
+     * {@link com.btmatthews.utils.monitor.Monitor#sendCommand} this reports whether the monitor could be reached so
+     * that stale status files can be detected.
+     *
+     * @param command The command.
+     * @return {@code true} if the command was sent. Otherwise, {@code false}.
+     */
+    private boolean sendCommand(final String command) {
+        try {
+            new MonitorClient(configuration.getMonitorKey(), configuration.getMonitorPort(), STOP_TIMEOUT)
+                    .sendCommand(command);
+            return true;
+        } catch (final IOException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Report that errors were logged while the sources were loaded.
+     *
+     * @param status The status written by the detached JVM.
+     * @param logger Used to log error messages.
+     */
+    private void reportErrors(final DaemonStatus status, final Logger logger) {
+        if (status.hasErrors()) {
+            logger.logError("Errors were reported while loading the sources (log file: " + logFile + ")");
+        }
+    }
+
+    /**
+     * Determine whether a process has exited.
+     *
+     * @param process The process.
+     * @return {@code true} if the process has exited. Otherwise, {@code false}.
+     */
+    private static boolean hasExited(final Process process) {
+        try {
+            process.exitValue();
+            return true;
+        } catch (final IllegalThreadStateException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Sleep between checks of the status file.
+     */
+    private static void sleep() {
+        try {
+            Thread.sleep(POLL_INTERVAL);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Build the class path for the detached JVM from the class loader that loaded the plug-in and the class path of
+     * the current JVM.
+     *
+     * @return The class path.
+     */
+    private static String getClassPath() {
+        final Set<String> entries = new LinkedHashSet<String>();
+        ClassLoader classLoader = DaemonLauncher.class.getClassLoader();
+        while (classLoader != null) {
+            if (classLoader instanceof URLClassLoader) {
+                for (final URL url : ((URLClassLoader) classLoader).getURLs()) {
+                    if ("file".equals(url.getProtocol())) {
+                        entries.add(toPath(url));
+                    }
+                }
+            }
+            classLoader = classLoader.getParent();
+        }
+        for (final String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (entry.length() > 0) {
+                entries.add(entry);
+            }
+        }
+        final StringBuilder classPath = new StringBuilder();
+        for (final String entry : entries) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparatorChar);
+            }
+            classPath.append(entry);
+        }
+        return classPath.toString();
+    }
+
+    /**
+     * Convert a file URL to a path.
+     *
+     * @param url The file URL.
+     * @return The path.
+     */
+    private static String toPath(final URL url) {
+        try {
+            return new File(url.toURI()).getPath();
+        } catch (final URISyntaxException exception) {
+            return url.getPath();
+        }
+    }
+}
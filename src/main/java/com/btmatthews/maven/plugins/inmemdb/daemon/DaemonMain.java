@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.daemon;
+
+import com.btmatthews.maven.plugins.inmemdb.Database;
+import com.btmatthews.maven.plugins.inmemdb.SQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.Source;
+import com.btmatthews.maven.plugins.inmemdb.mojo.ErrorTrackingLogger;
+import com.btmatthews.utils.monitor.Logger;
+import com.btmatthews.utils.monitor.Monitor;
+import com.btmatthews.utils.monitor.MonitorObserver;
+import com.btmatthews.utils.monitor.Server;
+import com.btmatthews.utils.monitor.ServerFactory;
+import com.btmatthews.utils.monitor.ServerFactoryLocator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * The entry point of the detached JVM that runs a reusable database server. It is launched by
+ * {@link DaemonLauncher} with the paths of the configuration, status and log files as arguments.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class DaemonMain {
+
+    /**
+     * The description of the database server.
+     */
+    private final DaemonConfiguration configuration;
+    /**
+     * The status file written once the server has started and the sources have been loaded.
+     */
+    private final File statusFile;
+
+    /**
+     * Construct the daemon.
+     *
+     * @param configuration The description of the database server.
+     * @param statusFile    The status file.
+     */
+    private DaemonMain(final DaemonConfiguration configuration, final File statusFile) {
+        this.configuration = configuration;
+        this.statusFile = statusFile;
+    }
+
+    /**
+     * Run a reusable database server until it is stopped or its lease expires.
+     *
+     * @param args The paths of the configuration, status and log files.
+     * @throws IOException If there was an error reading the configuration or opening the log file.
+     */
+    public static void main(final String[] args) throws IOException {
+        final PrintStream log = new PrintStream(new FileOutputStream(args[2], true), true);
+        System.setOut(log);
+        System.setErr(log);
+        final DaemonConfiguration configuration = DaemonConfiguration.read(new File(args[0]));
+        final ConsoleLogger logger = new ConsoleLogger();
+        logger.logInfo("Database server JVM options: "
+                + ManagementFactory.getRuntimeMXBean().getInputArguments());
+        new DaemonMain(configuration, new File(args[1])).run(logger);
+        System.exit(0);
+    }
+
+    /**
+     * Create, configure and start the database server and then run the monitor until the server is stopped.
+     *
+     * @param logger Used to log information and error messages.
+     */
+    private void run(final Logger logger) {
+        final ServerFactory factory = ServerFactoryLocator.getInstance(logger).getFactory(configuration.getType());
+        if (factory == null) {
+            logger.logError("Unsupported database type: " + configuration.getType());
+            return;
+        }
+        final Server server = factory.createServer();
+        for (final Map.Entry<String, Object> entry : configuration.getServerConfig().entrySet()) {
+            server.configure(entry.getKey(), entry.getValue(), logger);
+        }
+        final Monitor monitor = new Monitor(configuration.getMonitorKey(), configuration.getMonitorPort());
+        monitor.runMonitor(new LeasedServer(server, configuration), logger, new MonitorObserver() {
+            @Override
+            public void started(final Server leasedServer, final Logger logger) {
+                loadSources(server, logger);
+            }
+
+            @Override
+            public void stopped(final Server leasedServer, final Logger logger) {
+                statusFile.delete();
+            }
+        });
+        statusFile.delete();
+    }
+
+    /**
+     * Load the sources, create the copies of the database, save its baseline and then write the status file to signal
+     * that the server is ready.
+     *
+     * @param server The database server.
+     * @param logger Used to log information and error messages.
+     */
+    private void loadSources(final Server server, final Logger logger) {
+        final ErrorTrackingLogger trackingLogger = new ErrorTrackingLogger(logger);
+        for (final Source source : configuration.getSources()) {
+            logger.logInfo("Loading " + source.toString());
+            ((Database) server).load(trackingLogger, source);
+        }
+        if (server instanceof SQLDatabase) {
+            ((SQLDatabase) server).endLoad(trackingLogger);
+            ((SQLDatabase) server).refreshStatistics(trackingLogger);
+            ((SQLDatabase) server).createCopies(trackingLogger);
+            ((SQLDatabase) server).saveBaseline(trackingLogger);
+            ((SQLDatabase) server).makeReadOnly(trackingLogger);
+            ((SQLDatabase) server).logMemoryUsage(logger);
+        }
+        try {
+            new DaemonStatus(configuration.computeFingerprint(), trackingLogger.hasErrors()).write(statusFile);
+        } catch (final IOException exception) {
+            logger.logError("Cannot write the status file " + statusFile, exception);
+        }
+    }
+}
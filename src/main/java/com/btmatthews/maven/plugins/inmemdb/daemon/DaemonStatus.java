@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.daemon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * The status file written by the detached JVM once the database server has started and the sources have been loaded.
+ * The Maven plug-in uses it to decide whether a running server can be reused.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class DaemonStatus {
+
+    /**
+     * The property holding the fingerprint of the configuration used to start the server.
+     */
+    private static final String FINGERPRINT = "fingerprint";
+    /**
+     * The property that indicates whether errors were reported while loading the sources.
+     */
+    private static final String ERRORS = "errors";
+    /**
+     * The fingerprint of the configuration used to start the server.
+     */
+    private final String fingerprint;
+    /**
+     * Indicates whether errors were reported while loading the sources.
+     */
+    private final boolean errors;
+
+    /**
+     * Construct a status.
+     *
+     * @param fingerprint The fingerprint of the configuration used to start the server.
+     * @param errors      Indicates whether errors were reported while loading the sources.
+     */
+    DaemonStatus(final String fingerprint, final boolean errors) {
+        this.fingerprint = fingerprint;
+        this.errors = errors;
+    }
+
+    /**
+     * Read the status from a file.
+     *
+     * @param file The status file.
+     * @return The status or {@code null} if the file does not exist or could not be read.
+     */
+    static DaemonStatus read(final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final Properties properties = new Properties();
+            final InputStream inputStream = new FileInputStream(file);
+            try {
+                properties.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+            return new DaemonStatus(properties.getProperty(FINGERPRINT),
+                    Boolean.valueOf(properties.getProperty(ERRORS)));
+        } catch (final IOException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the status to a file. The status is written to a temporary file which is then renamed so that readers
+     * never see a partially written file.
+     *
+     * @param file The status file.
+     * @throws IOException If there was an error writing the status file.
+     */
+    void write(final File file) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(FINGERPRINT, fingerprint);
+        properties.setProperty(ERRORS, Boolean.toString(errors));
+        final File temporary = new File(file.getPath() + ".tmp");
+        final OutputStream outputStream = new FileOutputStream(temporary);
+        try {
+            properties.store(outputStream, null);
+        } finally {
+            outputStream.close();
+        }
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Cannot rename " + temporary + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Get the fingerprint of the configuration used to start the server.
+     *
+     * @return The fingerprint.
+     */
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Determine whether errors were reported while loading the sources.
+     *
+     * @return {@code true} if errors were reported. Otherwise, {@code false}.
+     */
+    boolean hasErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.daemon;
+
+import com.btmatthews.utils.monitor.Logger;
+import com.btmatthews.utils.monitor.Monitor;
+import com.btmatthews.utils.monitor.Server;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a database server running in a detached JVM and stops it once no Maven invocation has renewed its lease for
+ * the idle timeout. Leases are renewed by sending a {@code configure lease=...} command to the monitor. An idle
+ * timeout of zero disables the lease so that the server runs until it is stopped.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class LeasedServer implements Server {
+
+    /**
+     * The name of the configuration parameter used to renew the lease.
+     */
+    static final String LEASE = "lease";
+    /**
+     * The longest interval between checks of the idle timeout.
+     */
+    private static final long MAX_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * The shortest interval between checks of the idle timeout.
+     */
+    private static final long MIN_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * The database server.
+     */
+    private final Server server;
+    /**
+     * The description of the database server.
+     */
+    private final DaemonConfiguration configuration;
+    /**
+     * The timer used to check the idle timeout.
+     */
+    private final Timer timer = new Timer("inmemdb-idle", true);
+    /**
+     * The time at which the lease was last renewed.
+     */
+    private volatile long leaseTime;
+
+    /**
+     * Wrap a database server.
+     *
+     * @param server        The database server.
+     * @param configuration The description of the database server.
+     */
+    LeasedServer(final Server server, final DaemonConfiguration configuration) {
+        this.server = server;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Renew the lease if {@code name} is {@code lease}. Otherwise, pass the configuration parameter on to the
+     * database server.
+     *
+     * @param name   The name of the configuration parameter.
+     * @param value  The value of the configuration parameter.
+     * @param logger Used to report errors and raise exceptions.
+     */
+    @Override
+    public void configure(final String name, final Object value, final Logger logger) {
+        if (LEASE.equals(name)) {
+            leaseTime = System.currentTimeMillis();
+            logger.logInfo("Lease renewed: " + value);
+        } else {
+            server.configure(name, value, logger);
+        }
+    }
+
+    /**
+     * Start the database server and, unless the idle timeout is disabled, the timer that stops it once the lease has
+     * expired.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     */
+    @Override
+    public void start(final Logger logger) {
+        server.start(logger);
+        leaseTime = System.currentTimeMillis();
+        if (configuration.getIdleTimeout() <= 0) {
+            return;
+        }
+        final long idleTimeout = TimeUnit.MINUTES.toMillis(configuration.getIdleTimeout());
+        final long interval = Math.max(MIN_CHECK_INTERVAL, Math.min(MAX_CHECK_INTERVAL, idleTimeout / 10));
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (System.currentTimeMillis() - leaseTime >= idleTimeout) {
+                    cancel();
+                    logger.logInfo("Stopping database server because it has been idle for "
+                            + configuration.getIdleTimeout() + " minute(s)");
+                    Monitor.sendCommand(configuration.getMonitorKey(), configuration.getMonitorPort(), "stop",
+                            logger);
+                }
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Determine whether the database server has started.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the database server has started. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean isStarted(final Logger logger) {
+        return server.isStarted(logger);
+    }
+
+    /**
+     * Stop the timer and the database server.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     */
+    @Override
+    public void stop(final Logger logger) {
+        timer.cancel();
+        server.stop(logger);
+    }
+
+    /**
+     * Determine whether the database server has stopped.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the database server has stopped. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean isStopped(final Logger logger) {
+        return server.isStopped(logger);
+    }
+}
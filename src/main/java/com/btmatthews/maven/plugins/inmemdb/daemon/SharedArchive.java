@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.btmatthews.maven.plugins.inmemdb.daemon;
+
+import com.btmatthews.maven.plugins.inmemdb.cache.Fingerprint;
+import com.btmatthews.utils.monitor.Logger;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class data sharing archive of the classes loaded by a database server running in a detached JVM. The archive is
+ * written when the first server for a database type and classpath stops and is mapped by later servers so that they
+ * do not have to load and verify the classes of the database engine, DBUnit and POI again. The time taken by the
+ * first server to become ready is kept next to the archive so that it can be compared with later start-ups.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class SharedArchive {
+
+    /**
+     * The earliest Java version that can write a class data sharing archive when the JVM exits.
+     */
+    private static final int MIN_JAVA_VERSION = 13;
+    /**
+     * The number of characters of the fingerprint used in the name of the archive.
+     */
+    private static final int FINGERPRINT_LENGTH = 16;
+    /**
+     * The archive file.
+     */
+    private final File archiveFile;
+    /**
+     * The file containing the start-up time, in milliseconds, of the server that wrote the archive.
+     */
+    private final File startupFile;
+
+    /**
+     * Construct the archive for a database type. The name of the archive includes a fingerprint of the JVM and the
+     * classpath because an archive cannot be used by a different JVM or with a different classpath.
+     *
+     * @param directory The directory containing the archive.
+     * @param type      The database type.
+     * @param classPath The classpath of the detached JVM.
+     * @throws IOException If there was an error computing the fingerprint.
+     */
+    SharedArchive(final File directory, final String type, final String classPath) throws IOException {
+        final String fingerprint = new Fingerprint()
+                .add(System.getProperty("java.home"))
+                .add(System.getProperty("java.vm.version"))
+                .add(classPath)
+                .toHex()
+                .substring(0, FINGERPRINT_LENGTH);
+        archiveFile = new File(directory, "inmemdb-" + type + "-" + fingerprint + ".jsa");
+        startupFile = new File(directory, "inmemdb-" + type + "-" + fingerprint + ".startup");
+    }
+
+    /**
+     * Determine whether the JVM that will be launched can write class data sharing archives. The detached JVM is
+     * launched from the same Java installation as the Maven JVM.
+     *
+     * @return {@code true} if the archives are supported. Otherwise, {@code false}.
+     */
+    static boolean isSupported() {
+        final String version = System.getProperty("java.specification.version");
+        if (version == null || version.startsWith("1.")) {
+            return false;
+        }
+        try {
+            return Integer.parseInt(version) >= MIN_JAVA_VERSION;
+        } catch (final NumberFormatException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Determine whether the classes on a classpath can be archived. The JVM refuses to start with a class data sharing
+     * archive if the classpath contains a directory, as it does when the plugin is run from a reactor build or an IDE.
+     *
+     * @param classPath The classpath of the detached JVM.
+     * @return {@code true} if the classpath only contains archives. Otherwise, {@code false}.
+     */
+    static boolean isArchivable(final String classPath) {
+        for (final String entry : classPath.split(File.pathSeparator)) {
+            final File file = new File(entry);
+            if (file.isDirectory()) {
+                final String[] children = file.list();
+                if (children != null && children.length > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether the archive has been written.
+     *
+     * @return {@code true} if the archive exists. Otherwise, {@code false}.
+     */
+    boolean exists() {
+        return archiveFile.isFile() && archiveFile.length() > 0;
+    }
+
+    /**
+     * Get the JVM options that either map the archive or write it when the JVM exits.
+     *
+     * @return The JVM options.
+     */
+    List<String> getJvmArguments() {
+        final List<String> arguments = new ArrayList<String>();
+        if (exists()) {
+            arguments.add("-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath());
+        } else {
+            archiveFile.getParentFile().mkdirs();
+            arguments.add("-XX:ArchiveClassesAtExit=" + archiveFile.getAbsolutePath());
+        }
+        return arguments;
+    }
+
+    /**
+     * Log the time taken by a database server to become ready. If the archive was used the time is compared with the
+     * time taken by the server that wrote it. Otherwise, the time is recorded for that comparison.
+     *
+     * @param used    {@code true} if the archive was mapped by the server.
+     * @param elapsed The time, in milliseconds, taken by the server to become ready.
+     * @param logger  Used to log information messages.
+     */
+    void logStartup(final boolean used, final long elapsed, final Logger logger) {
+        if (used) {
+            final Long baseline = readStartup();
+            if (baseline == null) {
+                logger.logInfo("Database server was ready in " + elapsed + " ms using class data sharing archive "
+                        + archiveFile);
+            } else {
+                logger.logInfo("Database server was ready in " + elapsed + " ms using class data sharing archive "
+                        + archiveFile + " (" + baseline + " ms without it)");
+            }
+        } else {
+            logger.logInfo("Database server was ready in " + elapsed + " ms without a class data sharing archive. "
+                    + "The archive will be written to " + archiveFile + " when the server stops");
+            try {
+                FileUtils.fileWrite(startupFile.getAbsolutePath(), Long.toString(elapsed));
+            } catch (final IOException exception) {
+                logger.logError("Cannot record the start-up time of the database server", exception);
+            }
+        }
+    }
+
+    /**
+     * Read the time taken to become ready by the server that wrote the archive.
+     *
+     * @return The time in milliseconds or {@code null} if it was not recorded.
+     */
+    private Long readStartup() {
+        if (!startupFile.isFile()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(FileUtils.fileRead(startupFile).trim());
+        } catch (final IOException exception) {
+            return null;
+        } catch (final NumberFormatException exception) {
+            return null;
+        }
+    }
+}
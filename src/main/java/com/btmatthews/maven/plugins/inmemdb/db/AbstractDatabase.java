@@ -16,8 +16,18 @@
 
 package com.btmatthews.maven.plugins.inmemdb.db;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.btmatthews.maven.plugins.inmemdb.Database;
 import com.btmatthews.maven.plugins.inmemdb.Loader;
@@ -45,10 +55,64 @@ public abstract class AbstractDatabase extends AbstractServer implements Databas
      * The message key for the error reported when a server cannot be stopped.
      */
     protected static final String ERROR_STOPPING_SERVER = "error_stopping_server";
+    /**
+     * The message key for the error reported when a server did not start accepting connections.
+     */
+    protected static final String SERVER_NOT_READY = "server_not_ready";
+    /**
+     * The default number of times the server socket is probed before giving up.
+     */
+    protected static final int PROBE_RETRIES = 10;
+    /**
+     * The default delay in milliseconds before the first retry when probing the server socket. The delay is doubled
+     * for each subsequent retry.
+     */
+    protected static final int PROBE_INITIAL_DELAY = 10;
+    /**
+     * The upper bound in milliseconds for the delay between server socket probes.
+     */
+    private static final int PROBE_MAX_DELAY = 1000;
+    /**
+     * The timeout in milliseconds when connecting to the server socket during a probe.
+     */
+    private static final int PROBE_CONNECT_TIMEOUT = 1000;
+    /**
+     * The maximum time in milliseconds to wait for the database to signal that it is ready.
+     */
+    private static final long READY_TIMEOUT = 30000L;
     /**
      * The message key for the error reported when a file type is not supported.
      */
     private static final String UNSUPPORTED_FILE_TYPE = "unsupported_file_type";
+    /**
+     * The message key for the error reported when a clone command cannot be executed.
+     */
+    private static final String INVALID_CLONE_COMMAND = "invalid_clone_command";
+    /**
+     * The message key for the error reported when a reset command cannot be executed.
+     */
+    private static final String INVALID_RESET_COMMAND = "invalid_reset_command";
+    /**
+     * The message key for the error reported when a begin or end command cannot be executed.
+     */
+    private static final String INVALID_SCOPE_COMMAND = "invalid_scope_command";
+    /**
+     * The message key for the error reported when a profile is not supported.
+     */
+    private static final String INVALID_PROFILE = "invalid_profile";
+    /**
+     * The message key for the error reported when a storage backend is not supported.
+     */
+    private static final String INVALID_STORAGE = "invalid_storage";
+    /**
+     * The message key for the error reported when a transaction model is not supported.
+     */
+    private static final String INVALID_CONCURRENCY = "invalid_concurrency";
+    /**
+     * The pattern that the value of a {@code clone}, {@code begin} or {@code end} command must match. The first group
+     * is the name of the database and the second is the name of the clone or transaction scope.
+     */
+    private static final Pattern CLONE_PATTERN = Pattern.compile("\\s*(\\S+)\\s+(\\w+)\\s*");
     /**
      * The database name.
      */
@@ -69,6 +133,100 @@ public abstract class AbstractDatabase extends AbstractServer implements Databas
      * The attributes used for the database
      */
     private Map<String, String> attributes = new HashMap<String, String>();
+    /**
+     * Indicates whether the database is accessed in-process only without starting a network server.
+     */
+    private boolean embedded;
+    /**
+     * The number of copies of the database that are created after the sources have been loaded.
+     */
+    private int copies;
+    /**
+     * Indicates whether clones of the database can be created on demand.
+     */
+    private boolean cloneable;
+    /**
+     * Indicates whether the database can be reset to the state it was in after its sources were loaded.
+     */
+    private boolean resettable;
+    /**
+     * Indicates whether the number of concurrent sessions and the lock waits are sampled while the database is
+     * running.
+     */
+    private boolean sampleSessions;
+    /**
+     * Indicates whether the tables modified since the baseline was saved are tracked so that a reset only reloads
+     * those tables.
+     */
+    private boolean trackChanges;
+    /**
+     * Indicates whether the optimizer statistics are refreshed after the sources have been loaded.
+     */
+    private boolean refreshStatistics;
+    /**
+     * Indicates whether the database is made read-only after the sources have been loaded.
+     */
+    private boolean readOnlyAfterLoad;
+    /**
+     * The performance profile or {@code null} if the database type's default settings are used.
+     */
+    private Profile profile;
+    /**
+     * The storage backend.
+     */
+    private Storage storage = Storage.HEAP;
+    /**
+     * The transaction model or {@code null} if the database type's default transaction model is used.
+     */
+    private Concurrency concurrency;
+    /**
+     * The directory below which the files of databases using {@link Storage#DISK} are created or {@code null} to use
+     * {@code /dev/shm} if it is available or the system temporary directory otherwise.
+     */
+    private File spillDirectory;
+    /**
+     * The size in megabytes of the cache used by databases using {@link Storage#DISK} or {@code 0} to use the
+     * default cache size of the database type.
+     */
+    private int cacheSize;
+    /**
+     * The file to which the memory report is written once the database has been loaded or {@code null} if the report
+     * is only logged.
+     */
+    private File memoryReport;
+    /**
+     * Indicates whether the heap in use is measured when the database begins starting. It is turned off when other
+     * databases are started or loaded in the same JVM at the same time because their memory would be included.
+     */
+    private boolean measureHeap = true;
+    /**
+     * The maximum number of concurrent connections accepted by the server or {@code 0} to use the default limit of
+     * the database type.
+     */
+    private int maxConnections;
+    /**
+     * The maximum number of threads the server uses to handle connections or {@code 0} to use the default of the
+     * database type.
+     */
+    private int serverThreads;
+    /**
+     * Released when the database has either become ready or failed to start. A latch is armed for each start cycle
+     * before the database is started, so that a thread asking whether the database has started before the starting
+     * thread has begun starting it waits for the outcome rather than seeing a released latch.
+     */
+    private volatile CountDownLatch readyLatch = new CountDownLatch(1);
+    /**
+     * Indicates whether the database is accepting connections and has been created.
+     */
+    private volatile boolean ready;
+    /**
+     * The time at which the database started starting up. Used to measure the time-to-ready.
+     */
+    private long startTime;
+    /**
+     * The number of bytes of heap in use when the database began starting or {@code -1} if it was not measured.
+     */
+    private long heapBeforeLoad = -1;
 
     /**
      * Constructor initializes default database port.
@@ -103,6 +261,93 @@ public abstract class AbstractDatabase extends AbstractServer implements Databas
         } else if("attributes".equals(name)) {
            logger.logInfo("Configured database attributes: " + value);
            attributes = (Map<String, String>) value;
+        } else if ("embedded".equals(name)) {
+            logger.logInfo("Configured database embedded mode: " + value);
+            embedded = Boolean.valueOf(value.toString());
+        } else if ("copies".equals(name)) {
+            logger.logInfo("Configured database copies: " + value);
+            copies = Integer.parseInt(value.toString());
+        } else if ("cloneable".equals(name)) {
+            logger.logInfo("Configured database cloneable: " + value);
+            cloneable = Boolean.valueOf(value.toString());
+        } else if ("resettable".equals(name)) {
+            logger.logInfo("Configured database resettable: " + value);
+            resettable = Boolean.valueOf(value.toString());
+        } else if ("sampleSessions".equals(name)) {
+            logger.logInfo("Configured database session sampling: " + value);
+            sampleSessions = Boolean.valueOf(value.toString());
+        } else if ("trackChanges".equals(name)) {
+            logger.logInfo("Configured database change tracking: " + value);
+            trackChanges = Boolean.valueOf(value.toString());
+        } else if ("refreshStatistics".equals(name)) {
+            logger.logInfo("Configured database statistics refresh: " + value);
+            refreshStatistics = Boolean.valueOf(value.toString());
+        } else if ("readOnlyAfterLoad".equals(name)) {
+            logger.logInfo("Configured database read-only after load: " + value);
+            readOnlyAfterLoad = Boolean.valueOf(value.toString());
+        } else if ("profile".equals(name)) {
+            profile = Profile.forProfileName(value.toString());
+            if (profile == null) {
+                logger.logError(MessageUtil.getMessage(INVALID_PROFILE, value));
+            } else {
+                logger.logInfo("Configured database profile: " + value);
+            }
+        } else if ("storage".equals(name)) {
+            final Storage selected = Storage.forStorageName(value.toString());
+            if (selected == null || !isStorageSupported(selected)) {
+                logger.logError(MessageUtil.getMessage(INVALID_STORAGE, value));
+            } else {
+                logger.logInfo("Configured database storage: " + value);
+                storage = selected;
+            }
+        } else if ("concurrency".equals(name)) {
+            final Concurrency selected = Concurrency.forConcurrencyName(value.toString());
+            if (selected == null || !isConcurrencySupported(selected)) {
+                logger.logError(MessageUtil.getMessage(INVALID_CONCURRENCY, value));
+            } else {
+                logger.logInfo("Configured database concurrency: " + value);
+                concurrency = selected;
+            }
+        } else if ("spillDirectory".equals(name)) {
+            logger.logInfo("Configured database spill directory: " + value);
+            spillDirectory = new File(value.toString());
+        } else if ("memoryReport".equals(name)) {
+            logger.logInfo("Configured database memory report: " + value);
+            memoryReport = new File(value.toString());
+        } else if ("measureHeap".equals(name)) {
+            logger.logInfo("Configured database heap measurement: " + value);
+            measureHeap = Boolean.valueOf(value.toString());
+        } else if ("cacheSize".equals(name)) {
+            logger.logInfo("Configured database cache size: " + value);
+            cacheSize = Integer.parseInt(value.toString());
+        } else if ("maxConnections".equals(name)) {
+            logger.logInfo("Configured database maximum connections: " + value);
+            maxConnections = Integer.parseInt(value.toString());
+        } else if ("serverThreads".equals(name)) {
+            logger.logInfo("Configured database server threads: " + value);
+            serverThreads = Integer.parseInt(value.toString());
+        } else if ("reset".equals(name)) {
+            if (resettable && value.toString().trim().equals(databaseName)) {
+                reset(logger);
+            } else {
+                logger.logError(MessageUtil.getMessage(INVALID_RESET_COMMAND, value, databaseName));
+            }
+        } else if ("clone".equals(name)) {
+            final Matcher matcher = CLONE_PATTERN.matcher(value.toString());
+            if (cloneable && matcher.matches() && matcher.group(1).equals(databaseName)) {
+                createClone(logger, matcher.group(2));
+            } else {
+                logger.logError(MessageUtil.getMessage(INVALID_CLONE_COMMAND, value, databaseName));
+            }
+        } else if ("begin".equals(name) || "end".equals(name)) {
+            final Matcher matcher = CLONE_PATTERN.matcher(value.toString());
+            if (!matcher.matches() || !matcher.group(1).equals(databaseName)) {
+                logger.logError(MessageUtil.getMessage(INVALID_SCOPE_COMMAND, name, value, databaseName));
+            } else if ("begin".equals(name)) {
+                beginScope(logger, matcher.group(2));
+            } else {
+                endScope(logger, matcher.group(2));
+            }
         }
     }
 
@@ -154,7 +399,386 @@ public abstract class AbstractDatabase extends AbstractServer implements Databas
     public Map<String, String> getAttributes() {
        return attributes;
     }
-    
+
+    /**
+     * Determine whether the database is only accessed in-process, in which case no network server is started
+     * and the JDBC URLs refer directly to the in-memory database.
+     *
+     * @return {@code true} if the database is running in embedded mode. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    public final boolean isEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * Get the number of copies of the database that are created after the sources have been loaded.
+     *
+     * @return The number of copies.
+     * @since 2.0.0
+     */
+    public final int getCopies() {
+        return copies;
+    }
+
+    /**
+     * Determine whether clones of the database can be created on demand using the {@code clone} command.
+     *
+     * @return {@code true} if clones can be created. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    public final boolean isCloneable() {
+        return cloneable;
+    }
+
+    /**
+     * Determine whether the database can be reset to the state it was in after its sources were loaded using the
+     * {@code reset} command.
+     *
+     * @return {@code true} if the database can be reset. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    public final boolean isResettable() {
+        return resettable;
+    }
+
+    /**
+     * Determine whether the number of concurrent sessions and the lock waits are sampled while the database is
+     * running so that they can be reported when it is stopped.
+     *
+     * @return {@code true} if the sessions are sampled. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    public final boolean isSampleSessions() {
+        return sampleSessions;
+    }
+
+    /**
+     * Determine whether the tables modified since the baseline was saved are tracked so that a reset only reloads
+     * those tables.
+     *
+     * @return {@code true} if changes are tracked. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    public final boolean isTrackChanges() {
+        return trackChanges;
+    }
+
+    /**
+     * Determine whether the optimizer statistics are refreshed after the sources have been loaded.
+     *
+     * @return {@code true} if the statistics are refreshed. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    public final boolean isRefreshStatistics() {
+        return refreshStatistics;
+    }
+
+    /**
+     * Determine whether the database is made read-only after the sources have been loaded.
+     *
+     * @return {@code true} if the database is made read-only. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    public final boolean isReadOnlyAfterLoad() {
+        return readOnlyAfterLoad;
+    }
+
+    /**
+     * Get the performance profile that is translated into tuning settings specific to the database type.
+     *
+     * @return The profile or {@code null} if the database type's default settings are used.
+     * @since 2.0.0
+     */
+    public final Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Get the storage backend used to hold the rows of the database.
+     *
+     * @return The storage backend.
+     * @since 2.0.0
+     */
+    public final Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Get the transaction model used to isolate concurrent sessions.
+     *
+     * @return The transaction model or {@code null} if the database type's default transaction model is used.
+     * @since 2.0.0
+     */
+    public final Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Get the directory below which the files of databases using {@link Storage#DISK} are created.
+     *
+     * @return The configured directory, {@code /dev/shm} if it is a writable directory or the system temporary
+     *         directory.
+     * @since 2.0.0
+     */
+    public final File getSpillDirectory() {
+        if (spillDirectory != null) {
+            return spillDirectory;
+        }
+        final File sharedMemory = new File("/dev/shm");
+        if (sharedMemory.isDirectory() && sharedMemory.canWrite()) {
+            return sharedMemory;
+        }
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Get the size in megabytes of the cache used by databases using {@link Storage#DISK}.
+     *
+     * @return The cache size or {@code 0} to use the default cache size of the database type.
+     * @since 2.0.0
+     */
+    public final int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Get the file to which the memory report is written once the database has been loaded.
+     *
+     * @return The file or {@code null} if the report is only logged.
+     * @since 2.0.0
+     */
+    public final File getMemoryReport() {
+        return memoryReport;
+    }
+
+    /**
+     * Get the heap in use when the database began starting, before it was created, restored or loaded.
+     *
+     * @return The number of bytes or {@code -1} if it was not measured.
+     * @since 2.0.0
+     */
+    protected final long getHeapBeforeLoad() {
+        return heapBeforeLoad;
+    }
+
+    /**
+     * Collect the garbage and measure the heap in use.
+     *
+     * @return The number of bytes.
+     * @since 2.0.0
+     */
+    protected static long measureHeapUsed() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Get the maximum number of concurrent connections accepted by the server.
+     *
+     * @return The maximum number of connections or {@code 0} to use the default limit of the database type.
+     * @since 2.0.0
+     */
+    public final int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Get the maximum number of threads the server uses to handle connections.
+     *
+     * @return The number of threads or {@code 0} to use the default of the database type.
+     * @since 2.0.0
+     */
+    public final int getServerThreads() {
+        return serverThreads;
+    }
+
+    /**
+     * Determine whether the database type supports a storage backend.
+     *
+     * @param storage The storage backend.
+     * @return {@code true} if the storage backend is supported. The default implementation only supports
+     *         {@link Storage#HEAP}.
+     * @since 2.0.0
+     */
+    protected boolean isStorageSupported(final Storage storage) {
+        return storage == Storage.HEAP;
+    }
+
+    /**
+     * Determine whether the database type supports a transaction model.
+     *
+     * @param concurrency The transaction model.
+     * @return {@code true} if the transaction model is supported. The default implementation does not support
+     *         selecting a transaction model.
+     * @since 2.0.0
+     */
+    protected boolean isConcurrencySupported(final Concurrency concurrency) {
+        return false;
+    }
+
+    /**
+     * Reset the database to the state it was in after its sources were loaded. This is invoked when the database is
+     * sent a {@code configure reset=<database>} command where {@code <database>} is the name of this database.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the database was reset. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    protected abstract boolean reset(Logger logger);
+
+    /**
+     * Create a clone of the database from its current state. This is invoked when the database is sent a
+     * {@code configure clone=<template> <name>} command where {@code <template>} is the name of this database.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param name   The name of the clone.
+     * @return {@code true} if the clone was created. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    protected abstract boolean createClone(Logger logger, String name);
+
+    /**
+     * Begin a transaction scope by pinning a connection to the database in manual commit mode. Code running in the
+     * same JVM as the server shares the connection using the URL {@code jdbc:inmemdb:session:<name>}. This is invoked
+     * when the database is sent a {@code configure begin=<database> <name>} command where {@code <database>} is the
+     * name of this database.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param name   The name of the transaction scope.
+     * @return {@code true} if the transaction scope was begun. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    protected abstract boolean beginScope(Logger logger, String name);
+
+    /**
+     * End a transaction scope by rolling back the work done through its pinned connection and closing it. This is
+     * invoked when the database is sent a {@code configure end=<database> <name>} command where {@code <database>} is
+     * the name of this database.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param name   The name of the transaction scope.
+     * @return {@code true} if the transaction scope was ended. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    protected abstract boolean endScope(Logger logger, String name);
+
+    /**
+     * Get the name of one of the copies of the database. The copies are numbered from {@code 1} so that the names
+     * match the fork numbers assigned by the Surefire and Failsafe plug-ins.
+     *
+     * @param number The number of the copy.
+     * @return The database name suffixed with the number of the copy.
+     * @since 2.0.0
+     */
+    protected final String getCopyName(final Object number) {
+        return databaseName + "_" + number;
+    }
+
+    /**
+     * Called by concrete classes when they begin starting the database. This measures the heap in use before the
+     * database is created, restored or loaded and records the start time used to report the time-to-ready. The latch
+     * released by {@link #signalReady(Logger)} or {@link #signalFailed()} is not replaced here because threads may
+     * already be waiting on it.
+     *
+     * @since 2.0.0
+     */
+    protected final void signalStarting() {
+        heapBeforeLoad = measureHeap ? measureHeapUsed() : -1;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Called by concrete classes when they begin stopping the database. This arms a new latch for the next start
+     * cycle so that {@link #awaitReady()} waits for that cycle's outcome.
+     *
+     * @since 2.0.0
+     */
+    protected final void signalStopping() {
+        ready = false;
+        heapBeforeLoad = -1;
+        readyLatch = new CountDownLatch(1);
+    }
+
+    /**
+     * Called by concrete classes when the database is accepting connections and has been created. Threads waiting in
+     * {@link #awaitReady()} are released and the time-to-ready is logged.
+     *
+     * @param logger Used to log the time-to-ready.
+     * @since 2.0.0
+     */
+    protected final void signalReady(final Logger logger) {
+        ready = true;
+        readyLatch.countDown();
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.logInfo("Database " + databaseName + " was ready in " + elapsed + " ms");
+    }
+
+    /**
+     * Called by concrete classes when the database could not be started. Threads waiting in {@link #awaitReady()}
+     * are released.
+     *
+     * @since 2.0.0
+     */
+    protected final void signalFailed() {
+        ready = false;
+        readyLatch.countDown();
+    }
+
+    /**
+     * Block until the database has signalled that it is ready or that it failed to start.
+     *
+     * @return {@code true} if the database is ready. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    protected final boolean awaitReady() {
+        try {
+            readyLatch.await(READY_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return ready;
+    }
+
+    /**
+     * Probe the server socket on the loopback interface until it accepts a connection. The probe is retried with
+     * an exponential back-off that starts at {@code initialDelay} milliseconds and is capped at one second.
+     *
+     * @param port         The port number of the server socket.
+     * @param retries      The maximum number of times to retry the probe.
+     * @param initialDelay The delay in milliseconds before the first retry.
+     * @return {@code true} if the server socket accepted a connection. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    protected final boolean waitForPort(final int port, final int retries, final int initialDelay) {
+        long delay = initialDelay;
+        for (int i = 0; i <= retries; ++i) {
+            final Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress("localhost", port), PROBE_CONNECT_TIMEOUT);
+                return true;
+            } catch (final IOException e) {
+                if (i < retries) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (final InterruptedException e1) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    delay = Math.min(delay * 2, PROBE_MAX_DELAY);
+                }
+            } finally {
+                try {
+                    socket.close();
+                } catch (final IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Get the loaders that are supported for loading data or executing scripts.
      *
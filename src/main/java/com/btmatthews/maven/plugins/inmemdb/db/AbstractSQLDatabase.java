@@ -16,10 +16,41 @@
 
 package com.btmatthews.maven.plugins.inmemdb.db;
 
+import com.btmatthews.maven.plugins.inmemdb.MessageUtil;
 import com.btmatthews.maven.plugins.inmemdb.SQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.client.TransactionScope;
+import com.btmatthews.utils.monitor.Logger;
+import org.codehaus.plexus.util.FileUtils;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Abstract base classes embedded SQL databases.
@@ -29,6 +60,131 @@ import java.util.Map;
  */
 public abstract class AbstractSQLDatabase extends AbstractDatabase implements SQLDatabase {
 
+    /**
+     * The message key for the error reported when a snapshot cannot be created.
+     */
+    protected static final String ERROR_CREATING_SNAPSHOT = "error_creating_snapshot";
+    /**
+     * The message key for the error reported when a snapshot cannot be restored.
+     */
+    protected static final String ERROR_RESTORING_SNAPSHOT = "error_restoring_snapshot";
+    /**
+     * The message key for the error reported when a copy of the database cannot be created.
+     */
+    protected static final String ERROR_CREATING_COPY = "error_creating_copy";
+    /**
+     * The message key for the error reported when a clone cannot be created because no snapshot was saved.
+     */
+    protected static final String ERROR_CREATING_CLONE = "error_creating_clone";
+    /**
+     * The message key for the error reported when a clone would replace an existing database.
+     */
+    protected static final String DUPLICATE_CLONE_NAME = "duplicate_clone_name";
+    /**
+     * The message key for the error reported when the database cannot be reset.
+     */
+    protected static final String ERROR_RESETTING = "error_resetting";
+    /**
+     * The message key for the error reported when changes to the database cannot be tracked.
+     */
+    protected static final String ERROR_TRACKING_CHANGES = "error_tracking_changes";
+    /**
+     * The message key for the error reported when the optimizer statistics cannot be refreshed.
+     */
+    protected static final String ERROR_REFRESHING_STATISTICS = "error_refreshing_statistics";
+    /**
+     * The message key for the error reported when the database cannot be made read-only.
+     */
+    protected static final String ERROR_MAKING_READ_ONLY = "error_making_read_only";
+    /**
+     * The message key for the error reported when the settings used while loading the database cannot be undone.
+     */
+    protected static final String ERROR_ENDING_LOAD = "error_ending_load";
+    /**
+     * The message key for the error reported when a transaction scope cannot be begun.
+     */
+    protected static final String ERROR_BEGINNING_SCOPE = "error_beginning_scope";
+    /**
+     * The message key for the error reported when a transaction scope cannot be rolled back.
+     */
+    protected static final String ERROR_ENDING_SCOPE = "error_ending_scope";
+    /**
+     * The message key for the error reported when the memory report cannot be produced.
+     */
+    protected static final String ERROR_REPORTING_MEMORY = "error_reporting_memory";
+    /**
+     * The table into which the change tracking triggers insert the names of the tables that have been modified.
+     */
+    public static final String DIRTY_TABLE = "PUBLIC.INMEMDB_DIRTY";
+    /**
+     * The interval in milliseconds between samples of the number of concurrent sessions and lock waits.
+     */
+    private static final long SESSION_SAMPLE_INTERVAL = 250;
+    /**
+     * The number of rows of a table that are sampled to estimate its size.
+     */
+    private static final int SIZE_SAMPLE_ROWS = 100;
+    /**
+     * The estimated number of bytes used by a row in addition to its values.
+     */
+    private static final long ROW_OVERHEAD = 32;
+    /**
+     * The estimated number of bytes used by a reference to a value.
+     */
+    private static final long REFERENCE_SIZE = 8;
+    /**
+     * The estimated number of bytes used by a value that is neither a string nor binary data.
+     */
+    private static final long VALUE_SIZE = 24;
+    /**
+     * The estimated number of bytes used by a string or binary value in addition to its contents.
+     */
+    private static final long ARRAY_OVERHEAD = 40;
+    /**
+     * The names of the clones that have been created.
+     */
+    private final Set<String> clones = new LinkedHashSet<String>();
+    /**
+     * The transaction scopes that have been begun using the {@code begin} command keyed by name.
+     */
+    private final Map<String, TransactionScope> scopes = new HashMap<String, TransactionScope>();
+    /**
+     * The snapshot from which the database is reset and clones are created or {@code null} if it has not been written
+     * yet.
+     */
+    private File baseline;
+    /**
+     * Tracks the tables modified since the baseline was saved or {@code null} if changes are not tracked.
+     */
+    private ChangeTracker changeTracker;
+    /**
+     * Indicates whether the database and its copies have been made read-only.
+     */
+    private boolean readOnly;
+    /**
+     * Indicates whether the database is being loaded and the loaders connect with the {@link #getLoadAttributes()}.
+     */
+    private volatile boolean loading = true;
+    /**
+     * Guards {@link #sessionSampler} so that a sample is never taken once the database is being stopped.
+     */
+    private final Object sessionLock = new Object();
+    /**
+     * Periodically samples the number of concurrent sessions and lock waits or {@code null} if the database is not
+     * running.
+     */
+    private Timer sessionSampler;
+    /**
+     * The highest number of concurrent sessions sampled since the database was started or {@code -1} if the database
+     * type cannot count its sessions.
+     */
+    private int peakSessions;
+    /**
+     * The lock waits sampled since the database was started or {@code null} if the database type cannot report its
+     * lock waits.
+     */
+    private LockContention lockContention;
+
     /**
      * Constructor initializes default database port.
      *
@@ -39,12 +195,20 @@ public abstract class AbstractSQLDatabase extends AbstractDatabase implements SQ
     }
 
     /**
-     * Get the database connection protocol.
+     * Get the database connection protocol used by clients connecting over the network.
      *
      * @return The database connection protocol.
      */
     protected abstract String getUrlProtocol();
 
+    /**
+     * Get the database connection protocol used for in-process connections via the embedded driver.
+     *
+     * @return The database connection protocol.
+     * @since 2.0.0
+     */
+    protected abstract String getEmbeddedUrlProtocol();
+
     /**
      * Construct the JDBC URL without addtional connection specific attributes.
      *
@@ -55,16 +219,1302 @@ public abstract class AbstractSQLDatabase extends AbstractDatabase implements SQ
     }
 
     /**
-     * Construct the JDBC URL with connection specific attributes.
+     * Get the settings that determine the contents and format of the database. The port and the directory of
+     * databases stored on disk are excluded because they can change from run to run.
+     *
+     * @return The settings sorted by name.
+     * @since 2.0.0
+     */
+    public final Map<String, String> getSettings() {
+        final Map<String, String> settings = new TreeMap<String, String>();
+        settings.put("database", getDatabaseName());
+        settings.put("username", getUsername());
+        settings.put("storage", getStorage().getStorageName());
+        if (getProfile() != null) {
+            settings.put("profile", getProfile().getProfileName());
+        }
+        if (getConcurrency() != null) {
+            settings.put("concurrency", getConcurrency().getConcurrencyName());
+        }
+        for (final Map.Entry<String, String> attribute : getAttributes().entrySet()) {
+            settings.put("attribute." + attribute.getKey(), attribute.getValue());
+        }
+        return settings;
+    }
+
+    /**
+     * Construct the JDBC URL with connection specific attributes. The in-process URL is returned if the database
+     * is running in embedded mode.
      *
      * @param additionalAttributes The connection specific attributes.
      * @return The JDBC URL.
      */
     public final String getUrl(final Map<String, String> additionalAttributes) {
+        if (isEmbedded()) {
+            return buildUrl(getEmbeddedUrlProtocol(), getDatabaseName(), additionalAttributes);
+        }
+        return buildUrl(getUrlProtocol(), getDatabaseName(), additionalAttributes);
+    }
+
+    /**
+     * Construct the JDBC URL used for in-process connections without additional connection specific attributes.
+     *
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    public final String getEmbeddedUrl() {
+        return getEmbeddedUrl(new HashMap<String, String>());
+    }
+
+    /**
+     * Construct the JDBC URL used for in-process connections with connection specific attributes. This URL
+     * refers to the same in-memory database that the network server exposes to other JVMs.
+     *
+     * @param additionalAttributes The connection specific attributes.
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    public final String getEmbeddedUrl(final Map<String, String> additionalAttributes) {
+        return buildUrl(getEmbeddedUrlProtocol(), getDatabaseName(), additionalAttributes);
+    }
+
+    /**
+     * Construct the JDBC URL used by clients to connect to one of the copies of the database.
+     *
+     * @param number The number of the copy.
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    public final String getCopyUrl(final String number) {
+        return getOtherUrl(getCopyName(number), new HashMap<String, String>());
+    }
+
+    /**
+     * Construct the JDBC URL used by clients to connect to another database served alongside this one. The
+     * in-process URL is returned if the database is running in embedded mode.
+     *
+     * @param name                 The name of the other database.
+     * @param additionalAttributes The connection specific attributes.
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    protected final String getOtherUrl(final String name, final Map<String, String> additionalAttributes) {
+        final String protocol = isEmbedded() ? getEmbeddedUrlProtocol() : getUrlProtocol();
+        return buildUrl(protocol, name, additionalAttributes);
+    }
+
+    /**
+     * Construct the JDBC URL used for in-process connections to another database served alongside this one.
+     *
+     * @param name                 The name of the other database.
+     * @param additionalAttributes The connection specific attributes.
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    protected final String getEmbeddedUrl(final String name, final Map<String, String> additionalAttributes) {
+        return buildUrl(getEmbeddedUrlProtocol(), name, additionalAttributes);
+    }
+
+    /**
+     * Create the copies of the database by writing a single snapshot and then restoring it into each of the copies
+     * concurrently. At most one copy is created per available processor at a time.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if all the copies were created. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    @Override
+    public final boolean createCopies(final Logger logger) {
+        final int count = getCopies();
+        if (count <= 0) {
+            return true;
+        }
+        final long startTime = System.nanoTime();
+        final File directory = createSnapshot(logger);
+        if (directory == null) {
+            return false;
+        }
+        try {
+            final int threads = Math.min(count, Runtime.getRuntime().availableProcessors());
+            final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "inmemdb-copy-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(count);
+                for (int i = 1; i <= count; i++) {
+                    final String name = getCopyName(i);
+                    futures.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return copy(logger, directory, name);
+                        }
+                    }));
+                }
+                boolean copied = true;
+                for (final Future<Boolean> future : futures) {
+                    try {
+                        copied &= future.get();
+                    } catch (final ExecutionException exception) {
+                        logger.logError(MessageUtil.getMessage(ERROR_CREATING_COPY, getDatabaseName()),
+                                exception.getCause());
+                        copied = false;
+                    } catch (final InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                logger.logInfo("Created " + count + " cop" + (count == 1 ? "y" : "ies") + " of database "
+                        + getDatabaseName() + " in " + elapsed + " ms");
+                return copied;
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            deleteSnapshot(logger, directory);
+        }
+    }
+
+    /**
+     * Get the JDBC URL that clients use to connect to a clone of the database.
+     *
+     * @param name The name of the clone. This can be a place holder that is substituted later.
+     * @return The JDBC URL.
+     * @since 2.0.0
+     */
+    @Override
+    public String getCloneUrl(final String name) {
+        return getOtherUrl(name, new HashMap<String, String>());
+    }
+
+    /**
+     * Refresh the optimizer statistics if the database was configured to do so and log how long it took. This is
+     * done before the copies are created and the baseline is saved so that they inherit the statistics.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @since 2.0.0
+     */
+    @Override
+    public final void refreshStatistics(final Logger logger) {
+        if (!isRefreshStatistics()) {
+            return;
+        }
+        final long startTime = System.nanoTime();
+        try {
+            final Connection connection = getLoaderDataSource().getConnection();
+            try {
+                if (!updateStatistics(connection)) {
+                    logger.logInfo("Database " + getDatabaseName() + " does not keep optimizer statistics");
+                    return;
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (final SQLException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_REFRESHING_STATISTICS, getDatabaseName()), exception);
+            return;
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.logInfo("Refreshed the optimizer statistics of database " + getDatabaseName() + " in " + elapsed
+                + " ms");
+    }
+
+    /**
+     * Run the engine specific commands that refresh the optimizer statistics of every table.
+     *
+     * @param connection The connection used to run the commands.
+     * @return {@code true} if the statistics were refreshed or {@code false} if the database type does not keep
+     *         optimizer statistics. The default implementation always returns {@code false}.
+     * @throws SQLException If there was an error refreshing the statistics.
+     * @since 2.0.0
+     */
+    protected boolean updateStatistics(final Connection connection) throws SQLException {
+        return false;
+    }
+
+    /**
+     * Make the database and its copies read-only if the database was configured to be read-only after its sources
+     * were loaded and log how long it took. This is done after the baseline is saved so clones created from the
+     * baseline remain writable.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @since 2.0.0
+     */
+    @Override
+    public final synchronized void makeReadOnly(final Logger logger) {
+        if (!isReadOnlyAfterLoad() || readOnly) {
+            return;
+        }
+        final long startTime = System.nanoTime();
+        final String password = getPassword().length() == 0 ? null : getPassword();
+        try {
+            for (int i = 0; i <= getCopies(); i++) {
+                final Connection connection;
+                if (i == 0) {
+                    connection = getLoaderDataSource().getConnection();
+                } else {
+                    final String url = getEmbeddedUrl(getCopyName(i), new HashMap<String, String>());
+                    connection = DriverManager.getConnection(url, getUsername(), password);
+                }
+                try {
+                    if (!setReadOnly(connection)) {
+                        logger.logInfo("Database " + getDatabaseName() + " does not support read-only mode");
+                        return;
+                    }
+                } finally {
+                    connection.close();
+                }
+            }
+        } catch (final SQLException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_MAKING_READ_ONLY, getDatabaseName()), exception);
+            return;
+        }
+        readOnly = true;
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.logInfo("Made database " + getDatabaseName() + " read-only in " + elapsed + " ms");
+    }
+
+    /**
+     * Switch a database to the read-only mode of the database engine.
+     *
+     * @param connection A connection to the database.
+     * @return {@code true} if the database was made read-only or {@code false} if the database type does not support
+     *         a read-only mode. The default implementation always returns {@code false}.
+     * @throws SQLException If there was an error switching to read-only mode.
+     * @since 2.0.0
+     */
+    protected boolean setReadOnly(final Connection connection) throws SQLException {
+        return false;
+    }
+
+    /**
+     * Write the baseline snapshot from which the database is reset if the database is resettable and from which
+     * clones are created if the database is cloneable. Any previous baseline snapshot is replaced. The snapshot is
+     * written before the triggers that track changes are installed so that clones do not inherit them.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the baseline snapshot was written or is not needed. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    @Override
+    public final synchronized boolean saveBaseline(final Logger logger) {
+        if (!isResettable() && !isCloneable()) {
+            return true;
+        }
+        final long startTime = System.nanoTime();
+        if (baseline != null) {
+            deleteSnapshot(logger, baseline);
+        }
+        baseline = createSnapshot(logger);
+        if (baseline == null) {
+            return false;
+        }
+        if (isResettable() && isTrackChanges()) {
+            trackChanges(logger);
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.logInfo("Saved the baseline of database " + getDatabaseName() + " in " + elapsed + " ms");
+        return true;
+    }
+
+    /**
+     * Install the triggers that track the tables modified since the baseline was saved, unless they are already
+     * installed, and cache the contents of the tables from which the modified tables are reloaded.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     */
+    private void trackChanges(final Logger logger) {
+        if (changeTracker == null) {
+            changeTracker = installChangeTracker(logger);
+        }
+        if (changeTracker != null) {
+            try {
+                final Connection connection = getLoaderDataSource().getConnection();
+                try {
+                    changeTracker.capture(connection);
+                } finally {
+                    connection.close();
+                }
+            } catch (final SQLException exception) {
+                logger.logError(MessageUtil.getMessage(ERROR_TRACKING_CHANGES, getDatabaseName()), exception);
+                changeTracker = null;
+            }
+        }
+    }
+
+    /**
+     * Install the triggers that track the tables modified since the baseline was saved.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return The change tracker or {@code null} if changes cannot be tracked.
+     */
+    private ChangeTracker installChangeTracker(final Logger logger) {
+        final ChangeTracker tracker = new ChangeTracker(this);
+        try {
+            final Connection connection = getLoaderDataSource().getConnection();
+            try {
+                if (tracker.install(connection)) {
+                    return tracker;
+                }
+                logger.logInfo("Database " + getDatabaseName() + " does not support change tracking");
+            } finally {
+                connection.close();
+            }
+        } catch (final SQLException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_TRACKING_CHANGES, getDatabaseName()), exception);
+        }
+        return null;
+    }
+
+    /**
+     * Get the statements that create the triggers which insert the schema and table name into the
+     * {@link #DIRTY_TABLE} when a table is modified. Concrete classes override this method if they support change
+     * tracking.
+     *
+     * @param schema The schema name.
+     * @param table  The table name.
+     * @param index  A number that is unique to the table and can be used to derive the names of the triggers.
+     * @return The statements or {@code null} if change tracking is not supported.
+     * @since 2.0.0
+     */
+    protected List<String> getTrackingTriggers(final String schema, final String table, final int index) {
+        return null;
+    }
+
+    /**
+     * Get the statement that enables or disables referential integrity checks. Concrete classes override this method
+     * if they support change tracking.
+     *
+     * @param enabled {@code true} if referential integrity checks are being enabled.
+     * @return The statement or {@code null} if change tracking is not supported.
+     * @since 2.0.0
+     */
+    protected String getReferentialIntegrityStatement(final boolean enabled) {
+        return null;
+    }
+
+    /**
+     * Get the statement that removes all the rows from a table before it is reloaded by a reset.
+     *
+     * @param qualifiedName The qualified table name.
+     * @return The statement.
+     * @since 2.0.0
+     */
+    protected String getTruncateStatement(final String qualifiedName) {
+        return "DELETE FROM " + qualifiedName;
+    }
+
+    /**
+     * Construct the qualified name of a table with quoted identifiers.
+     *
+     * @param schema The schema name.
+     * @param table  The table name.
+     * @return The qualified table name.
+     * @since 2.0.0
+     */
+    protected static String qualify(final String schema, final String table) {
+        return ChangeTracker.qualify(schema, table);
+    }
+
+    /**
+     * Get the schema and table names of the user tables excluding the {@link #DIRTY_TABLE}.
+     *
+     * @param connection The connection to the database.
+     * @return The schema and table names.
+     * @throws SQLException If there was an error reading the database meta-data.
+     * @since 2.0.0
+     */
+    protected static List<String[]> getTableNames(final Connection connection) throws SQLException {
+        return ChangeTracker.getTableNames(connection);
+    }
+
+    /**
+     * Reset the database by reloading the tables that were modified since the baseline was saved if changes are
+     * tracked, or otherwise by restoring the baseline snapshot. Restoring the baseline snapshot removes the triggers
+     * that track changes so they are installed again.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the database was reset. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    @Override
+    protected final synchronized boolean reset(final Logger logger) {
+        if (readOnly) {
+            logger.logInfo("Database " + getDatabaseName() + " is read-only so it does not need to be reset");
+            return true;
+        }
+        if (baseline == null) {
+            logger.logError(MessageUtil.getMessage(ERROR_RESETTING, getDatabaseName()));
+            return false;
+        }
+        final long startTime = System.nanoTime();
+        if (changeTracker != null) {
+            try {
+                final Connection connection = getLoaderDataSource().getConnection();
+                try {
+                    final int reloaded = changeTracker.reset(connection);
+                    final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                    logger.logInfo("Reset database " + getDatabaseName() + " by reloading " + reloaded + " of "
+                            + changeTracker.getTableCount() + " table(s) in " + elapsed + " ms");
+                    return true;
+                } finally {
+                    connection.close();
+                }
+            } catch (final SQLException exception) {
+                logger.logError(MessageUtil.getMessage(ERROR_TRACKING_CHANGES, getDatabaseName()), exception);
+            }
+        }
+        if (!restore(logger, baseline)) {
+            return false;
+        }
+        if (changeTracker != null) {
+            changeTracker = null;
+            trackChanges(logger);
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.logInfo("Reset database " + getDatabaseName() + " in " + elapsed + " ms");
+        return true;
+    }
+
+    /**
+     * Create a clone of the database by restoring the baseline snapshot, which was saved once the sources were
+     * loaded, into a new database served alongside this one. Every clone is therefore created from the same state
+     * without repeating the work. A clone cannot replace the database, one of its copies or an existing clone.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param name   The name of the clone.
+     * @return {@code true} if the clone was created. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    @Override
+    protected final synchronized boolean createClone(final Logger logger, final String name) {
+        final long startTime = System.nanoTime();
+        if (name.equals(getDatabaseName()) || clones.contains(name) || isCopyName(name)) {
+            logger.logError(MessageUtil.getMessage(DUPLICATE_CLONE_NAME, getDatabaseName(), name));
+            return false;
+        }
+        if (baseline == null) {
+            logger.logError(MessageUtil.getMessage(ERROR_CREATING_CLONE, getDatabaseName(), name));
+            return false;
+        }
+        if (!copy(logger, baseline, name)) {
+            return false;
+        }
+        clones.add(name);
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.logInfo("Cloned database " + getDatabaseName() + " as " + name + " in " + elapsed + " ms");
+        return true;
+    }
+
+    /**
+     * Begin a transaction scope on a connection from the loader data source. The scope is registered with the
+     * transaction scope driver so code running in the same JVM as the server, such as a web application deployed by
+     * another plug-in in the same build, can share the pinned connection using the URL of the scope.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param name   The name of the transaction scope.
+     * @return {@code true} if the transaction scope was begun. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    @Override
+    protected final synchronized boolean beginScope(final Logger logger, final String name) {
+        try {
+            final Connection connection = getLoaderDataSource().getConnection();
+            try {
+                final TransactionScope scope = new TransactionScope(name, connection);
+                scopes.put(name, scope);
+                logger.logInfo("Began transaction scope " + name + " on database " + getDatabaseName() + " at "
+                        + scope.getUrl());
+                return true;
+            } catch (final SQLException exception) {
+                connection.close();
+                throw exception;
+            }
+        } catch (final SQLException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_BEGINNING_SCOPE, getDatabaseName(), name), exception);
+            return false;
+        }
+    }
+
+    /**
+     * Roll back the work done in a transaction scope that was begun using the {@code begin} command and close its
+     * pinned connection.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param name   The name of the transaction scope.
+     * @return {@code true} if the transaction scope was rolled back. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    @Override
+    protected final synchronized boolean endScope(final Logger logger, final String name) {
+        final TransactionScope scope = scopes.remove(name);
+        if (scope == null) {
+            logger.logError(MessageUtil.getMessage(ERROR_ENDING_SCOPE, getDatabaseName(), name));
+            return false;
+        }
+        final long startTime = System.nanoTime();
+        try {
+            scope.end();
+        } catch (final SQLException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_ENDING_SCOPE, getDatabaseName(), name), exception);
+            return false;
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.logInfo("Rolled back transaction scope " + name + " on database " + getDatabaseName() + " in "
+                + elapsed + " ms");
+        return true;
+    }
+
+    /**
+     * Determine whether a name is the name of one of the copies of the database.
+     *
+     * @param name The name.
+     * @return {@code true} if the name is the name of a copy. Otherwise, {@code false}.
+     */
+    private boolean isCopyName(final String name) {
+        for (int i = 1; i <= getCopies(); i++) {
+            if (name.equals(getCopyName(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the names of the clones that have been created.
+     *
+     * @return The names of the clones.
+     * @since 2.0.0
+     */
+    protected final synchronized List<String> getClones() {
+        return new ArrayList<String>(clones);
+    }
+
+    /**
+     * Get the directory that holds the files of the database, its copies and clones when using {@link Storage#DISK}.
+     * The name is derived from the port and database name rather than generated so that the JVM which publishes the
+     * JDBC URLs and the JVM which hosts the server agree on it.
+     *
+     * @return The database directory.
+     * @since 2.0.0
+     */
+    protected final File getDatabaseDirectory() {
+        return new File(getSpillDirectory(), "inmemdb-" + getPort() + "-" + getDatabaseName().replaceAll("\\W", "_"));
+    }
+
+    /**
+     * Create an empty database directory, deleting any files left behind by a database that was not stopped cleanly.
+     * Called by concrete classes when they start a database using {@link Storage#DISK}.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the directory was created. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    protected final boolean prepareDatabaseDirectory(final Logger logger) {
+        final File directory = getDatabaseDirectory();
+        try {
+            if (directory.exists()) {
+                FileUtils.forceDelete(directory);
+            }
+            FileUtils.forceMkdir(directory);
+            logger.logInfo("Storing database " + getDatabaseName() + " in " + directory);
+            return true;
+        } catch (final IOException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName()), exception);
+            return false;
+        }
+    }
+
+    /**
+     * Delete the database directory and the files of the database, its copies and clones. Called by concrete classes
+     * when they stop a database using {@link Storage#DISK}.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @since 2.0.0
+     */
+    protected final void deleteDatabaseDirectory(final Logger logger) {
+        final File directory = getDatabaseDirectory();
+        if (directory.exists()) {
+            try {
+                FileUtils.forceDelete(directory);
+            } catch (final IOException exception) {
+                logger.logError("Cannot delete database directory " + directory, exception);
+            }
+        }
+    }
+
+    /**
+     * Forget the clones that have been created, whether the database was made read-only and whether it has been
+     * loaded, end the transaction scopes that are still open and delete the baseline snapshot. Called by concrete
+     * classes when the database is stopped.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @since 2.0.0
+     */
+    protected final synchronized void releaseBaseline(final Logger logger) {
+        for (final TransactionScope scope : scopes.values()) {
+            try {
+                scope.end();
+            } catch (final SQLException exception) {
+                // The database has already been shut down so there is no work left to roll back
+            }
+        }
+        scopes.clear();
+        clones.clear();
+        changeTracker = null;
+        readOnly = false;
+        loading = true;
+        if (baseline != null) {
+            deleteSnapshot(logger, baseline);
+            baseline = null;
+        }
+    }
+
+    /**
+     * Write a snapshot of the database to a new temporary directory.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return The temporary directory or {@code null} if the snapshot could not be written.
+     */
+    private File createSnapshot(final Logger logger) {
+        final File directory;
+        try {
+            directory = File.createTempFile("inmemdb", ".snapshot");
+        } catch (final IOException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_CREATING_SNAPSHOT, getDatabaseName()), exception);
+            return null;
+        }
+        if (directory.delete() && directory.mkdir() && snapshot(logger, directory)) {
+            return directory;
+        }
+        deleteSnapshot(logger, directory);
+        return null;
+    }
+
+    /**
+     * Delete a temporary snapshot directory.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The temporary directory.
+     */
+    private static void deleteSnapshot(final Logger logger, final File directory) {
+        try {
+            FileUtils.forceDelete(directory);
+        } catch (final IOException exception) {
+            logger.logError("Cannot delete temporary snapshot directory " + directory, exception);
+        }
+    }
+
+    /**
+     * Create another database served alongside this one from a snapshot previously written by
+     * {@link #snapshot(Logger, File)}.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that contains the snapshot.
+     * @param name      The name of the database to create.
+     * @return {@code true} if the database was created. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    protected abstract boolean copy(Logger logger, File directory, String name);
+
+    /**
+     * Execute a SQL statement against the database using a connection obtained from the loader data source.
+     *
+     * @param sql The SQL statement.
+     * @throws SQLException If there was an error executing the statement.
+     * @since 2.0.0
+     */
+    protected final void executeStatement(final String sql) throws SQLException {
+        final Connection connection = getLoaderDataSource().getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Quote a string so that it can be used as a literal in a SQL statement.
+     *
+     * @param value The string value.
+     * @return The quoted string literal.
+     * @since 2.0.0
+     */
+    protected static String quote(final String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * Get the connection attributes needed by the configured storage backend. They are added to the JDBC URLs before
+     * any other attributes.
+     *
+     * @return The connection attributes. The default implementation returns an empty map.
+     * @since 2.0.0
+     */
+    protected Map<String, String> getStorageAttributes() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Get the number of bytes used to store the database outside the heap.
+     *
+     * @return The number of bytes or {@code -1} if the database is stored on the heap. The default implementation
+     *         returns the size of the database directory when using {@link Storage#DISK} and {@code -1} otherwise.
+     * @since 2.0.0
+     */
+    protected long getStorageSize() {
+        final File directory = getDatabaseDirectory();
+        if (getStorage() == Storage.DISK && directory.isDirectory()) {
+            return FileUtils.sizeOfDirectory(directory);
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of bytes used by a table as reported by the database engine.
+     *
+     * @param connection The connection to the database.
+     * @param schema     The schema name.
+     * @param table      The table name.
+     * @return The number of bytes or {@code -1} if the database engine does not report the size of the table. The
+     *         default implementation always returns {@code -1}.
+     * @throws SQLException If there was an error querying the size of the table.
+     * @since 2.0.0
+     */
+    protected long getTableSize(final Connection connection, final String schema, final String table)
+            throws SQLException {
+        return -1;
+    }
+
+    /**
+     * Get the memory statistics reported by the database engine, such as its cache sizes.
+     *
+     * @param connection The connection to the database.
+     * @return The statistics keyed by name. The default implementation returns an empty map.
+     * @throws SQLException If there was an error querying the statistics.
+     * @since 2.0.0
+     */
+    protected Map<String, String> getMemoryStatistics(final Connection connection) throws SQLException {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Log the heap and direct buffer memory in use by the JVM before and after the database has been loaded, the size
+     * of the database if it is stored outside the heap, the memory statistics reported by the database engine and the
+     * number of rows and bytes of each table. The report is also written to the memory report file if one was
+     * configured. Measuring the heap forces a garbage collection and the table sizes are estimated from a sample of
+     * the rows of each table when the database engine does not report them.
+     *
+     * @param logger Used to log the memory usage.
+     * @since 2.0.0
+     */
+    @Override
+    public final void logMemoryUsage(final Logger logger) {
+        final long heapUsed = measureHeapUsed();
+        long nativeUsed = 0;
+        for (final BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            nativeUsed += bufferPool.getMemoryUsed();
+        }
+        final MemoryReport report = new MemoryReport(getDatabaseName(), getStorage(), getHeapBeforeLoad(), heapUsed,
+                nativeUsed, getStorageSize());
+        try {
+            final Connection connection = getLoaderDataSource().getConnection();
+            try {
+                report.addEngineStatistics(getMemoryStatistics(connection));
+                for (final String[] name : getTableNames(connection)) {
+                    final long rows = countRows(connection, name[0], name[1]);
+                    final long bytes = getTableSize(connection, name[0], name[1]);
+                    if (bytes >= 0) {
+                        report.addTable(name[0], name[1], rows, bytes, false);
+                    } else {
+                        report.addTable(name[0], name[1], rows, estimateTableSize(connection, name[0], name[1], rows),
+                                true);
+                    }
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (final SQLException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_REPORTING_MEMORY, getDatabaseName()), exception);
+        }
+        report.log(logger);
+        if (getMemoryReport() == null) {
+            return;
+        }
+        try {
+            report.write(getMemoryReport());
+            logger.logInfo("Wrote the memory report of database " + getDatabaseName() + " to " + getMemoryReport());
+        } catch (final IOException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_REPORTING_MEMORY, getDatabaseName()), exception);
+        }
+    }
+
+    /**
+     * Count the rows of a table.
+     *
+     * @param connection The connection to the database.
+     * @param schema     The schema name.
+     * @param table      The table name.
+     * @return The number of rows.
+     * @throws SQLException If there was an error counting the rows.
+     */
+    private static long countRows(final Connection connection, final String schema, final String table)
+            throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + qualify(schema, table));
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Estimate the number of bytes of heap used by the rows of a table from the values of the first
+     * {@link #SIZE_SAMPLE_ROWS} rows. Indexes are not included.
+     *
+     * @param connection The connection to the database.
+     * @param schema     The schema name.
+     * @param table      The table name.
+     * @param rows       The number of rows in the table.
+     * @return The estimated number of bytes.
+     * @throws SQLException If there was an error reading the rows.
+     */
+    private static long estimateTableSize(final Connection connection, final String schema, final String table,
+                                          final long rows) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            statement.setMaxRows(SIZE_SAMPLE_ROWS);
+            final ResultSet resultSet = statement.executeQuery("SELECT * FROM " + qualify(schema, table));
+            final int columns = resultSet.getMetaData().getColumnCount();
+            long sampledBytes = 0;
+            int sampledRows = 0;
+            while (resultSet.next()) {
+                sampledBytes += ROW_OVERHEAD;
+                for (int i = 1; i <= columns; i++) {
+                    sampledBytes += REFERENCE_SIZE + estimateValueSize(resultSet.getObject(i));
+                }
+                sampledRows++;
+            }
+            return sampledRows == 0 ? 0 : sampledBytes * rows / sampledRows;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Estimate the number of bytes of heap used by a value.
+     *
+     * @param value The value or {@code null}.
+     * @return The estimated number of bytes.
+     * @throws SQLException If there was an error getting the length of a large object.
+     */
+    private static long estimateValueSize(final Object value) throws SQLException {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return ARRAY_OVERHEAD + 2L * ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return ARRAY_OVERHEAD + ((byte[]) value).length;
+        } else if (value instanceof Clob) {
+            return ARRAY_OVERHEAD + 2L * ((Clob) value).length();
+        } else if (value instanceof Blob) {
+            return ARRAY_OVERHEAD + ((Blob) value).length();
+        }
+        return VALUE_SIZE;
+    }
+
+    /**
+     * Count the sessions currently connected to the database, excluding any session used to count them.
+     *
+     * @return The number of sessions or {@code -1} if the database type cannot count its sessions. The default
+     *         implementation always returns {@code -1}.
+     * @throws Exception If the sessions could not be counted.
+     * @since 2.0.0
+     */
+    protected int countSessions() throws Exception {
+        return -1;
+    }
+
+    /**
+     * Get the lock held while the sessions are counted and the lock waits are sampled. Concrete classes can hold it
+     * while they replace the database so that no sample connects to the database in the meantime.
+     *
+     * @return The lock.
+     * @since 2.0.0
+     */
+    protected final Object getSamplingLock() {
+        return sessionLock;
+    }
+
+    /**
+     * Open the connection used to count the sessions and sample the lock waits.
+     *
+     * @return The connection. The default implementation gets a connection from the loader data source.
+     * @throws SQLException If the connection could not be opened.
+     * @since 2.0.0
+     */
+    protected Connection getDiagnosticConnection() throws SQLException {
+        return getLoaderDataSource().getConnection();
+    }
+
+    /**
+     * Count the sessions connected to the database by executing a query that returns the number of sessions including
+     * the one used to execute it.
+     *
+     * @param query The query.
+     * @return The number of sessions excluding the one used to execute the query.
+     * @throws SQLException If there was an error executing the query.
+     * @since 2.0.0
+     */
+    protected final int countSessions(final String query) throws SQLException {
+        final Connection connection = getDiagnosticConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                final ResultSet resultSet = statement.executeQuery(query);
+                return resultSet.next() ? resultSet.getInt(1) - 1 : 0;
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Get the sessions that are currently waiting for locks together with the sessions holding those locks.
+     *
+     * @return The identifiers of the waiting sessions mapped to the identifiers of the sessions they are waiting for or
+     *         {@code null} if the database type cannot report its lock waits. The default implementation always
+     *         returns {@code null}.
+     * @throws Exception If the lock waits could not be retrieved.
+     * @since 2.0.0
+     */
+    protected Map<String, Set<String>> getLockWaits() throws Exception {
+        return null;
+    }
+
+    /**
+     * Get the sessions that are currently waiting for locks by executing a query that returns the waiting sessions in
+     * the first column and the sessions they are waiting for in the second. Either column may contain a comma
+     * separated list of session identifiers.
+     *
+     * @param query The query.
+     * @return The identifiers of the waiting sessions mapped to the identifiers of the sessions they are waiting for.
+     * @throws SQLException If there was an error executing the query.
+     * @since 2.0.0
+     */
+    protected final Map<String, Set<String>> getLockWaits(final String query) throws SQLException {
+        final Map<String, Set<String>> waits = new HashMap<String, Set<String>>();
+        final Connection connection = getDiagnosticConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                final ResultSet resultSet = statement.executeQuery(query);
+                while (resultSet.next()) {
+                    final List<String> holders = splitSessions(resultSet.getString(2));
+                    for (final String waiter : splitSessions(resultSet.getString(1))) {
+                        Set<String> waitingFor = waits.get(waiter);
+                        if (waitingFor == null) {
+                            waitingFor = new LinkedHashSet<String>();
+                            waits.put(waiter, waitingFor);
+                        }
+                        waitingFor.addAll(holders);
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+        return waits;
+    }
+
+    /**
+     * Split a comma separated list of session identifiers.
+     *
+     * @param sessions The comma separated list or {@code null}.
+     * @return The session identifiers.
+     */
+    private static List<String> splitSessions(final String sessions) {
+        final List<String> result = new ArrayList<String>();
+        if (sessions != null) {
+            for (final String session : sessions.split(",")) {
+                if (session.trim().length() > 0) {
+                    result.add(session.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start sampling the number of concurrent sessions and the lock waits so that the peak number of sessions and the
+     * lock contention can be reported when the database is stopped. Called by concrete classes once the database has
+     * been created. Nothing is sampled unless session sampling was configured because, for most database types, each
+     * sample opens a connection and queries the diagnostic tables. Sampling is periodic so sessions that connect and
+     * disconnect between two samples are not counted.
+     *
+     * @since 2.0.0
+     */
+    protected final void startSessionSampler() {
+        if (!isSampleSessions()) {
+            return;
+        }
+        synchronized (sessionLock) {
+            peakSessions = 0;
+            lockContention = new LockContention();
+            sessionSampler = new Timer("inmemdb-sessions-" + getDatabaseName(), true);
+            sessionSampler.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    sampleSessions();
+                }
+            }, SESSION_SAMPLE_INTERVAL, SESSION_SAMPLE_INTERVAL);
+        }
+    }
+
+    /**
+     * Take a final sample, stop sampling and report the peak number of concurrent sessions and the lock contention.
+     * Called by concrete classes before they shut the database down.
+     *
+     * @param logger Used to report the peak number of concurrent sessions and the lock contention.
+     * @since 2.0.0
+     */
+    protected final void stopSessionSampler(final Logger logger) {
+        synchronized (sessionLock) {
+            if (sessionSampler == null) {
+                return;
+            }
+            sampleSessions();
+            sessionSampler.cancel();
+            sessionSampler = null;
+            if (peakSessions >= 0) {
+                logger.logInfo("Peak concurrent sessions for database " + getDatabaseName() + ": " + peakSessions);
+            }
+            if (lockContention != null) {
+                logger.logInfo(lockContention.describe(getDatabaseName()));
+            }
+        }
+    }
+
+    /**
+     * Count the sessions and record the number if it is a new peak and record the lock waits. Sampling stops if the
+     * database type can neither count its sessions nor report its lock waits. Errors are ignored because the database
+     * may be busy or stopping.
+     */
+    private void sampleSessions() {
+        synchronized (sessionLock) {
+            if (sessionSampler == null) {
+                return;
+            }
+            if (peakSessions >= 0) {
+                try {
+                    final int sessions = countSessions();
+                    if (sessions < 0) {
+                        peakSessions = -1;
+                    } else if (sessions > peakSessions) {
+                        peakSessions = sessions;
+                    }
+                } catch (final Exception exception) {
+                    // The sessions will be counted again by the next sample
+                }
+            }
+            if (lockContention != null) {
+                try {
+                    final Map<String, Set<String>> waits = getLockWaits();
+                    if (waits == null) {
+                        lockContention = null;
+                    } else {
+                        lockContention.record(waits);
+                    }
+                } catch (final Exception exception) {
+                    // The lock waits will be retrieved again by the next sample
+                }
+            }
+            if (peakSessions < 0 && lockContention == null) {
+                sessionSampler.cancel();
+            }
+        }
+    }
+
+    /**
+     * Get the connection attributes that select a transaction model. They are added to the JDBC URLs after the profile
+     * attributes and before the attributes configured by the user.
+     *
+     * @param concurrency The transaction model.
+     * @return The connection attributes. The default implementation returns an empty map.
+     * @since 2.0.0
+     */
+    protected Map<String, String> getConcurrencyAttributes(final Concurrency concurrency) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Get the connection attributes that select the configured transaction model.
+     *
+     * @return The connection attributes or an empty map if no transaction model was configured.
+     * @since 2.0.0
+     */
+    protected final Map<String, String> getConcurrencyAttributes() {
+        if (getConcurrency() == null) {
+            return Collections.emptyMap();
+        }
+        return getConcurrencyAttributes(getConcurrency());
+    }
+
+    /**
+     * Get the connection attributes that tune the database for a performance profile. They are added to the JDBC URLs
+     * before the attributes configured by the user so that the user can override them.
+     *
+     * @param profile The performance profile.
+     * @return The connection attributes. The default implementation returns an empty map.
+     * @since 2.0.0
+     */
+    protected Map<String, String> getProfileAttributes(final Profile profile) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Get the connection attributes that tune the database for a performance profile only while it is being loaded,
+     * such as those that disable the transaction log, rollback or locking. They are only added to the JDBC URL of the
+     * loaders and are undone by {@link #endLoad(Logger)} so that they are never seen by the clients of the database.
+     *
+     * @param profile The performance profile.
+     * @return The connection attributes. The default implementation returns an empty map.
+     * @since 2.0.0
+     */
+    protected Map<String, String> getLoadAttributes(final Profile profile) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Get the connection attributes that tune the database for the configured performance profile while it is being
+     * loaded. Concrete classes add them to the JDBC URL of the loaders.
+     *
+     * @return The connection attributes or an empty map if no profile was configured or loading has ended.
+     * @since 2.0.0
+     */
+    protected final Map<String, String> getLoadAttributes() {
+        if (!loading || getProfile() == null) {
+            return Collections.emptyMap();
+        }
+        return getLoadAttributes(getProfile());
+    }
+
+    /**
+     * Undo the settings that only apply while the database is being loaded so that the clients of the database
+     * are isolated from each other and can roll back their transactions. Nothing is done if the performance profile
+     * has no such settings or loading has already ended.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @since 2.0.0
+     */
+    @Override
+    public final synchronized void endLoad(final Logger logger) {
+        if (!loading) {
+            return;
+        }
+        loading = false;
+        if (getProfile() == null || getLoadAttributes(getProfile()).isEmpty()) {
+            return;
+        }
+        try {
+            final Connection connection = getLoaderDataSource().getConnection();
+            try {
+                restoreLoadSettings(connection, getLoadAttributes(getProfile()).keySet());
+            } finally {
+                connection.close();
+            }
+        } catch (final SQLException exception) {
+            logger.logError(MessageUtil.getMessage(ERROR_ENDING_LOAD, getDatabaseName()), exception);
+        }
+    }
+
+    /**
+     * Restore the database settings that were changed by the {@link #getLoadAttributes(Profile)} to the values used
+     * by the clients. Concrete classes that have load attributes override this method.
+     *
+     * @param connection The connection to the database.
+     * @param names      The names of the load attributes.
+     * @throws SQLException If a setting could not be restored.
+     * @since 2.0.0
+     */
+    protected void restoreLoadSettings(final Connection connection, final Set<String> names) throws SQLException {
+    }
+
+    /**
+     * Get the connection attributes that tune the database for the configured performance profile.
+     *
+     * @return The connection attributes or an empty map if no profile was configured.
+     * @since 2.0.0
+     */
+    protected final Map<String, String> getProfileAttributes() {
+        if (getProfile() == null) {
+            return Collections.emptyMap();
+        }
+        return getProfileAttributes(getProfile());
+    }
+
+    /**
+     * Log the connection attributes of the configured performance profile so that the effect of different profiles
+     * can be compared. Called by concrete classes that apply the profile only through the connection attributes when
+     * they begin starting the database.
+     *
+     * @param logger Used to log the applied settings.
+     * @since 2.0.0
+     */
+    protected final void applyProfile(final Logger logger) {
+        if (getProfile() != null) {
+            logProfile(logger, Collections.<String, String>emptyMap());
+        }
+    }
+
+    /**
+     * Log the settings of the configured performance profile that took effect. These are the connection attributes of
+     * the profile together with any settings the concrete class applied by other means.
+     *
+     * @param logger   Used to log the applied settings.
+     * @param settings The settings applied by the concrete class in addition to the connection attributes.
+     * @since 2.0.0
+     */
+    protected final void logProfile(final Logger logger, final Map<String, String> settings) {
+        final Map<String, String> applied = new TreeMap<String, String>(getProfileAttributes());
+        applied.putAll(getLoadAttributes(getProfile()));
+        applied.putAll(settings);
+        logger.logInfo("Applied profile " + getProfile() + " to database " + getDatabaseName() + ": " + applied);
+    }
+
+    /**
+     * Construct a JDBC URL from the connection protocol, database name and connection specific attributes.
+     *
+     * @param protocol             The connection protocol.
+     * @param name                 The database name.
+     * @param additionalAttributes The connection specific attributes.
+     * @return The JDBC URL.
+     */
+    private String buildUrl(final String protocol, final String name, final Map<String, String> additionalAttributes) {
         final StringBuilder url = new StringBuilder("jdbc:");
-        url.append(getUrlProtocol());
-        url.append(getDatabaseName());
-        final Map<String, String> mergedAttributes = new HashMap<String, String>(getAttributes());
+        url.append(protocol);
+        url.append(name);
+        final Map<String, String> mergedAttributes = new HashMap<String, String>(getStorageAttributes());
+        mergedAttributes.putAll(getProfileAttributes());
+        mergedAttributes.putAll(getConcurrencyAttributes());
+        mergedAttributes.putAll(getAttributes());
         mergedAttributes.putAll(additionalAttributes);
         if (mergedAttributes.size() > 0) {
             for (final Map.Entry<String, String> entry : mergedAttributes.entrySet()) {
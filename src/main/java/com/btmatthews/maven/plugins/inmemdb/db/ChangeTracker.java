@@ -0,0 +1,358 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records which tables have been written since the baseline of a database was saved so that a reset only has to
+ * reload those tables. Triggers installed on every table insert the name of the table into the
+ * {@link AbstractSQLDatabase#DIRTY_TABLE} when it is modified and the contents of every table are cached when the
+ * baseline is saved.
+ * <p/>
+ * Changes made by statements that do not fire triggers, such as {@code TRUNCATE}, and changes to the schema are not
+ * tracked.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class ChangeTracker {
+
+    /**
+     * The table types that are tracked.
+     */
+    private static final String[] TABLE_TYPES = {"TABLE"};
+    /**
+     * The database that is being tracked.
+     */
+    private final AbstractSQLDatabase database;
+    /**
+     * The cached contents of the tracked tables keyed by their qualified names.
+     */
+    private final Map<String, TableData> tables = new LinkedHashMap<String, TableData>();
+
+    /**
+     * Construct the change tracker for a database.
+     *
+     * @param database The database that is being tracked.
+     */
+    ChangeTracker(final AbstractSQLDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Create the {@link AbstractSQLDatabase#DIRTY_TABLE} and install the triggers that record when each table is
+     * modified.
+     *
+     * @param connection The connection to the database.
+     * @return {@code true} if the triggers were installed or {@code false} if the database does not support them.
+     * @throws SQLException If there was an error installing the triggers.
+     */
+    boolean install(final Connection connection) throws SQLException {
+        if (database.getReferentialIntegrityStatement(false) == null
+                || database.getReferentialIntegrityStatement(true) == null) {
+            return false;
+        }
+        final List<String[]> names = getTableNames(connection);
+        final List<String> statements = new ArrayList<String>();
+        for (int i = 0; i < names.size(); i++) {
+            final List<String> triggers = database.getTrackingTriggers(names.get(i)[0], names.get(i)[1], i);
+            if (triggers == null) {
+                return false;
+            }
+            statements.addAll(triggers);
+        }
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute("CREATE TABLE " + AbstractSQLDatabase.DIRTY_TABLE
+                    + " (TABLE_SCHEMA VARCHAR(128) NOT NULL, TABLE_NAME VARCHAR(128) NOT NULL,"
+                    + " PRIMARY KEY (TABLE_SCHEMA, TABLE_NAME))");
+            for (final String sql : statements) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+        return true;
+    }
+
+    /**
+     * Cache the contents of every tracked table and forget the tables that were recorded as modified.
+     *
+     * @param connection The connection to the database.
+     * @throws SQLException If there was an error reading the tables.
+     */
+    void capture(final Connection connection) throws SQLException {
+        tables.clear();
+        for (final String[] name : getTableNames(connection)) {
+            final String qualifiedName = qualify(name[0], name[1]);
+            tables.put(qualifiedName, TableData.read(connection, qualifiedName));
+        }
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute("DELETE FROM " + AbstractSQLDatabase.DIRTY_TABLE);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Get the number of tables that are tracked.
+     *
+     * @return The number of tables.
+     */
+    int getTableCount() {
+        return tables.size();
+    }
+
+    /**
+     * Reload the tables that were modified since the baseline was saved from the cached contents. Referential
+     * integrity checks are disabled while the tables are reloaded because the tables are reloaded independently of
+     * the tables that refer to them.
+     *
+     * @param connection The connection to the database.
+     * @return The number of tables that were reloaded.
+     * @throws SQLException If there was an error reloading the tables.
+     */
+    int reset(final Connection connection) throws SQLException {
+        final List<String> dirty = getDirtyTables(connection);
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute(database.getReferentialIntegrityStatement(false));
+            try {
+                for (final String qualifiedName : dirty) {
+                    statement.execute(database.getTruncateStatement(qualifiedName));
+                    tables.get(qualifiedName).write(connection);
+                }
+                statement.execute("DELETE FROM " + AbstractSQLDatabase.DIRTY_TABLE);
+                connection.commit();
+            } catch (final SQLException exception) {
+                connection.rollback();
+                throw exception;
+            } finally {
+                statement.execute(database.getReferentialIntegrityStatement(true));
+            }
+        } finally {
+            statement.close();
+            connection.setAutoCommit(autoCommit);
+        }
+        return dirty.size();
+    }
+
+    /**
+     * Get the qualified names of the tracked tables that were recorded as modified.
+     *
+     * @param connection The connection to the database.
+     * @return The qualified table names.
+     * @throws SQLException If there was an error querying the {@link AbstractSQLDatabase#DIRTY_TABLE}.
+     */
+    private List<String> getDirtyTables(final Connection connection) throws SQLException {
+        final List<String> dirty = new ArrayList<String>();
+        final Statement statement = connection.createStatement();
+        try {
+            final ResultSet resultSet = statement.executeQuery("SELECT TABLE_SCHEMA, TABLE_NAME FROM "
+                    + AbstractSQLDatabase.DIRTY_TABLE);
+            try {
+                while (resultSet.next()) {
+                    final String qualifiedName = qualify(resultSet.getString(1), resultSet.getString(2));
+                    if (tables.containsKey(qualifiedName)) {
+                        dirty.add(qualifiedName);
+                    }
+                }
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            statement.close();
+        }
+        return dirty;
+    }
+
+    /**
+     * Get the schema and table names of the user tables excluding the {@link AbstractSQLDatabase#DIRTY_TABLE}.
+     *
+     * @param connection The connection to the database.
+     * @return The schema and table names.
+     * @throws SQLException If there was an error reading the database meta-data.
+     */
+    static List<String[]> getTableNames(final Connection connection) throws SQLException {
+        final List<String[]> names = new ArrayList<String[]>();
+        final DatabaseMetaData metaData = connection.getMetaData();
+        final ResultSet resultSet = metaData.getTables(null, null, "%", TABLE_TYPES);
+        try {
+            while (resultSet.next()) {
+                final String schema = resultSet.getString("TABLE_SCHEM");
+                final String table = resultSet.getString("TABLE_NAME");
+                if (!AbstractSQLDatabase.DIRTY_TABLE.equals(schema + "." + table)) {
+                    names.add(new String[]{schema, table});
+                }
+            }
+        } finally {
+            resultSet.close();
+        }
+        return names;
+    }
+
+    /**
+     * Construct the qualified name of a table with quoted identifiers.
+     *
+     * @param schema The schema name.
+     * @param table  The table name.
+     * @return The qualified table name.
+     */
+    static String qualify(final String schema, final String table) {
+        return quoteIdentifier(schema) + "." + quoteIdentifier(table);
+    }
+
+    /**
+     * Quote an identifier so that it can be used in a SQL statement.
+     *
+     * @param identifier The identifier.
+     * @return The quoted identifier.
+     */
+    static String quoteIdentifier(final String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * The cached contents of a table.
+     */
+    private static final class TableData {
+
+        /**
+         * The statement used to insert a row.
+         */
+        private final String insert;
+        /**
+         * The SQL types of the columns.
+         */
+        private final int[] types;
+        /**
+         * The rows.
+         */
+        private final List<Object[]> rows = new ArrayList<Object[]>();
+
+        /**
+         * Construct the cached contents of a table.
+         *
+         * @param insert The statement used to insert a row.
+         * @param types  The SQL types of the columns.
+         */
+        private TableData(final String insert, final int[] types) {
+            this.insert = insert;
+            this.types = types;
+        }
+
+        /**
+         * Read the contents of a table. Large objects are read into memory so that they remain valid after the
+         * connection has been closed.
+         *
+         * @param connection    The connection to the database.
+         * @param qualifiedName The qualified table name.
+         * @return The cached contents of the table.
+         * @throws SQLException If there was an error reading the table.
+         */
+        static TableData read(final Connection connection, final String qualifiedName) throws SQLException {
+            final Statement statement = connection.createStatement();
+            try {
+                final ResultSet resultSet = statement.executeQuery("SELECT * FROM " + qualifiedName);
+                try {
+                    final ResultSetMetaData metaData = resultSet.getMetaData();
+                    final int count = metaData.getColumnCount();
+                    final int[] types = new int[count];
+                    final StringBuilder columns = new StringBuilder();
+                    final StringBuilder parameters = new StringBuilder();
+                    for (int i = 0; i < count; i++) {
+                        types[i] = metaData.getColumnType(i + 1);
+                        if (i > 0) {
+                            columns.append(", ");
+                            parameters.append(", ");
+                        }
+                        columns.append(quoteIdentifier(metaData.getColumnName(i + 1)));
+                        parameters.append('?');
+                    }
+                    final TableData data = new TableData("INSERT INTO " + qualifiedName + " (" + columns
+                            + ") VALUES (" + parameters + ")", types);
+                    while (resultSet.next()) {
+                        final Object[] row = new Object[count];
+                        for (int i = 0; i < count; i++) {
+                            final Object value = resultSet.getObject(i + 1);
+                            if (value instanceof Blob) {
+                                row[i] = ((Blob) value).getBytes(1L, (int) ((Blob) value).length());
+                            } else if (value instanceof Clob) {
+                                row[i] = ((Clob) value).getSubString(1L, (int) ((Clob) value).length());
+                            } else {
+                                row[i] = value;
+                            }
+                        }
+                        data.rows.add(row);
+                    }
+                    return data;
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                statement.close();
+            }
+        }
+
+        /**
+         * Insert the cached rows into the table.
+         *
+         * @param connection The connection to the database.
+         * @throws SQLException If there was an error inserting the rows.
+         */
+        void write(final Connection connection) throws SQLException {
+            if (rows.isEmpty()) {
+                return;
+            }
+            final PreparedStatement statement = connection.prepareStatement(insert);
+            try {
+                for (final Object[] row : rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        if (row[i] == null) {
+                            statement.setNull(i + 1, types[i]);
+                        } else {
+                            statement.setObject(i + 1, row[i]);
+                        }
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } finally {
+                statement.close();
+            }
+        }
+    }
+}
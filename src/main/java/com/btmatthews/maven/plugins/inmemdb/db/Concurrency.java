@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db;
+
+/**
+ * The transaction models that can be selected using the {@code concurrency} parameter.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public enum Concurrency {
+
+    /**
+     * Readers and writers take locks so readers wait for uncommitted changes.
+     */
+    LOCKS("locks"),
+    /**
+     * Writers take locks but readers see the last committed version of the rows without waiting.
+     */
+    MVLOCKS("mvlocks"),
+    /**
+     * Readers and writers work on their own versions of the rows and only writers of the same rows wait for each
+     * other.
+     */
+    MVCC("mvcc");
+
+    /**
+     * The name used to select the transaction model.
+     */
+    private final String concurrencyName;
+
+    /**
+     * Initialise the transaction model with the name used to select it.
+     *
+     * @param concurrencyName The name used to select the transaction model.
+     */
+    Concurrency(final String concurrencyName) {
+        this.concurrencyName = concurrencyName;
+    }
+
+    /**
+     * Get the name used to select the transaction model.
+     *
+     * @return The concurrency name.
+     */
+    public String getConcurrencyName() {
+        return concurrencyName;
+    }
+
+    /**
+     * Find the transaction model selected by a name.
+     *
+     * @param concurrencyName The name used to select the transaction model.
+     * @return The transaction model or {@code null} if there is no transaction model with that name.
+     */
+    public static Concurrency forConcurrencyName(final String concurrencyName) {
+        for (final Concurrency concurrency : values()) {
+            if (concurrency.concurrencyName.equals(concurrencyName)) {
+                return concurrency;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the name used to select the transaction model.
+     *
+     * @return The concurrency name.
+     */
+    @Override
+    public String toString() {
+        return concurrencyName;
+    }
+}
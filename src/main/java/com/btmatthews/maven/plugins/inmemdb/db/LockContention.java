@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accumulates the lock waits sampled from a database while it is running so that the contention can be reported when
+ * it is stopped. Each sample is a wait-for graph mapping the sessions that are waiting for a lock to the sessions
+ * holding it. None of the supported database engines count the deadlocks they resolve so a deadlock is counted
+ * whenever a sample contains a cycle that has not been seen before.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class LockContention {
+
+    /**
+     * The number of samples taken.
+     */
+    private int samples;
+    /**
+     * The number of samples in which at least one session was waiting for a lock.
+     */
+    private int samplesWithWaits;
+    /**
+     * The highest number of sessions waiting for locks in a single sample.
+     */
+    private int peakWaiting;
+    /**
+     * The distinct deadlocks that have been seen, each identified by the sorted list of sessions in the cycle.
+     */
+    private final Set<List<String>> deadlocks = new HashSet<List<String>>();
+
+    /**
+     * Record a sample of the lock waits.
+     *
+     * @param waits The sessions waiting for locks mapped to the sessions holding them.
+     */
+    void record(final Map<String, Set<String>> waits) {
+        samples++;
+        if (!waits.isEmpty()) {
+            samplesWithWaits++;
+            peakWaiting = Math.max(peakWaiting, waits.size());
+            new CycleFinder(waits).find();
+        }
+    }
+
+    /**
+     * Describe the contention that has been recorded.
+     *
+     * @param databaseName The name of the database.
+     * @return The description.
+     */
+    String describe(final String databaseName) {
+        return "Lock contention for database " + databaseName + ": waits in " + samplesWithWaits + " of " + samples
+                + " samples, peak " + peakWaiting + " waiting, " + deadlocks.size() + " deadlock(s)";
+    }
+
+    /**
+     * Finds the cycles in a wait-for graph by identifying its strongly connected components using Tarjan's
+     * algorithm. Every component with more than one session, or a session waiting for itself, is a deadlock.
+     */
+    private final class CycleFinder {
+
+        /**
+         * The wait-for graph.
+         */
+        private final Map<String, Set<String>> waits;
+        /**
+         * The order in which the sessions were visited.
+         */
+        private final Map<String, Integer> index = new HashMap<String, Integer>();
+        /**
+         * The lowest visit order reachable from each session.
+         */
+        private final Map<String, Integer> lowLink = new HashMap<String, Integer>();
+        /**
+         * The sessions that have been visited but not yet assigned to a component.
+         */
+        private final List<String> stack = new ArrayList<String>();
+
+        /**
+         * Construct the cycle finder for a wait-for graph.
+         *
+         * @param waits The wait-for graph.
+         */
+        CycleFinder(final Map<String, Set<String>> waits) {
+            this.waits = waits;
+        }
+
+        /**
+         * Visit every session in the wait-for graph and record the deadlocks.
+         */
+        void find() {
+            for (final String session : waits.keySet()) {
+                if (!index.containsKey(session)) {
+                    visit(session);
+                }
+            }
+        }
+
+        /**
+         * Visit a session and the sessions it is waiting for, recording a deadlock if the session is the root of a
+         * cyclic component.
+         *
+         * @param session The session.
+         */
+        private void visit(final String session) {
+            index.put(session, index.size());
+            lowLink.put(session, index.get(session));
+            stack.add(session);
+            final Set<String> holders = waits.get(session);
+            if (holders != null) {
+                for (final String holder : holders) {
+                    if (!index.containsKey(holder)) {
+                        visit(holder);
+                        lowLink.put(session, Math.min(lowLink.get(session), lowLink.get(holder)));
+                    } else if (stack.contains(holder)) {
+                        lowLink.put(session, Math.min(lowLink.get(session), index.get(holder)));
+                    }
+                }
+            }
+            if (lowLink.get(session).equals(index.get(session))) {
+                final List<String> component = new ArrayList<String>(stack.subList(stack.indexOf(session),
+                        stack.size()));
+                stack.removeAll(component);
+                if (component.size() > 1 || holders != null && holders.contains(session)) {
+                    Collections.sort(component);
+                    deadlocks.add(component);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db;
+
+import com.btmatthews.utils.monitor.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the memory used by a database once it has been loaded: the heap in use before and after loading, the
+ * direct buffer memory, the size of the storage outside the heap, statistics reported by the database engine and the
+ * number of rows and bytes of each table. The report is logged and can be written to a JSON file so that the heap
+ * needed by the build can be sized from it.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class MemoryReport {
+
+    /**
+     * The number of bytes in a kilobyte.
+     */
+    private static final long KILOBYTE = 1024;
+    /**
+     * The number of bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1024 * KILOBYTE;
+    /**
+     * The name of the database.
+     */
+    private final String databaseName;
+    /**
+     * The storage backend of the database.
+     */
+    private final Storage storage;
+    /**
+     * The number of bytes of heap in use before the database was loaded or {@code -1} if it was not measured.
+     */
+    private final long heapBeforeLoad;
+    /**
+     * The number of bytes of heap in use after the database was loaded.
+     */
+    private final long heapAfterLoad;
+    /**
+     * The number of bytes of direct buffer memory in use after the database was loaded.
+     */
+    private final long nativeAfterLoad;
+    /**
+     * The number of bytes used to store the database outside the heap or {@code -1} if it is stored on the heap.
+     */
+    private final long storageSize;
+    /**
+     * The memory statistics reported by the database engine.
+     */
+    private final Map<String, String> engineStatistics = new LinkedHashMap<String, String>();
+    /**
+     * The row counts and sizes of the tables.
+     */
+    private final List<TableUsage> tables = new ArrayList<TableUsage>();
+
+    /**
+     * Construct the memory report for a database.
+     *
+     * @param databaseName    The name of the database.
+     * @param storage         The storage backend of the database.
+     * @param heapBeforeLoad  The number of bytes of heap in use before the database was loaded or {@code -1} if it
+     *                        was not measured.
+     * @param heapAfterLoad   The number of bytes of heap in use after the database was loaded.
+     * @param nativeAfterLoad The number of bytes of direct buffer memory in use after the database was loaded.
+     * @param storageSize     The number of bytes used to store the database outside the heap or {@code -1} if it is
+     *                        stored on the heap.
+     */
+    MemoryReport(final String databaseName, final Storage storage, final long heapBeforeLoad,
+                 final long heapAfterLoad, final long nativeAfterLoad, final long storageSize) {
+        this.databaseName = databaseName;
+        this.storage = storage;
+        this.heapBeforeLoad = heapBeforeLoad;
+        this.heapAfterLoad = heapAfterLoad;
+        this.nativeAfterLoad = nativeAfterLoad;
+        this.storageSize = storageSize;
+    }
+
+    /**
+     * Add the memory statistics reported by the database engine.
+     *
+     * @param statistics The statistics keyed by name.
+     */
+    void addEngineStatistics(final Map<String, String> statistics) {
+        engineStatistics.putAll(statistics);
+    }
+
+    /**
+     * Add the row count and size of a table.
+     *
+     * @param schema    The schema name.
+     * @param table     The table name.
+     * @param rows      The number of rows.
+     * @param bytes     The number of bytes.
+     * @param estimated {@code true} if the number of bytes was estimated from a sample of the rows or {@code false}
+     *                  if it was reported by the database engine.
+     */
+    void addTable(final String schema, final String table, final long rows, final long bytes,
+                  final boolean estimated) {
+        tables.add(new TableUsage(schema, table, rows, bytes, estimated));
+    }
+
+    /**
+     * Log the report.
+     *
+     * @param logger Used to log the report.
+     */
+    void log(final Logger logger) {
+        final StringBuilder message = new StringBuilder("Memory in use after loading database ");
+        message.append(databaseName);
+        message.append(": heap ");
+        message.append(toMegabytes(heapAfterLoad));
+        if (heapBeforeLoad >= 0) {
+            message.append(" MB (");
+            message.append(toMegabytes(heapBeforeLoad));
+            message.append(" MB before loading), native ");
+        } else {
+            message.append(" MB (unavailable before loading), native ");
+        }
+        message.append(toMegabytes(nativeAfterLoad));
+        message.append(" MB");
+        if (storageSize >= 0) {
+            message.append(", ");
+            message.append(storage);
+            message.append(" storage ");
+            message.append(toMegabytes(storageSize));
+            message.append(" MB");
+        }
+        logger.logInfo(message.toString());
+        if (!engineStatistics.isEmpty()) {
+            logger.logInfo("Memory statistics of database " + databaseName + ": " + engineStatistics);
+        }
+        for (final TableUsage table : tables) {
+            logger.logInfo("Table " + table.schema + "." + table.table + " of database " + databaseName + ": "
+                    + table.rows + " rows, " + (table.estimated ? "about " : "") + toKilobytes(table.bytes) + " KB");
+        }
+    }
+
+    /**
+     * Write the report to a JSON file.
+     *
+     * @param file The file.
+     * @throws IOException If there was an error writing the file.
+     */
+    void write(final File file) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        final StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"database\": ").append(quote(databaseName)).append(",\n");
+        json.append("  \"storage\": ").append(quote(storage.getStorageName())).append(",\n");
+        if (heapBeforeLoad >= 0) {
+            json.append("  \"heapBeforeLoad\": ").append(heapBeforeLoad).append(",\n");
+        }
+        json.append("  \"heapAfterLoad\": ").append(heapAfterLoad).append(",\n");
+        json.append("  \"nativeAfterLoad\": ").append(nativeAfterLoad).append(",\n");
+        if (storageSize >= 0) {
+            json.append("  \"storageSize\": ").append(storageSize).append(",\n");
+        }
+        json.append("  \"engine\": {");
+        String separator = "\n";
+        for (final Map.Entry<String, String> entry : engineStatistics.entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": ");
+            json.append(quote(entry.getValue()));
+            separator = ",\n";
+        }
+        json.append(engineStatistics.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"tables\": [");
+        separator = "\n";
+        for (final TableUsage table : tables) {
+            json.append(separator).append("    {\"schema\": ").append(quote(table.schema));
+            json.append(", \"name\": ").append(quote(table.table));
+            json.append(", \"rows\": ").append(table.rows);
+            json.append(", \"bytes\": ").append(table.bytes);
+            json.append(", \"estimated\": ").append(table.estimated).append('}');
+            separator = ",\n";
+        }
+        json.append(tables.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Quote a string as a JSON string literal.
+     *
+     * @param value The string or {@code null}.
+     * @return The string literal or {@code null}.
+     */
+    private static String quote(final String value) {
+        if (value == null) {
+            return "null";
+        }
+        final StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                literal.append('\\').append(ch);
+            } else if (ch < ' ') {
+                literal.append(String.format("\\u%04x", (int) ch));
+            } else {
+                literal.append(ch);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+     * Convert a number of bytes to megabytes rounded to the nearest megabyte.
+     *
+     * @param bytes The number of bytes.
+     * @return The number of megabytes.
+     */
+    private static long toMegabytes(final long bytes) {
+        return (bytes + MEGABYTE / 2) / MEGABYTE;
+    }
+
+    /**
+     * Convert a number of bytes to kilobytes rounded up to the next kilobyte.
+     *
+     * @param bytes The number of bytes.
+     * @return The number of kilobytes.
+     */
+    private static long toKilobytes(final long bytes) {
+        return (bytes + KILOBYTE - 1) / KILOBYTE;
+    }
+
+    /**
+     * The row count and size of a table.
+     */
+    private static final class TableUsage {
+
+        /**
+         * The schema name.
+         */
+        private final String schema;
+        /**
+         * The table name.
+         */
+        private final String table;
+        /**
+         * The number of rows.
+         */
+        private final long rows;
+        /**
+         * The number of bytes.
+         */
+        private final long bytes;
+        /**
+         * Indicates whether the number of bytes was estimated from a sample of the rows.
+         */
+        private final boolean estimated;
+
+        /**
+         * Construct the row count and size of a table.
+         *
+         * @param schema    The schema name.
+         * @param table     The table name.
+         * @param rows      The number of rows.
+         * @param bytes     The number of bytes.
+         * @param estimated {@code true} if the number of bytes was estimated from a sample of the rows.
+         */
+        TableUsage(final String schema, final String table, final long rows, final long bytes,
+                   final boolean estimated) {
+            this.schema = schema;
+            this.table = table;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.estimated = estimated;
+        }
+    }
+}
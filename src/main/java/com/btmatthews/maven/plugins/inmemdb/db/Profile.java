@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db;
+
+/**
+ * The performance profiles that can be selected using the {@code profile} parameter. Each database type translates
+ * the profile into its own tuning settings.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public enum Profile {
+
+    /**
+     * Favour the speed of loading large volumes of data over the ability to recover from errors.
+     */
+    BULK_LOAD("bulkLoad"),
+    /**
+     * Favour the throughput of many concurrent connections.
+     */
+    THROUGHPUT("throughput"),
+    /**
+     * Favour a small memory footprint over speed.
+     */
+    LOW_MEMORY("lowMemory"),
+    /**
+     * Favour strict isolation and SQL conformance so that tests catch problems that would occur in production.
+     */
+    STRICT("strict");
+
+    /**
+     * The name used to select the profile.
+     */
+    private final String profileName;
+
+    /**
+     * Initialise the profile with the name used to select it.
+     *
+     * @param profileName The name used to select the profile.
+     */
+    Profile(final String profileName) {
+        this.profileName = profileName;
+    }
+
+    /**
+     * Get the name used to select the profile.
+     *
+     * @return The profile name.
+     */
+    public String getProfileName() {
+        return profileName;
+    }
+
+    /**
+     * Find the profile selected by a name.
+     *
+     * @param profileName The name used to select the profile.
+     * @return The profile or {@code null} if there is no profile with that name.
+     */
+    public static Profile forProfileName(final String profileName) {
+        for (final Profile profile : values()) {
+            if (profile.profileName.equals(profileName)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the name used to select the profile.
+     *
+     * @return The profile name.
+     */
+    @Override
+    public String toString() {
+        return profileName;
+    }
+}
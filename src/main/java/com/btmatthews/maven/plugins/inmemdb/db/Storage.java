@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db;
+
+/**
+ * The storage backends that can be selected using the {@code storage} parameter.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public enum Storage {
+
+    /**
+     * The rows are stored on the Java heap.
+     */
+    HEAP("heap"),
+    /**
+     * The rows are stored in direct buffers outside the Java heap so that they are not scanned by the garbage
+     * collector.
+     */
+    OFF_HEAP("offHeap"),
+    /**
+     * The rows are compressed and stored in direct buffers outside the Java heap.
+     */
+    OFF_HEAP_COMPRESSED("offHeapCompressed"),
+    /**
+     * The rows are stored in files in a temporary directory and only a bounded working set is cached in memory so
+     * that datasets larger than the heap can be loaded.
+     */
+    DISK("disk");
+
+    /**
+     * The name used to select the storage backend.
+     */
+    private final String storageName;
+
+    /**
+     * Initialise the storage backend with the name used to select it.
+     *
+     * @param storageName The name used to select the storage backend.
+     */
+    Storage(final String storageName) {
+        this.storageName = storageName;
+    }
+
+    /**
+     * Get the name used to select the storage backend.
+     *
+     * @return The storage name.
+     */
+    public String getStorageName() {
+        return storageName;
+    }
+
+    /**
+     * Find the storage backend selected by a name.
+     *
+     * @param storageName The name used to select the storage backend.
+     * @return The storage backend or {@code null} if there is no storage backend with that name.
+     */
+    public static Storage forStorageName(final String storageName) {
+        for (final Storage storage : values()) {
+            if (storage.storageName.equals(storageName)) {
+                return storage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the name used to select the storage backend.
+     *
+     * @return The storage name.
+     */
+    @Override
+    public String toString() {
+        return storageName;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db.composite;
+
+import com.btmatthews.maven.plugins.inmemdb.Database;
+import com.btmatthews.maven.plugins.inmemdb.SQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.Source;
+import com.btmatthews.utils.monitor.AbstractServer;
+import com.btmatthews.utils.monitor.Logger;
+import com.btmatthews.utils.monitor.Server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A server that runs several databases together. The databases are started and their sources loaded concurrently on
+ * a bounded pool of threads. The server has started once every database has started and been loaded.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class CompositeDatabase extends AbstractServer {
+
+    /**
+     * The server type used to register the {@link CompositeDatabaseFactory}.
+     */
+    public static final String TYPE = "composite";
+    /**
+     * The name of the configuration parameter that holds the list of {@link Member} databases.
+     */
+    public static final String MEMBERS = "members";
+    /**
+     * The name of the configuration parameter that holds the maximum number of databases started concurrently.
+     */
+    public static final String THREADS = "threads";
+    /**
+     * The name of the configuration parameter used to clone one of the databases. The value is the name of the
+     * template database followed by the name of the clone.
+     */
+    public static final String CLONE = "clone";
+    /**
+     * The name of the configuration parameter used to reset one of the databases. The value is the name of the
+     * database.
+     */
+    public static final String RESET = "reset";
+    /**
+     * The name of the configuration parameter used to begin a transaction scope on one of the databases. The value is
+     * the name of the database followed by the name of the scope.
+     */
+    public static final String BEGIN = "begin";
+    /**
+     * The name of the configuration parameter used to roll back a transaction scope on one of the databases. The
+     * value is the name of the database followed by the name of the scope.
+     */
+    public static final String END = "end";
+    /**
+     * The databases that make up the server.
+     */
+    private List<Member> members = Collections.emptyList();
+    /**
+     * The maximum number of databases started concurrently.
+     */
+    private int threads = 1;
+    /**
+     * Set once every database has started and been loaded.
+     */
+    private volatile boolean started;
+
+    /**
+     * Configure the server. The supported parameters are {@code members} and {@code threads}. The {@code clone},
+     * {@code reset}, {@code begin} and {@code end} parameters are forwarded to the member database named by the first
+     * word of their value.
+     *
+     * @param name   The name of the configuration parameter.
+     * @param value  The value of the configuration parameter.
+     * @param logger Used to report errors and raise exceptions.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void configure(final String name, final Object value, final Logger logger) {
+        if (MEMBERS.equals(name)) {
+            members = (List<Member>) value;
+        } else if (THREADS.equals(name)) {
+            threads = Integer.parseInt(value.toString());
+            logger.logInfo("Configured database threads: " + threads);
+        } else if (CLONE.equals(name) || RESET.equals(name) || BEGIN.equals(name) || END.equals(name)) {
+            final String database = value.toString().trim().split("\\s+")[0];
+            for (final Member member : members) {
+                if (member.getName().equals(database)) {
+                    member.getServer().configure(name, value, logger);
+                    return;
+                }
+            }
+            logger.logError("Cannot " + name + " unknown database " + database);
+        }
+    }
+
+    /**
+     * Start the databases and load their sources using a bounded pool of threads and wait for them all to complete.
+     * If any of the databases cannot be started or loaded the databases that were started are stopped again. The
+     * heap in use before each database is loaded is not measured when several databases are started at the same time
+     * because the memory used by the others would be included.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     */
+    @Override
+    public void start(final Logger logger) {
+        final long startTime = System.nanoTime();
+        final int poolSize = Math.max(1, Math.min(threads, members.size()));
+        if (poolSize > 1) {
+            for (final Member member : members) {
+                member.getServer().configure("measureHeap", Boolean.FALSE, logger);
+            }
+        }
+        final ExecutorService executor = createExecutor(poolSize);
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(members.size());
+            for (final Member member : members) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return member.start(logger);
+                    }
+                }));
+            }
+            final List<String> failures = new ArrayList<String>();
+            for (int i = 0; i < members.size(); i++) {
+                try {
+                    if (!futures.get(i).get()) {
+                        failures.add(members.get(i).getName());
+                    }
+                } catch (final ExecutionException exception) {
+                    logger.logError("Error starting database " + members.get(i).getName(), exception.getCause());
+                    failures.add(members.get(i).getName());
+                } catch (final InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    failures.add(members.get(i).getName());
+                }
+            }
+            if (failures.isEmpty()) {
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                logger.logInfo("Started " + members.size() + " database(s) in " + elapsed + " ms");
+                started = true;
+            } else {
+                for (final Member member : members) {
+                    if (member.getServer().isStarted(logger)) {
+                        member.getServer().stop(logger);
+                    }
+                }
+                logger.logError("Cannot start database(s) " + failures
+                        + ". The databases that were started have been stopped");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Determine whether every database has started and been loaded.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if every database has started. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean isStarted(final Logger logger) {
+        return started;
+    }
+
+    /**
+     * Stop the databases.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     */
+    @Override
+    public void stop(final Logger logger) {
+        started = false;
+        for (final Member member : members) {
+            member.getServer().stop(logger);
+        }
+    }
+
+    /**
+     * Determine whether every database has stopped.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if every database has stopped. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean isStopped(final Logger logger) {
+        for (final Member member : members) {
+            if (!member.getServer().isStopped(logger)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the databases that make up the server.
+     *
+     * @return The databases.
+     */
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * Create the bounded pool of daemon threads used to start the databases.
+     *
+     * @param poolSize The number of threads in the pool.
+     * @return The executor service.
+     */
+    private ExecutorService createExecutor(final int poolSize) {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "inmemdb-start-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * One of the databases that make up a {@link CompositeDatabase}.
+     */
+    public static final class Member {
+
+        /**
+         * The database name used in log messages.
+         */
+        private final String name;
+        /**
+         * The database server.
+         */
+        private final Server server;
+        /**
+         * The sources used to populate the database.
+         */
+        private final List<? extends Source> sources;
+
+        /**
+         * Construct a member database.
+         *
+         * @param name    The database name used in log messages.
+         * @param server  The configured database server.
+         * @param sources The sources used to populate the database. May be {@code null}.
+         */
+        public Member(final String name, final Server server, final List<? extends Source> sources) {
+            this.name = name;
+            this.server = server;
+            this.sources = sources;
+        }
+
+        /**
+         * Get the database name.
+         *
+         * @return The database name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the database server.
+         *
+         * @return The database server.
+         */
+        public Server getServer() {
+            return server;
+        }
+
+        /**
+         * Start the database server, load its sources, create its copies and save its baseline.
+         *
+         * @param logger Used to report errors and raise exceptions.
+         * @return {@code true} if the database server started. Otherwise, {@code false}.
+         */
+        private boolean start(final Logger logger) {
+            final long startTime = System.nanoTime();
+            server.start(logger);
+            if (!server.isStarted(logger)) {
+                logger.logError("Database " + name + " did not start");
+                return false;
+            }
+            if (sources != null) {
+                for (final Source source : sources) {
+                    logger.logInfo("Loading " + source.toString() + " into " + name);
+                    ((Database) server).load(logger, source);
+                }
+            }
+            if (server instanceof SQLDatabase) {
+                ((SQLDatabase) server).endLoad(logger);
+                ((SQLDatabase) server).refreshStatistics(logger);
+                ((SQLDatabase) server).createCopies(logger);
+                ((SQLDatabase) server).saveBaseline(logger);
+                ((SQLDatabase) server).makeReadOnly(logger);
+                ((SQLDatabase) server).logMemoryUsage(logger);
+            }
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            logger.logInfo("Database " + name + " was started and loaded in " + elapsed + " ms");
+            return true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db.composite;
+
+import com.btmatthews.utils.monitor.Server;
+import com.btmatthews.utils.monitor.ServerFactory;
+
+/**
+ * A factory that creates servers that run several databases together.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class CompositeDatabaseFactory implements ServerFactory {
+
+    /**
+     * Get the name of the server created by this server factory.
+     *
+     * @return Always returns {@code composite}.
+     */
+    @Override
+    public String getServerName() {
+        return CompositeDatabase.TYPE;
+    }
+
+    /**
+     * Create the server instance.
+     *
+     * @return A {@link CompositeDatabase} instance.
+     */
+    @Override
+    public Server createServer() {
+        return new CompositeDatabase();
+    }
+}
@@ -19,6 +19,9 @@ package com.btmatthews.maven.plugins.inmemdb.db.derby;
 import com.btmatthews.maven.plugins.inmemdb.Loader;
 import com.btmatthews.maven.plugins.inmemdb.MessageUtil;
 import com.btmatthews.maven.plugins.inmemdb.db.AbstractSQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.db.Concurrency;
+import com.btmatthews.maven.plugins.inmemdb.db.Profile;
+import com.btmatthews.maven.plugins.inmemdb.db.Storage;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitCSVLoader;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitFlatXMLLoader;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitXLSLoader;
@@ -28,17 +31,31 @@ import com.btmatthews.utils.monitor.Logger;
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.derby.drda.NetworkServerControl;
 import org.apache.derby.iapi.reference.Property;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 
 import javax.sql.DataSource;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Implements support for in-memory Apache Derby databases.
@@ -49,9 +66,17 @@ import java.util.Map;
 public final class DerbyDatabase extends AbstractSQLDatabase {
 
     /**
-     * The connection protocol for in-memory H2 databases.
+     * The connection protocol for Derby databases.
      */
-    private static final String PROTOCOL = "derby://localhost:{0,number,#}/memory:";
+    private static final String PROTOCOL = "derby://localhost:{0,number,#}/";
+    /**
+     * The connection protocol for in-process connections to Derby databases.
+     */
+    private static final String EMBEDDED_PROTOCOL = "derby:";
+    /**
+     * The prefix of the database name that selects the in-memory storage subsystem.
+     */
+    private static final String MEMORY_PREFIX = "memory:";
     /**
      * Default port Derby listens on, can be altered via setting port property
      */
@@ -66,6 +91,24 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
      * database to be dropped.
      */
     private static final String DROP = "drop";
+    /**
+     * The name of the additional connection parameter which will cause the
+     * database to be shut down.
+     */
+    private static final String SHUTDOWN = "shutdown";
+    /**
+     * The name of the additional connection parameter which will cause the
+     * database to be created from a backup.
+     */
+    private static final String CREATE_FROM = "createFrom";
+    /**
+     * The name of the file in a backup that holds the service properties of the database.
+     */
+    private static final String SERVICE_PROPERTIES = "service.properties";
+    /**
+     * The service property that Derby needs to boot a database.
+     */
+    private static final String SERVICE_PROTOCOL = "derby.serviceProtocol";
     /**
      * The value used with the {@link #CREATE} and {@link #DROP} connection parameters.
      */
@@ -74,6 +117,10 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
      * The JDBC driver class name.
      */
     private static final String DRIVER_CLASS = "org.apache.derby.jdbc.ClientDriver";
+    /**
+     * The JDBC driver class name used for in-process connections.
+     */
+    private static final String EMBEDDED_DRIVER_CLASS = "org.apache.derby.jdbc.EmbeddedDriver";
     /**
      * The loaders that are supported for loading data or executing scripts.
      */
@@ -81,16 +128,56 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
             new DBUnitXMLLoader(), new DBUnitFlatXMLLoader(),
             new DBUnitCSVLoader(), new DBUnitXLSLoader(), new SQLLoader()};
     /**
-     *
+     * Discards the output written to the Derby error log. Derby looks the field up by reflection so it must be public.
      */
-    private static final OutputStream DEV_NULL = new OutputStream() {
+    public static final OutputStream DEV_NULL = new OutputStream() {
         public void write(int b) {
         }
     };
+    /**
+     * The value of the Derby error log field property that refers to {@link #DEV_NULL}.
+     */
+    private static final String DEV_NULL_FIELD = DerbyDatabase.class.getName() + ".DEV_NULL";
+    /**
+     * Guards the JVM wide Derby system properties so that databases started concurrently do not race to set them.
+     */
+    private static final Object SYSTEM_PROPERTY_LOCK = new Object();
+    /**
+     * The system property that controls whether Derby synchronises the transaction log.
+     */
+    private static final String DURABILITY_PROPERTY = "derby.system.durability";
+    /**
+     * The database property that sets the number of pages in the page cache.
+     */
+    private static final String PAGE_CACHE_SIZE_PROPERTY = "derby.storage.pageCacheSize";
+    /**
+     * Matches the numbers of active and waiting sessions in the runtime information of the network server.
+     */
+    private static final Pattern RUNTIME_SESSIONS_PATTERN =
+            Pattern.compile("# (?:Active|Waiting)\\s+Sessions\\s*:\\s*(\\d+)");
     /**
      * The server used to accept connections from other JVMs.
      */
     private NetworkServerControl server;
+    /**
+     * Serialises the pings of the {@link #server}. The monitor and the run goal ask whether a daemon server has
+     * started from different threads and concurrent pings through the same {@link NetworkServerControl} close each
+     * other's sockets.
+     */
+    private final Object pingLock = new Object();
+    /**
+     * Indicates whether the database has been created when running in embedded mode.
+     */
+    private boolean embeddedStarted;
+    /**
+     * The values the system properties set by {@link #applySystemProperties(Logger)} had before they were set, so
+     * that they can be restored when the database is stopped. A {@code null} value means the property was not set.
+     */
+    private final Map<String, String> savedSystemProperties = new HashMap<String, String>();
+    /**
+     * The system properties set by {@link #applySystemProperties(Logger)}.
+     */
+    private final Map<String, String> appliedSystemProperties = new HashMap<String, String>();
 
     /**
      * The default constructor initializes the default database port.
@@ -105,7 +192,331 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
      * @return Returns protocol
      */
     protected String getUrlProtocol() {
-        return MessageFormat.format(PROTOCOL, getPort());
+        return MessageFormat.format(PROTOCOL, getPort()) + getStoragePrefix();
+    }
+
+    /**
+     * Get the database connection protocol used for in-process JDBC connections.
+     *
+     * @return {@link #EMBEDDED_PROTOCOL} followed by the storage prefix.
+     */
+    @Override
+    protected String getEmbeddedUrlProtocol() {
+        return EMBEDDED_PROTOCOL + getStoragePrefix();
+    }
+
+    /**
+     * Get the prefix of the database name that selects the storage backend.
+     *
+     * @return {@link #MEMORY_PREFIX} or the path of the database directory.
+     */
+    private String getStoragePrefix() {
+        if (getStorage() == Storage.DISK) {
+            return getDatabaseDirectory().getAbsolutePath().replace('\\', '/') + "/";
+        }
+        return MEMORY_PREFIX;
+    }
+
+    /**
+     * Derby can store the database on the heap or in files.
+     *
+     * @param storage The storage backend.
+     * @return {@code true} for {@link Storage#HEAP} and {@link Storage#DISK}.
+     */
+    @Override
+    protected boolean isStorageSupported(final Storage storage) {
+        return storage == Storage.HEAP || storage == Storage.DISK;
+    }
+
+    /**
+     * Derby always isolates transactions using locks.
+     *
+     * @param concurrency The transaction model.
+     * @return {@code true} for {@link Concurrency#LOCKS}.
+     */
+    @Override
+    protected boolean isConcurrencySupported(final Concurrency concurrency) {
+        return concurrency == Concurrency.LOCKS;
+    }
+
+    /**
+     * Get the connection attribute that removes the database from the engine. Databases stored in files cannot be
+     * dropped so they are shut down and their files are deleted afterwards.
+     *
+     * @return {@link #DROP} or {@link #SHUTDOWN}.
+     */
+    private String getRemoveAttribute() {
+        if (getStorage() == Storage.DISK) {
+            return SHUTDOWN;
+        }
+        return DROP;
+    }
+
+    /**
+     * Refresh the cardinality statistics of the indexes of every table using the
+     * {@code SYSCS_UTIL.SYSCS_UPDATE_STATISTICS} system procedure.
+     *
+     * @param connection The connection used to call the system procedure.
+     * @return Always {@code true}.
+     * @throws SQLException If there was an error calling the system procedure.
+     */
+    @Override
+    protected boolean updateStatistics(final Connection connection) throws SQLException {
+        final CallableStatement statement =
+                connection.prepareCall("CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS(?, ?, NULL)");
+        try {
+            final ResultSet resultSet = connection.getMetaData().getTables(null, null, "%", new String[]{"TABLE"});
+            try {
+                while (resultSet.next()) {
+                    statement.setString(1, resultSet.getString("TABLE_SCHEM"));
+                    statement.setString(2, resultSet.getString("TABLE_NAME"));
+                    statement.execute();
+                }
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            statement.close();
+        }
+        return true;
+    }
+
+    /**
+     * Make the database read-only by setting the default connection mode so that connections opened from now on are
+     * read-only.
+     *
+     * @param connection A connection to the database.
+     * @return Always {@code true}.
+     * @throws SQLException If there was an error setting the default connection mode.
+     */
+    @Override
+    protected boolean setReadOnly(final Connection connection) throws SQLException {
+        final CallableStatement statement = connection.prepareCall("CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY("
+                + "'derby.database.defaultConnectionMode', 'readOnlyAccess')");
+        try {
+            statement.execute();
+        } finally {
+            statement.close();
+        }
+        return true;
+    }
+
+    /**
+     * Count the sessions connected to the database. If the database is running in the network server the active and
+     * waiting sessions are taken from the runtime information of the server, which does not open a connection to the
+     * database. The session used to request the runtime information is excluded. Otherwise, the sessions are counted
+     * using the user transactions in the {@code SYSCS_DIAG.TRANSACTION_TABLE} diagnostic table because every
+     * connection has exactly one user transaction.
+     *
+     * @return The number of sessions.
+     * @throws Exception If there was an error querying the server or the transactions.
+     */
+    @Override
+    protected int countSessions() throws Exception {
+        final NetworkServerControl networkServer = server;
+        if (networkServer != null) {
+            final Matcher matcher = RUNTIME_SESSIONS_PATTERN.matcher(networkServer.getRuntimeInfo());
+            int sessions = 0;
+            while (matcher.find()) {
+                sessions += Integer.parseInt(matcher.group(1));
+            }
+            return Math.max(sessions - 1, 0);
+        }
+        return countSessions("SELECT COUNT(*) FROM SYSCS_DIAG.TRANSACTION_TABLE WHERE TYPE = 'UserTransaction'");
+    }
+
+    /**
+     * Get the number of bytes allocated to a table and its indexes using the {@code SYSCS_DIAG.SPACE_TABLE} diagnostic
+     * table function.
+     *
+     * @param connection The connection to the database.
+     * @param schema     The schema name.
+     * @param table      The table name.
+     * @return The number of bytes.
+     * @throws SQLException If there was an error querying the size of the table.
+     */
+    @Override
+    protected long getTableSize(final Connection connection, final String schema, final String table)
+            throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(
+                "SELECT SUM(NUMALLOCATEDPAGES * PAGESIZE) FROM TABLE (SYSCS_DIAG.SPACE_TABLE(?, ?)) S");
+        try {
+            statement.setString(1, schema);
+            statement.setString(2, table);
+            final ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Open the connection used to count the sessions and sample the lock waits directly rather than from the loader
+     * data source. The loader data source pools its connections so every sample would leave an idle connection open
+     * that would be counted as a session and would outlive a restore of the database.
+     *
+     * @return The connection.
+     * @throws SQLException If the connection could not be opened.
+     */
+    @Override
+    protected Connection getDiagnosticConnection() throws SQLException {
+        final String password = getPassword().length() == 0 ? null : getPassword();
+        return DriverManager.getConnection(getEmbeddedUrl(), getUsername(), password);
+    }
+
+    /**
+     * Get the transactions waiting for locks by joining the waiting and granted locks on the same rows or tables in
+     * the {@code SYSCS_DIAG.LOCK_TABLE} diagnostic table.
+     *
+     * @return The identifiers of the waiting transactions mapped to the identifiers of the transactions holding the
+     *         locks.
+     * @throws SQLException If there was an error querying the locks.
+     */
+    @Override
+    protected Map<String, Set<String>> getLockWaits() throws SQLException {
+        return getLockWaits("SELECT W.XID, G.XID FROM SYSCS_DIAG.LOCK_TABLE W, SYSCS_DIAG.LOCK_TABLE G"
+                + " WHERE W.STATE = 'WAIT' AND G.STATE = 'GRANT' AND W.TABLENAME = G.TABLENAME"
+                + " AND W.LOCKNAME = G.LOCKNAME AND W.XID <> G.XID");
+    }
+
+    /**
+     * Set the system properties needed by the configured storage backend. Databases stored in files do not
+     * synchronise the transaction log because the files are discarded when the database is stopped. Derby only
+     * supports this as a JVM wide system property, which it reads when each database is booted, so the previous value
+     * is saved and restored when the database is stopped. Must be called while holding {@link #SYSTEM_PROPERTY_LOCK}.
+     *
+     * @param logger Used to log the system properties that were set.
+     */
+    private void applySystemProperties(final Logger logger) {
+        if (getStorage() == Storage.DISK) {
+            setSystemProperty(DURABILITY_PROPERTY, "test");
+            logger.logInfo("Disabled synchronisation of the transaction log for database " + getDatabaseName());
+        }
+    }
+
+    /**
+     * Set a system property after saving its previous value.
+     *
+     * @param name  The name of the system property.
+     * @param value The value of the system property.
+     */
+    private void setSystemProperty(final String name, final String value) {
+        if (!savedSystemProperties.containsKey(name)) {
+            savedSystemProperties.put(name, System.getProperty(name));
+        }
+        appliedSystemProperties.put(name, value);
+        System.setProperty(name, value);
+    }
+
+    /**
+     * Restore the system properties set by {@link #applySystemProperties(Logger)} to the values they had before,
+     * unless they have been changed since.
+     */
+    private void restoreSystemProperties() {
+        synchronized (SYSTEM_PROPERTY_LOCK) {
+            for (final Map.Entry<String, String> entry : appliedSystemProperties.entrySet()) {
+                if (entry.getValue().equals(System.getProperty(entry.getKey()))) {
+                    final String previous = savedSystemProperties.get(entry.getKey());
+                    if (previous == null) {
+                        System.clearProperty(entry.getKey());
+                    } else {
+                        System.setProperty(entry.getKey(), previous);
+                    }
+                }
+            }
+            appliedSystemProperties.clear();
+            savedSystemProperties.clear();
+        }
+    }
+
+    /**
+     * Get the database properties that tune the database for the configured performance profile and storage backend.
+     * If a cache size was configured for a database stored in files it overrides the page cache size of the profile
+     * assuming Derby's default page size of 4 KB.
+     *
+     * @return The database properties.
+     */
+    private Map<String, String> getDatabaseProperties() {
+        final Map<String, String> properties = new LinkedHashMap<String, String>();
+        if (getProfile() != null) {
+            properties.putAll(getProfileDatabaseProperties(getProfile()));
+        }
+        if (getStorage() == Storage.DISK && getCacheSize() > 0) {
+            properties.put(PAGE_CACHE_SIZE_PROPERTY, Integer.toString(getCacheSize() * 256));
+        }
+        return properties;
+    }
+
+    /**
+     * Store the database properties for the configured performance profile and storage backend in the newly created
+     * database using the {@code SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY} system procedure and reboot the database so
+     * that they take effect. They only apply to this database and are carried over to its copies and clones. Shutting
+     * down an in-memory database does not discard it.
+     *
+     * @param logger Used to log the database properties that took effect.
+     * @return {@code true} if the properties were applied. Otherwise, {@code false}.
+     */
+    private boolean applyDatabaseProperties(final Logger logger) {
+        final Map<String, String> properties = getDatabaseProperties();
+        if (properties.isEmpty()) {
+            if (getProfile() != null) {
+                logProfile(logger, properties);
+            }
+            return true;
+        }
+        final String password = getPassword().length() == 0 ? null : getPassword();
+        try {
+            final Connection connection = DriverManager.getConnection(getEmbeddedUrl(), getUsername(), password);
+            try {
+                final CallableStatement statement =
+                        connection.prepareCall("CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, ?)");
+                try {
+                    for (final Map.Entry<String, String> property : properties.entrySet()) {
+                        statement.setString(1, property.getKey());
+                        statement.setString(2, property.getValue());
+                        statement.execute();
+                    }
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                connection.close();
+            }
+            final Map<String, String> shutdownAttributes = new HashMap<String, String>();
+            shutdownAttributes.put(SHUTDOWN, TRUE);
+            try {
+                DriverManager.getConnection(getEmbeddedUrl(shutdownAttributes), getUsername(), password);
+            } catch (final SQLException exception) {
+                if (exception.getErrorCode() != 45000 || !"08006".equals(exception.getSQLState())) {
+                    throw exception;
+                }
+            }
+            DriverManager.getConnection(getEmbeddedUrl(), getUsername(), password).close();
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
+            logger.logError(message, exception);
+            return false;
+        }
+        if (properties.containsKey(PAGE_CACHE_SIZE_PROPERTY)) {
+            logger.logInfo("Using page cache of " + properties.get(PAGE_CACHE_SIZE_PROPERTY) + " pages for database "
+                    + getDatabaseName());
+        }
+        if (getProfile() != null) {
+            logProfile(logger, properties);
+        }
+        return true;
+    }
+
+    /**
+     * Get the JDBC driver class name which depends on whether the database is running in embedded mode.
+     *
+     * @return {@link #EMBEDDED_DRIVER_CLASS} or {@link #DRIVER_CLASS}.
+     */
+    private String getDriverClassName() {
+        if (isEmbedded()) {
+            return EMBEDDED_DRIVER_CLASS;
+        }
+        return DRIVER_CLASS;
     }
 
     /**
@@ -117,16 +528,210 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
      */
     @Override
     public DataSource getDataSource() {
+        return createDataSource(getUrl(), getDriverClassName());
+    }
+
+    /**
+     * Get the data source used by the loaders which connects to the in-memory Apache Derby database using
+     * the embedded driver.
+     *
+     * @return The data source.
+     */
+    @Override
+    public DataSource getLoaderDataSource() {
+        return createDataSource(getEmbeddedUrl(), EMBEDDED_DRIVER_CLASS);
+    }
+
+    /**
+     * Create a data source for the in-memory Apache Derby database.
+     *
+     * @param url         The JDBC URL.
+     * @param driverClass The JDBC driver class name.
+     * @return The data source.
+     */
+    private DataSource createDataSource(final String url, final String driverClass) {
         final BasicDataSource dataSource = new BasicDataSource();
-        dataSource.setUrl(getUrl());
+        dataSource.setUrl(url);
         dataSource.setUsername(getUsername());
         if (StringUtils.isNotEmpty(getPassword())) {
             dataSource.setPassword(getPassword());
         }
-        dataSource.setDriverClassName(DRIVER_CLASS);
+        dataSource.setDriverClassName(driverClass);
         return dataSource;
     }
 
+    /**
+     * Write a snapshot of the database using the {@code SYSCS_UTIL.SYSCS_BACKUP_DATABASE} system procedure.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that will contain the backup.
+     * @return {@code true} if the snapshot was written. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean snapshot(final Logger logger, final File directory) {
+        try {
+            final Connection connection = getLoaderDataSource().getConnection();
+            try {
+                final CallableStatement statement = connection.prepareCall("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)");
+                try {
+                    statement.setString(1, directory.getAbsolutePath());
+                    statement.execute();
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                connection.close();
+            }
+            return true;
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_CREATING_SNAPSHOT, getDatabaseName());
+            logger.logError(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Restore a snapshot by dropping the in-memory database and recreating it from the backup using the
+     * {@code createFrom} connection attribute. A database stored in files is shut down and its files are deleted
+     * instead of dropping it. Sampling is held off meanwhile because a sample connecting while the database is being
+     * replaced leaves the recreated database unusable. The service properties of the backup are checked before the
+     * database is dropped because Derby cannot drop or recreate an in-memory database that failed to boot.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that contains the backup.
+     * @return {@code true} if the snapshot was restored. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean restore(final Logger logger, final File directory) {
+        synchronized (getSamplingLock()) {
+            final File backup = new File(directory, new File(getDatabaseName()).getName());
+            if (!backup.isDirectory()) {
+                return false;
+            }
+            if (!isBootable(logger, backup)) {
+                return false;
+            }
+            final String password = getPassword().length() == 0 ? null : getPassword();
+            final Map<String, String> dropAttributes = new HashMap<String, String>();
+            dropAttributes.put(getRemoveAttribute(), TRUE);
+            try {
+                DriverManager.getConnection(getEmbeddedUrl(dropAttributes), getUsername(), password);
+            } catch (final SQLException exception) {
+                if (exception.getErrorCode() != 45000 || !"08006".equals(exception.getSQLState())) {
+                    final String message = MessageUtil.getMessage(ERROR_RESTORING_SNAPSHOT, getDatabaseName());
+                    logger.logError(message, exception);
+                    return false;
+                }
+            }
+            if (getStorage() == Storage.DISK) {
+                try {
+                    FileUtils.deleteDirectory(new File(getDatabaseDirectory(), getDatabaseName()));
+                } catch (final IOException exception) {
+                    final String message = MessageUtil.getMessage(ERROR_RESTORING_SNAPSHOT, getDatabaseName());
+                    logger.logError(message, exception);
+                    return false;
+                }
+            }
+            final Map<String, String> restoreAttributes = new HashMap<String, String>();
+            restoreAttributes.put(CREATE_FROM, backup.getAbsolutePath());
+            try {
+                final Connection connection = DriverManager.getConnection(getEmbeddedUrl(restoreAttributes),
+                        getUsername(), password);
+                connection.close();
+                return true;
+            } catch (final SQLException exception) {
+                final String message = MessageUtil.getMessage(ERROR_RESTORING_SNAPSHOT, getDatabaseName());
+                logger.logError(message, exception);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Determine whether Derby can boot a database from a backup by checking that its service properties can be read
+     * and declare the service protocol.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @param backup The directory that contains the backup.
+     * @return {@code true} if the backup can be booted. Otherwise, {@code false}.
+     */
+    private boolean isBootable(final Logger logger, final File backup) {
+        final Properties serviceProperties = new Properties();
+        try {
+            final InputStream inputStream = new FileInputStream(new File(backup, SERVICE_PROPERTIES));
+            try {
+                serviceProperties.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (final IOException exception) {
+            final String message = MessageUtil.getMessage(ERROR_RESTORING_SNAPSHOT, getDatabaseName());
+            logger.logError(message, exception);
+            return false;
+        }
+        if (serviceProperties.getProperty(SERVICE_PROTOCOL) == null) {
+            logger.logError(MessageUtil.getMessage(ERROR_RESTORING_SNAPSHOT, getDatabaseName()));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Create a copy of the database from the backup using the {@code createFrom} connection attribute. The copy is
+     * served by the same network server.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that contains the backup.
+     * @param name      The name of the copy.
+     * @return {@code true} if the copy was created. Otherwise, {@code false}.
+     */
+    @Override
+    protected boolean copy(final Logger logger, final File directory, final String name) {
+        final File backup = new File(directory, new File(getDatabaseName()).getName());
+        final String password = getPassword().length() == 0 ? null : getPassword();
+        final Map<String, String> copyAttributes = new HashMap<String, String>();
+        copyAttributes.put(CREATE_FROM, backup.getAbsolutePath());
+        try {
+            final Connection connection = DriverManager.getConnection(getEmbeddedUrl(name, copyAttributes), getUsername(), password);
+            connection.close();
+            return true;
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_CREATING_COPY, name);
+            logger.logError(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Get the database properties that tune Derby for a performance profile. They are stored in the database once it
+     * has been created:
+     * <ul>
+     * <li>{@code bulkLoad} and {@code throughput} enlarge the page cache. The transaction log of in-memory databases
+     * is never synchronised and databases stored in files never synchronise it regardless of the profile.</li>
+     * <li>{@code lowMemory} uses the smallest page cache and statement cache.</li>
+     * <li>{@code strict} uses Derby's default settings.</li>
+     * </ul>
+     *
+     * @param profile The performance profile.
+     * @return The database properties.
+     */
+    private static Map<String, String> getProfileDatabaseProperties(final Profile profile) {
+        final Map<String, String> properties = new LinkedHashMap<String, String>();
+        switch (profile) {
+            case BULK_LOAD:
+            case THROUGHPUT:
+                properties.put(PAGE_CACHE_SIZE_PROPERTY, "4000");
+                break;
+            case LOW_MEMORY:
+                properties.put(PAGE_CACHE_SIZE_PROPERTY, "40");
+                properties.put("derby.language.statementCacheSize", "20");
+                break;
+            default:
+                break;
+        }
+        return properties;
+    }
+
     /**
      * Get the loaders that are supported for loading data or executing scripts.
      *
@@ -147,44 +752,95 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
 
         logger.logInfo("Starting embedded Derby database");
 
-        System.setProperty(Property.ERRORLOG_FIELD_PROPERTY, "com.btmatthews.maven.plugins.inmemdb.db.derby.DerbyDatabase.DEV_NULL");
+        signalStarting();
 
-        try {
-            server = new NetworkServerControl(InetAddress.getByName("localhost"), getPort());
-            server.start(null);
-        } catch (final Exception exception) {
-            final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
-            logger.logError(message, exception);
+        synchronized (SYSTEM_PROPERTY_LOCK) {
+            if (!DEV_NULL_FIELD.equals(System.getProperty(Property.ERRORLOG_FIELD_PROPERTY))) {
+                System.setProperty(Property.ERRORLOG_FIELD_PROPERTY, DEV_NULL_FIELD);
+            }
+            applySystemProperties(logger);
+        }
+
+        if (getStorage() == Storage.DISK && !prepareDatabaseDirectory(logger)) {
+            signalFailed();
             return;
         }
 
+        if (!isEmbedded()) {
+            try {
+                server = new NetworkServerControl(InetAddress.getByName("localhost"), getPort());
+                server.start(null);
+            } catch (final Exception exception) {
+                final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
+                logger.logError(message, exception);
+                signalFailed();
+                return;
+            }
+            if (!waitForPort(getPort(), PROBE_RETRIES, PROBE_INITIAL_DELAY)) {
+                logger.logError(MessageUtil.getMessage(SERVER_NOT_READY, getDatabaseName()));
+                signalFailed();
+                return;
+            }
+            if (getServerThreads() > 0) {
+                try {
+                    server.setMaxThreads(getServerThreads());
+                    logger.logInfo("Using " + getServerThreads() + " server threads for database "
+                            + getDatabaseName());
+                } catch (final Exception exception) {
+                    final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
+                    logger.logError(message, exception);
+                    signalFailed();
+                    return;
+                }
+            }
+            if (getMaxConnections() > 0) {
+                logger.logInfo("Ignoring maxConnections for database " + getDatabaseName()
+                        + " because the Derby network server queues connections that exceed the server threads");
+            }
+        }
+
         try {
-            Class.forName(DRIVER_CLASS).newInstance();
+            Class.forName(EMBEDDED_DRIVER_CLASS).newInstance();
         } catch (final InstantiationException exception) {
             final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
             logger.logError(message, exception);
+            signalFailed();
             return;
         } catch (final IllegalAccessException exception) {
             final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
             logger.logError(message, exception);
+            signalFailed();
             return;
         } catch (final ClassNotFoundException exception) {
             final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
             logger.logError(message, exception);
+            signalFailed();
             return;
         }
 
         final Map<String, String> attributes = new HashMap<String, String>();
         attributes.put(CREATE, TRUE);
         try {
-            final Connection connection = DriverManager.getConnection(getUrl(attributes), getUsername(), getPassword().length() == 0 ? null : getPassword());
+            final Connection connection = DriverManager.getConnection(getEmbeddedUrl(attributes), getUsername(), getPassword().length() == 0 ? null : getPassword());
             connection.close();
         } catch (final SQLException exception) {
             final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
             logger.logError(message, exception);
+            signalFailed();
+            return;
+        }
+
+        embeddedStarted = isEmbedded();
+
+        if (!applyDatabaseProperties(logger)) {
+            signalFailed();
             return;
         }
 
+        startSessionSampler();
+
+        signalReady(logger);
+
         logger.logInfo("Started embedded Derby database");
     }
 
@@ -192,6 +848,10 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
      * Shutdown the in-memory Apache Derby database by opening a connection with
      * <code>drop=true</code>. If successful this will cause a SQL exception
      * with a SQL State of 08006 and a vendor specific error code of 45000.
+     * A database stored in files is opened with <code>shutdown=true</code>
+     * instead and the database directory is deleted afterwards. The peak
+     * number of concurrent sessions is reported before the database is
+     * shut down.
      *
      * @param logger Used to report errors and raise exceptions.
      */
@@ -200,11 +860,17 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
 
         logger.logInfo("Stopping embedded Derby database");
 
-        if (server != null) {
+        signalStopping();
+
+        stopSessionSampler(logger);
+
+        restoreSystemProperties();
+
+        if (server != null || embeddedStarted) {
             final Map<String, String> attributes = new HashMap<String, String>();
-            attributes.put(DROP, TRUE);
+            attributes.put(getRemoveAttribute(), TRUE);
             try {
-                DriverManager.getConnection(getUrl(attributes), getUsername(), getPassword().length() == 0 ? null : getPassword());
+                DriverManager.getConnection(getEmbeddedUrl(attributes), getUsername(), getPassword().length() == 0 ? null : getPassword());
             } catch (final SQLException exception) {
                 if (exception.getErrorCode() != 45000 || !"08006".equals(exception.getSQLState())) {
                     final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
@@ -212,21 +878,68 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
                     return;
                 }
             }
-            try {
-                server.shutdown();
-            } catch (final Exception exception) {
-                final String message = MessageUtil.getMessage(ERROR_STOPPING_SERVER, getDatabaseName());
-                logger.logError(message, exception);
-                return;
+            final List<String> others = getClones();
+            for (int i = 1; i <= getCopies(); i++) {
+                others.add(getCopyName(i));
+            }
+            for (final String other : others) {
+                try {
+                    DriverManager.getConnection(getEmbeddedUrl(other, attributes), getUsername(), getPassword().length() == 0 ? null : getPassword());
+                } catch (final SQLException exception) {
+                    // Derby reports that the copy or clone was dropped or that it was never created
+                }
+            }
+            if (getStorage() == Storage.DISK) {
+                deleteDatabaseDirectory(logger);
+            }
+            releaseBaseline(logger);
+            embeddedStarted = false;
+            if (server != null) {
+                try {
+                    server.shutdown();
+                } catch (final Exception exception) {
+                    final String message = MessageUtil.getMessage(ERROR_STOPPING_SERVER, getDatabaseName());
+                    logger.logError(message, exception);
+                    return;
+                }
             }
         }
 
         logger.logInfo("Stopped embedded Derby database");
     }
 
+    /**
+     * Determine whether the database has started by waiting for it to signal that it is ready.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the database has started. Otherwise, {@code false}.
+     */
     @Override
     public boolean isStarted(final Logger logger) {
-        if (server != null) {
+        if (!awaitReady()) {
+            return false;
+        }
+        if (isEmbedded()) {
+            return embeddedStarted;
+        }
+        return server != null && ping();
+    }
+
+    @Override
+    public boolean isStopped(final Logger logger) {
+        if (isEmbedded()) {
+            return !embeddedStarted;
+        }
+        return !ping();
+    }
+
+    /**
+     * Ping the network server.
+     *
+     * @return {@code true} if the network server responded. Otherwise, {@code false}.
+     */
+    private boolean ping() {
+        synchronized (pingLock) {
             try {
                 server.ping();
                 return true;
@@ -234,16 +947,5 @@ public final class DerbyDatabase extends AbstractSQLDatabase {
                 return false;
             }
         }
-        return false;
-    }
-
-    @Override
-    public boolean isStopped(final Logger logger) {
-        try {
-            server.ping();
-            return false;
-        } catch (final Exception e) {
-            return true;
-        }
     }
 }
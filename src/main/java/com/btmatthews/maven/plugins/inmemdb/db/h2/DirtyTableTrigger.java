@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db.h2;
+
+import com.btmatthews.maven.plugins.inmemdb.db.AbstractSQLDatabase;
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A row level trigger that records that a table has been modified by inserting its schema and table name into
+ * the {@link AbstractSQLDatabase#DIRTY_TABLE}.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class DirtyTableTrigger implements Trigger {
+
+    /**
+     * The statement that records that the table has been modified.
+     */
+    private static final String MERGE = "MERGE INTO " + AbstractSQLDatabase.DIRTY_TABLE
+            + " KEY(TABLE_SCHEMA, TABLE_NAME) VALUES (?, ?)";
+    /**
+     * The schema name of the table.
+     */
+    private String schemaName;
+    /**
+     * The table name.
+     */
+    private String tableName;
+
+    /**
+     * Initialise the trigger with the name of the table it is attached to.
+     *
+     * @param connection  The connection to the database.
+     * @param schemaName  The schema name of the table.
+     * @param triggerName The trigger name.
+     * @param tableName   The table name.
+     * @param before      Indicates whether the trigger fires before the statement.
+     * @param type        The events that fire the trigger.
+     */
+    @Override
+    public void init(final Connection connection, final String schemaName, final String triggerName,
+                     final String tableName, final boolean before, final int type) {
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Record that the table has been modified.
+     *
+     * @param connection The connection to the database.
+     * @param oldRow     Ignored.
+     * @param newRow     Ignored.
+     * @throws SQLException If there was an error recording that the table has been modified.
+     */
+    @Override
+    public void fire(final Connection connection, final Object[] oldRow, final Object[] newRow) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(MERGE);
+        try {
+            statement.setString(1, schemaName);
+            statement.setString(2, tableName);
+            statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Called when the database is closed.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Called when the trigger is dropped.
+     */
+    @Override
+    public void remove() {
+    }
+}
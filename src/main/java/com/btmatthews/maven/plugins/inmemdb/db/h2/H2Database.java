@@ -19,6 +19,9 @@ package com.btmatthews.maven.plugins.inmemdb.db.h2;
 import com.btmatthews.maven.plugins.inmemdb.Loader;
 import com.btmatthews.maven.plugins.inmemdb.MessageUtil;
 import com.btmatthews.maven.plugins.inmemdb.db.AbstractSQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.db.Concurrency;
+import com.btmatthews.maven.plugins.inmemdb.db.Profile;
+import com.btmatthews.maven.plugins.inmemdb.db.Storage;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitCSVLoader;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitFlatXMLLoader;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitXLSLoader;
@@ -27,12 +30,24 @@ import com.btmatthews.maven.plugins.inmemdb.ldr.sqltool.SQLLoader;
 import com.btmatthews.utils.monitor.Logger;
 import org.h2.jdbcx.JdbcDataSource;
 import org.h2.server.TcpServer;
+import org.h2.store.fs.FileUtils;
+import org.h2.tools.DeleteDbFiles;
 
 import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Implements support for in-memory H2 databases.
@@ -43,23 +58,62 @@ import java.util.Map;
 public final class H2Database extends AbstractSQLDatabase {
 
     /**
-     * The connection protocol for in-memory H2 databases.
+     * The connection protocol for in-memory H2 databases. It is followed by the prefix for the storage backend.
      */
-    private static final String PROTOCOL = "h2:tcp://localhost:{0,number,#}/mem:";
+    private static final String PROTOCOL = "h2:tcp://localhost:{0,number,#}/";
+    /**
+     * The connection protocol for in-process connections to in-memory H2 databases. It is followed by the prefix for
+     * the storage backend.
+     */
+    private static final String EMBEDDED_PROTOCOL = "h2:";
+    /**
+     * The prefix for databases stored on the heap.
+     */
+    private static final String MEM_PREFIX = "mem:";
+    /**
+     * The prefix for databases stored in the in-memory file system backed by direct buffers.
+     */
+    private static final String NIO_MEM_PREFIX = "nioMemFS:";
+    /**
+     * The prefix for databases stored in the compressed in-memory file system backed by direct buffers.
+     */
+    private static final String NIO_MEM_LZF_PREFIX = "nioMemLZF:";
+    /**
+     * The prefix for databases stored in files. It is followed by the path of the database directory.
+     */
+    private static final String FILE_PREFIX = "file:";
     /**
      * Default port H2 listens on, can be altered via setting port property
      */
     private static final int DEFAULT_PORT = 9092;
+    /**
+     * The name of the file that contains a snapshot of the database.
+     */
+    private static final String SNAPSHOT_FILE = "snapshot.sql.zip";
     /**
      * The loaders that are supported for loading data or executing scripts.
      */
     private static final Loader[] LOADERS = new Loader[]{
             new DBUnitXMLLoader(), new DBUnitFlatXMLLoader(),
             new DBUnitCSVLoader(), new DBUnitXLSLoader(), new SQLLoader()};
+    /**
+     * The default values of the settings changed while the database is loaded with the {@code bulkLoad} profile.
+     */
+    private static final Map<String, String> DEFAULT_SETTINGS = new HashMap<String, String>();
+
+    static {
+        DEFAULT_SETTINGS.put("LOG", "2");
+        DEFAULT_SETTINGS.put("UNDO_LOG", "1");
+        DEFAULT_SETTINGS.put("LOCK_MODE", "3");
+    }
     /**
      * The H2 TCP server.
      */
     private TcpServer service;
+    /**
+     * Indicates whether the database has been created when running in embedded mode.
+     */
+    private boolean embeddedStarted;
 
     /**
      * The default constructor initializes the default database port.
@@ -68,13 +122,256 @@ public final class H2Database extends AbstractSQLDatabase {
         super(DEFAULT_PORT);
     }
 
+    /**
+     * Get the JDBC URL that clients use to connect to a clone of the database. H2 creates a database that does not
+     * exist when a client connects to it, so the URL only allows connections to existing databases. That way a client
+     * connecting to a clone that could not be created fails instead of getting an empty database.
+     *
+     * @param name The name of the clone. This can be a place holder that is substituted later.
+     * @return The JDBC URL.
+     */
+    @Override
+    public String getCloneUrl(final String name) {
+        final Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("IFEXISTS", "TRUE");
+        return getOtherUrl(name, attributes);
+    }
+
     /**
      * Get the database connection protocol.
      *
-     * @return Always returns {@link H2Database#PROTOCOL}.
+     * @return Returns {@link H2Database#PROTOCOL} followed by the prefix for the storage backend.
      */
     protected String getUrlProtocol() {
-        return MessageFormat.format(PROTOCOL, getPort());
+        return MessageFormat.format(PROTOCOL, getPort()) + getStoragePrefix();
+    }
+
+    /**
+     * Get the database connection protocol used for in-process connections.
+     *
+     * @return Returns {@link H2Database#EMBEDDED_PROTOCOL} followed by the prefix for the storage backend.
+     */
+    @Override
+    protected String getEmbeddedUrlProtocol() {
+        return EMBEDDED_PROTOCOL + getStoragePrefix();
+    }
+
+    /**
+     * Refresh the selectivity of every column using the {@code ANALYZE} command.
+     *
+     * @param connection The connection used to run the command.
+     * @return Always {@code true}.
+     * @throws SQLException If there was an error running the command.
+     */
+    @Override
+    protected boolean updateStatistics(final Connection connection) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            statement.execute("ANALYZE");
+        } finally {
+            statement.close();
+        }
+        return true;
+    }
+
+    /**
+     * Make the database read-only by attaching a {@link ReadOnlyTrigger} to every table that rejects inserts, updates
+     * and deletes. H2 only supports a read-only mode for databases that are opened read-only.
+     *
+     * @param connection A connection to the database.
+     * @return Always {@code true}.
+     * @throws SQLException If there was an error creating the triggers.
+     */
+    @Override
+    protected boolean setReadOnly(final Connection connection) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            int index = 0;
+            for (final String[] name : getTableNames(connection)) {
+                statement.execute("CREATE TRIGGER \"" + name[0] + "\".\"INMEMDB_READ_ONLY_" + index++
+                        + "\" BEFORE INSERT, UPDATE, DELETE ON " + qualify(name[0], name[1]) + " CALL \""
+                        + ReadOnlyTrigger.class.getName() + "\"");
+            }
+        } finally {
+            statement.close();
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of bytes used by a table using the {@code DISK_SPACE_USED} function. Only the page store used by
+     * databases stored outside the heap reports the size of its tables.
+     *
+     * @param connection The connection to the database.
+     * @param schema     The schema name.
+     * @param table      The table name.
+     * @return The number of bytes or {@code -1} if the size of the table is not reported.
+     * @throws SQLException If there was an error querying the size of the table.
+     */
+    @Override
+    protected long getTableSize(final Connection connection, final String schema, final String table)
+            throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement("SELECT DISK_SPACE_USED(?)");
+        try {
+            statement.setString(1, qualify(schema, table));
+            final ResultSet resultSet = statement.executeQuery();
+            final long bytes = resultSet.next() ? resultSet.getLong(1) : 0;
+            return bytes > 0 ? bytes : -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Get the memory used and free in kilobytes as reported by the {@code MEMORY_USED} and {@code MEMORY_FREE}
+     * functions and the page and cache settings from the {@code INFORMATION_SCHEMA.SETTINGS} table.
+     *
+     * @param connection The connection to the database.
+     * @return The statistics keyed by name.
+     * @throws SQLException If there was an error querying the statistics.
+     */
+    @Override
+    protected Map<String, String> getMemoryStatistics(final Connection connection) throws SQLException {
+        final Map<String, String> statistics = new LinkedHashMap<String, String>();
+        final Statement statement = connection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery("SELECT MEMORY_USED(), MEMORY_FREE()");
+            if (resultSet.next()) {
+                statistics.put("MEMORY_USED", resultSet.getString(1));
+                statistics.put("MEMORY_FREE", resultSet.getString(2));
+            }
+            resultSet = statement.executeQuery("SELECT NAME, VALUE FROM INFORMATION_SCHEMA.SETTINGS"
+                    + " WHERE NAME LIKE 'info.%' AND NAME NOT LIKE 'info.VERSION%' AND NAME <> 'info.BUILD_ID'");
+            while (resultSet.next()) {
+                statistics.put(resultSet.getString(1), resultSet.getString(2));
+            }
+        } finally {
+            statement.close();
+        }
+        return statistics;
+    }
+
+    /**
+     * Count the sessions connected to the database using the {@code INFORMATION_SCHEMA.SESSIONS} table.
+     *
+     * @return The number of sessions.
+     * @throws SQLException If there was an error querying the sessions.
+     */
+    @Override
+    protected int countSessions() throws SQLException {
+        return countSessions("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS");
+    }
+
+    /**
+     * Get the prefix of the database name that selects the storage backend.
+     *
+     * @return {@link #MEM_PREFIX}, {@link #NIO_MEM_PREFIX}, {@link #NIO_MEM_LZF_PREFIX} or {@link #FILE_PREFIX}
+     *         followed by the path of the database directory.
+     */
+    private String getStoragePrefix() {
+        switch (getStorage()) {
+            case OFF_HEAP:
+                return NIO_MEM_PREFIX;
+            case OFF_HEAP_COMPRESSED:
+                return NIO_MEM_LZF_PREFIX;
+            case DISK:
+                return FILE_PREFIX + getDatabaseDirectory().getAbsolutePath().replace('\\', '/') + "/";
+            default:
+                return MEM_PREFIX;
+        }
+    }
+
+    /**
+     * H2 can store the database on the heap, in one of its in-memory file systems backed by direct buffers or in
+     * files.
+     *
+     * @param storage The storage backend.
+     * @return Always {@code true}.
+     */
+    @Override
+    protected boolean isStorageSupported(final Storage storage) {
+        return true;
+    }
+
+    /**
+     * H2 either locks tables or uses multi-version concurrency control. It cannot combine table locks with row
+     * versions for readers.
+     *
+     * @param concurrency The transaction model.
+     * @return {@code true} for {@link Concurrency#LOCKS} and {@link Concurrency#MVCC}.
+     */
+    @Override
+    protected boolean isConcurrencySupported(final Concurrency concurrency) {
+        return concurrency == Concurrency.LOCKS || concurrency == Concurrency.MVCC;
+    }
+
+    /**
+     * Get the connection attribute that enables or disables multi-version concurrency control.
+     *
+     * @param concurrency The transaction model.
+     * @return The {@code MVCC} attribute.
+     */
+    @Override
+    protected Map<String, String> getConcurrencyAttributes(final Concurrency concurrency) {
+        final Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("MVCC", concurrency == Concurrency.MVCC ? "TRUE" : "FALSE");
+        return attributes;
+    }
+
+    /**
+     * Get the connection attributes needed by the configured storage backend. H2 cannot lock files in its in-memory
+     * file systems when using the MVStore engine so databases stored outside the heap use the page store without a
+     * file lock. Databases stored in files use the configured cache size.
+     *
+     * @return The connection attributes.
+     */
+    @Override
+    protected Map<String, String> getStorageAttributes() {
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        if (getStorage() == Storage.OFF_HEAP || getStorage() == Storage.OFF_HEAP_COMPRESSED) {
+            attributes.put("MV_STORE", "FALSE");
+            attributes.put("FILE_LOCK", "NO");
+        } else if (getStorage() == Storage.DISK && getCacheSize() > 0) {
+            attributes.put("CACHE_SIZE", Integer.toString(getCacheSize() * 1024));
+        }
+        return attributes;
+    }
+
+    /**
+     * Get the number of bytes used by the files of the database, its copies and clones in the in-memory file system
+     * or the database directory. For the compressed file system this is the uncompressed size.
+     *
+     * @return The number of bytes or {@code -1} if the database is stored on the heap.
+     */
+    @Override
+    protected long getStorageSize() {
+        if (getStorage() == Storage.HEAP) {
+            return -1;
+        }
+        final Set<String> names = new HashSet<String>(getOthers());
+        names.add(getDatabaseName());
+        long size = 0;
+        for (final String path : FileUtils.newDirectoryStream(getStoragePrefix())) {
+            final String fileName = FileUtils.getName(path);
+            final int dot = fileName.indexOf('.');
+            if (dot > 0 && names.contains(fileName.substring(0, dot))) {
+                size += FileUtils.size(path);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the names of the copies and clones served alongside the database.
+     *
+     * @return The names.
+     */
+    private List<String> getOthers() {
+        final List<String> others = getClones();
+        for (int i = 1; i <= getCopies(); i++) {
+            others.add(getCopyName(i));
+        }
+        return others;
     }
 
     /**
@@ -88,13 +385,229 @@ public final class H2Database extends AbstractSQLDatabase {
     public DataSource getDataSource() {
         final Map<String, String> attributes = new HashMap<String, String>();
         attributes.put("DB_CLOSE_DELAY", "-1");
+        return createDataSource(getUrl(attributes));
+    }
+
+    /**
+     * Get the data source used by the loaders which connects to the in-memory H2 database from within the JVM
+     * that is hosting the TCP server.
+     *
+     * @return The data source.
+     */
+    @Override
+    public DataSource getLoaderDataSource() {
+        final Map<String, String> attributes = new HashMap<String, String>(getLoadAttributes());
+        attributes.put("DB_CLOSE_DELAY", "-1");
+        return createDataSource(getEmbeddedUrl(attributes));
+    }
+
+    /**
+     * Create a data source for the in-memory H2 database.
+     *
+     * @param url The JDBC URL.
+     * @return The data source.
+     */
+    private DataSource createDataSource(final String url) {
         final JdbcDataSource dataSource = new JdbcDataSource();
-        dataSource.setURL(getUrl(attributes));
+        dataSource.setURL(url);
         dataSource.setUser(getUsername());
         dataSource.setPassword(getPassword());
         return dataSource;
     }
 
+    /**
+     * Write a compressed snapshot of the database using the {@code SCRIPT TO} command.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that will contain the script.
+     * @return {@code true} if the snapshot was written. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean snapshot(final Logger logger, final File directory) {
+        final File script = new File(directory, SNAPSHOT_FILE);
+        try {
+            executeStatement("SCRIPT TO " + quote(script.getAbsolutePath()) + " COMPRESSION DEFLATE");
+            return true;
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_CREATING_SNAPSHOT, getDatabaseName());
+            logger.logError(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Restore a snapshot by dropping all objects and running the compressed script using the {@code RUNSCRIPT}
+     * command.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that contains the script.
+     * @return {@code true} if the snapshot was restored. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean restore(final Logger logger, final File directory) {
+        final File script = new File(directory, SNAPSHOT_FILE);
+        if (!script.isFile()) {
+            return false;
+        }
+        try {
+            executeStatement("DROP ALL OBJECTS");
+            executeStatement("RUNSCRIPT FROM " + quote(script.getAbsolutePath()) + " COMPRESSION DEFLATE");
+            return true;
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_RESTORING_SNAPSHOT, getDatabaseName());
+            logger.logError(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Create a copy of the database by dropping all the objects from the in-memory database with the name of the
+     * copy and running the compressed script against it using the {@code RUNSCRIPT} command. The copy is served by the
+     * same TCP server.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that contains the script.
+     * @param name      The name of the copy.
+     * @return {@code true} if the copy was created. Otherwise, {@code false}.
+     */
+    @Override
+    protected boolean copy(final Logger logger, final File directory, final String name) {
+        final File script = new File(directory, SNAPSHOT_FILE);
+        final Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("DB_CLOSE_DELAY", "-1");
+        try {
+            final Connection connection = createDataSource(getEmbeddedUrl(name, attributes)).getConnection();
+            try {
+                final Statement statement = connection.createStatement();
+                try {
+                    statement.execute("DROP ALL OBJECTS");
+                    statement.execute("RUNSCRIPT FROM " + quote(script.getAbsolutePath()) + " COMPRESSION DEFLATE");
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                connection.close();
+            }
+            return true;
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_CREATING_COPY, name);
+            logger.logError(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Get the statement that creates the trigger which records that a table has been modified. H2 does not allow
+     * statement level triggers to modify the database so a row level trigger is used.
+     *
+     * @param schema The schema name.
+     * @param table  The table name.
+     * @param index  A number that is unique to the table.
+     * @return The statement.
+     */
+    @Override
+    protected List<String> getTrackingTriggers(final String schema, final String table, final int index) {
+        return Collections.singletonList("CREATE TRIGGER \"" + schema + "\".\"INMEMDB_TRACK_" + index
+                + "\" AFTER INSERT, UPDATE, DELETE ON " + qualify(schema, table) + " FOR EACH ROW CALL \""
+                + DirtyTableTrigger.class.getName() + "\"");
+    }
+
+    /**
+     * Get the statement that enables or disables referential integrity checks.
+     *
+     * @param enabled {@code true} if referential integrity checks are being enabled.
+     * @return The {@code SET REFERENTIAL_INTEGRITY} statement.
+     */
+    @Override
+    protected String getReferentialIntegrityStatement(final boolean enabled) {
+        return "SET REFERENTIAL_INTEGRITY " + (enabled ? "TRUE" : "FALSE");
+    }
+
+    /**
+     * Get the connection attributes that tune H2 for a performance profile:
+     * <ul>
+     * <li>{@code bulkLoad} has no attributes that apply to the clients, see {@link #getLoadAttributes(Profile)}.</li>
+     * <li>{@code throughput} disables the transaction log, enlarges the query cache and waits longer for locks.</li>
+     * <li>{@code lowMemory} shrinks the cache and buffers large results and operations on disk.</li>
+     * <li>{@code strict} uses serializable isolation.</li>
+     * </ul>
+     *
+     * @param profile The performance profile.
+     * @return The connection attributes.
+     */
+    @Override
+    protected Map<String, String> getProfileAttributes(final Profile profile) {
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        switch (profile) {
+            case THROUGHPUT:
+                attributes.put("LOG", "0");
+                attributes.put("QUERY_CACHE_SIZE", "64");
+                attributes.put("LOCK_TIMEOUT", "10000");
+                break;
+            case LOW_MEMORY:
+                attributes.put("CACHE_SIZE", "1024");
+                attributes.put("MAX_MEMORY_ROWS", "1000");
+                attributes.put("MAX_OPERATION_MEMORY", "10000");
+                break;
+            case STRICT:
+                attributes.put("LOCK_MODE", "1");
+                break;
+            default:
+                break;
+        }
+        return attributes;
+    }
+
+    /**
+     * Get the connection attributes that tune H2 for a performance profile while it is being loaded. The
+     * {@code bulkLoad} profile disables the transaction log, the undo log and locking. Transactions cannot be rolled
+     * back and concurrent connections are not isolated from each other, so the settings are restored once the
+     * database has been loaded.
+     *
+     * @param profile The performance profile.
+     * @return The connection attributes.
+     */
+    @Override
+    protected Map<String, String> getLoadAttributes(final Profile profile) {
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        if (profile == Profile.BULK_LOAD) {
+            attributes.put("LOG", "0");
+            attributes.put("UNDO_LOG", "0");
+            attributes.put("LOCK_MODE", "0");
+        }
+        return attributes;
+    }
+
+    /**
+     * Restore the transaction log, undo log and locking settings changed while the database was loaded to the values
+     * configured by the user or otherwise to the defaults of H2. The settings of H2 apply to the whole database
+     * except for the undo log, which is restored for completeness.
+     *
+     * @param connection The connection to the database.
+     * @param names      The names of the load attributes.
+     * @throws SQLException If a setting could not be restored.
+     */
+    @Override
+    protected void restoreLoadSettings(final Connection connection, final Set<String> names) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            for (final String name : names) {
+                String value = getAttributes().get(name);
+                if (value == null) {
+                    value = getProfileAttributes().get(name);
+                }
+                if (value == null) {
+                    value = DEFAULT_SETTINGS.get(name);
+                }
+                if (value != null) {
+                    statement.execute("SET " + name + " " + value);
+                }
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
     /**
      * Get the loaders that are supported for loading data or executing scripts.
      *
@@ -115,6 +628,37 @@ public final class H2Database extends AbstractSQLDatabase {
 
         logger.logInfo("Starting embedded H2 database");
 
+        signalStarting();
+
+        applyProfile(logger);
+
+        if (getStorage() == Storage.DISK && !prepareDatabaseDirectory(logger)) {
+            signalFailed();
+            return;
+        }
+
+        if (isEmbedded()) {
+            try {
+                final Connection connection = getDataSource().getConnection();
+                connection.close();
+            } catch (final SQLException exception) {
+                final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
+                logger.logError(message, exception);
+                signalFailed();
+                return;
+            }
+            embeddedStarted = true;
+            startSessionSampler();
+            signalReady(logger);
+            logger.logInfo("Embedded H2 database has started");
+            return;
+        }
+
+        if (getMaxConnections() > 0 || getServerThreads() > 0) {
+            logger.logInfo("Ignoring maxConnections and serverThreads for database " + getDatabaseName()
+                    + " because the H2 TCP server handles each connection in its own thread without a limit");
+        }
+
         try {
             service = new TcpServer();
             service.init("-tcpDaemon", "-tcpPort", Integer.toString(getPort()));
@@ -122,6 +666,7 @@ public final class H2Database extends AbstractSQLDatabase {
         } catch (final SQLException exception) {
             final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
             logger.logError(message, exception);
+            signalFailed();
             return;
         }
 
@@ -134,12 +679,24 @@ public final class H2Database extends AbstractSQLDatabase {
         serviceListenerThread.setDaemon(true);
         serviceListenerThread.start();
 
+        if (!waitForPort(getPort(), PROBE_RETRIES, PROBE_INITIAL_DELAY)) {
+            logger.logError(MessageUtil.getMessage(SERVER_NOT_READY, getDatabaseName()));
+            signalFailed();
+            return;
+        }
+
+        startSessionSampler();
+
+        signalReady(logger);
+
         logger.logInfo("Embedded H2 database has started");
     }
 
     /**
-     * Shutdown the in-memory H2 database by opening a connection and issuing
-     * the SHUTDOWN command.
+     * Shutdown the in-memory H2 database, its copies and clones by opening in-process connections and issuing
+     * the SHUTDOWN command and then stop the TCP server. The files of databases stored outside the heap are deleted
+     * from the in-memory file system or the database directory. The peak number of concurrent sessions is reported
+     * before the database is shut down.
      *
      * @param logger Used to report errors and raise exceptions.
      */
@@ -147,20 +704,82 @@ public final class H2Database extends AbstractSQLDatabase {
 
         logger.logInfo("Stopping embedded H2 database");
 
+        signalStopping();
+
+        stopSessionSampler(logger);
+
+        if (embeddedStarted || service != null) {
+            try {
+                final Connection connection = getLoaderDataSource().getConnection();
+                try {
+                    final Statement statement = connection.createStatement();
+                    statement.execute("SHUTDOWN");
+                } finally {
+                    connection.close();
+                }
+            } catch (final SQLException exception) {
+                final String message = MessageUtil.getMessage(ERROR_STOPPING_SERVER, getDatabaseName());
+                logger.logError(message, exception);
+                return;
+            }
+            final Map<String, String> attributes = new HashMap<String, String>();
+            attributes.put("IFEXISTS", "TRUE");
+            final List<String> others = getOthers();
+            for (final String other : others) {
+                try {
+                    final Connection connection = createDataSource(getEmbeddedUrl(other, attributes)).getConnection();
+                    try {
+                        final Statement statement = connection.createStatement();
+                        statement.execute("SHUTDOWN");
+                    } finally {
+                        connection.close();
+                    }
+                } catch (final SQLException exception) {
+                    // The copy or clone was never created
+                }
+            }
+            if (getStorage() == Storage.DISK) {
+                deleteDatabaseDirectory(logger);
+            } else if (getStorage() != Storage.HEAP) {
+                DeleteDbFiles.execute(getStoragePrefix(), getDatabaseName(), true);
+                for (final String other : others) {
+                    DeleteDbFiles.execute(getStoragePrefix(), other, true);
+                }
+            }
+            embeddedStarted = false;
+        }
+
         if (service != null) {
             service.stop();
         }
 
+        releaseBaseline(logger);
+
         logger.logInfo("Stopped embedded H2 database");
     }
 
+    /**
+     * Determine whether the database has started by waiting for it to signal that it is ready.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the database has started. Otherwise, {@code false}.
+     */
     @Override
     public boolean isStarted(final Logger logger) {
+        if (!awaitReady()) {
+            return false;
+        }
+        if (isEmbedded()) {
+            return embeddedStarted;
+        }
         return service != null && service.isRunning(true);
     }
 
     @Override
     public boolean isStopped(final Logger logger) {
+        if (isEmbedded()) {
+            return !embeddedStarted;
+        }
         return !service.isRunning(false);
     }
 }
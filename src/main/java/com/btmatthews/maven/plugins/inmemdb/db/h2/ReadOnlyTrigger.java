@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.db.h2;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A statement level trigger that rejects any statement that modifies a table of a database that has been made
+ * read-only. H2 cannot switch an in-memory database to read-only mode once it has been opened.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class ReadOnlyTrigger implements Trigger {
+
+    /**
+     * The SQL state for an attempt to modify data in a read-only transaction.
+     */
+    private static final String READ_ONLY_SQL_STATE = "25006";
+    /**
+     * The schema name of the table.
+     */
+    private String schemaName;
+    /**
+     * The table name.
+     */
+    private String tableName;
+
+    /**
+     * Initialise the trigger with the name of the table it is attached to.
+     *
+     * @param connection  The connection to the database.
+     * @param schemaName  The schema name of the table.
+     * @param triggerName The trigger name.
+     * @param tableName   The table name.
+     * @param before      Indicates whether the trigger fires before the statement.
+     * @param type        The events that fire the trigger.
+     */
+    @Override
+    public void init(final Connection connection, final String schemaName, final String triggerName,
+                     final String tableName, final boolean before, final int type) {
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Reject the statement that is modifying the table.
+     *
+     * @param connection The connection to the database.
+     * @param oldRow     Ignored.
+     * @param newRow     Ignored.
+     * @throws SQLException Always.
+     */
+    @Override
+    public void fire(final Connection connection, final Object[] oldRow, final Object[] newRow) throws SQLException {
+        throw new SQLException("Table " + schemaName + "." + tableName + " is read-only", READ_ONLY_SQL_STATE);
+    }
+
+    /**
+     * Called when the database is closed.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Called when the trigger is dropped.
+     */
+    @Override
+    public void remove() {
+    }
+}
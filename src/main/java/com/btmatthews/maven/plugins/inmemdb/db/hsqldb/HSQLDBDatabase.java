@@ -16,17 +16,41 @@
 
 package com.btmatthews.maven.plugins.inmemdb.db.hsqldb;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.hsqldb.DatabaseURL;
 import org.hsqldb.jdbc.JDBCDataSource;
+import org.hsqldb.lib.StringConverter;
+import org.hsqldb.persist.HsqlProperties;
 import org.hsqldb.server.Server;
+import org.hsqldb.server.ServerAcl;
 import org.hsqldb.server.ServerConstants;
 
 import com.btmatthews.maven.plugins.inmemdb.Loader;
+import com.btmatthews.maven.plugins.inmemdb.MessageUtil;
 import com.btmatthews.maven.plugins.inmemdb.db.AbstractSQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.db.Concurrency;
+import com.btmatthews.maven.plugins.inmemdb.db.Profile;
+import com.btmatthews.maven.plugins.inmemdb.db.Storage;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitCSVLoader;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitFlatXMLLoader;
 import com.btmatthews.maven.plugins.inmemdb.ldr.dbunit.DBUnitXLSLoader;
@@ -46,12 +70,59 @@ public final class HSQLDBDatabase extends AbstractSQLDatabase {
      * The connection protocol for in-memory HSQLDB databases.
      */
     private static final String PROTOCOL = "hsqldb:hsql://localhost:{0,number,#}/";
+    /**
+     * The connection protocol for in-process connections to HSQLDB databases.
+     */
+    private static final String EMBEDDED_PROTOCOL = "hsqldb:";
     /**
      * Default port HSQLDB listens on, can be altered via setting port property
      */
     private static final int DEFAULT_PORT = ServerConstants.SC_DEFAULT_HSQL_SERVER_PORT;
+    /**
+     * The number of times to probe the server socket before giving up.
+     */
     private static final int PING_RETRIES = 10;
+    /**
+     * The delay in milliseconds before the first retry when probing the server socket.
+     */
     private static final int PING_DELAY = 100;
+    /**
+     * The name of the file that contains a snapshot of the database.
+     */
+    private static final String SNAPSHOT_FILE = "snapshot.script";
+    /**
+     * The statement that switches the current schema in a script written by the {@code SCRIPT} command.
+     */
+    private static final String SET_SCHEMA = "SET SCHEMA ";
+    /**
+     * The query that lists the user schemas.
+     */
+    private static final String SELECT_USER_SCHEMAS = "SELECT SCHEMA_NAME FROM INFORMATION_SCHEMA.SCHEMATA "
+            + "WHERE SCHEMA_NAME NOT IN ('INFORMATION_SCHEMA', 'SYSTEM_LOBS')";
+    /**
+     * The schema containing the system LOB tables.
+     */
+    private static final String SYSTEM_LOBS_SCHEMA = "SYSTEM_LOBS";
+    /**
+     * The prefixes of statements in a script written by the {@code SCRIPT} command that recreate objects which
+     * already exist in a newly created database. The {@code {0}} place holder is replaced with the user name.
+     */
+    private static final String[] PREAMBLE_PREFIXES = {
+            "SET DATABASE UNIQUE NAME ", "CREATE USER {0} ", "ALTER USER {0} ", "CREATE SCHEMA PUBLIC ",
+            "GRANT DBA TO {0}"};
+    /**
+     * The events that are tracked by the change tracking triggers.
+     */
+    private static final String[] TRACKED_EVENTS = {"INSERT", "UPDATE", "DELETE"};
+    /**
+     * The connection attribute that identifies the database to be opened by the server when it is not one of the
+     * databases the server was started with.
+     */
+    private static final String FILEPATH = "filepath";
+    /**
+     * The server property that allows clients to open databases on demand. It is only set if clones can be created.
+     */
+    private static final String REMOTE_OPEN = "server.remote_open";
     /**
      * The loaders that are supported for loading data or executing scripts.
      */
@@ -62,6 +133,10 @@ public final class HSQLDBDatabase extends AbstractSQLDatabase {
      * The HSQLDB server.
      */
     private Server server;
+    /**
+     * Indicates whether the database has been created when running in embedded mode.
+     */
+    private boolean embeddedStarted;
 
     /**
      * The default constructor initializes the default database port.
@@ -80,6 +155,154 @@ public final class HSQLDBDatabase extends AbstractSQLDatabase {
         return MessageFormat.format(PROTOCOL, getPort());
     }
 
+    /**
+     * Get the database connection protocol used for in-process connections.
+     *
+     * @return {@link HSQLDBDatabase#EMBEDDED_PROTOCOL} followed by the storage prefix.
+     */
+    @Override
+    protected String getEmbeddedUrlProtocol() {
+        return EMBEDDED_PROTOCOL + getStoragePrefix();
+    }
+
+    /**
+     * Make the database read-only by marking the data of every table as read-only.
+     *
+     * @param connection A connection to the database.
+     * @return Always {@code true}.
+     * @throws SQLException If there was an error marking the tables as read-only.
+     */
+    @Override
+    protected boolean setReadOnly(final Connection connection) throws SQLException {
+        final Statement statement = connection.createStatement();
+        try {
+            for (final String[] name : getTableNames(connection)) {
+                statement.execute("SET TABLE " + qualify(name[0], name[1]) + " READ ONLY");
+            }
+        } finally {
+            statement.close();
+        }
+        return true;
+    }
+
+    /**
+     * Get the statistics of the row cache used by cached tables from the {@code INFORMATION_SCHEMA.SYSTEM_CACHEINFO}
+     * table. There are none if all the tables are memory tables.
+     *
+     * @param connection The connection to the database.
+     * @return The statistics keyed by name.
+     * @throws SQLException If there was an error querying the statistics.
+     */
+    @Override
+    protected Map<String, String> getMemoryStatistics(final Connection connection) throws SQLException {
+        final Map<String, String> statistics = new LinkedHashMap<String, String>();
+        final Statement statement = connection.createStatement();
+        try {
+            final ResultSet resultSet = statement.executeQuery("SELECT * FROM INFORMATION_SCHEMA.SYSTEM_CACHEINFO");
+            final ResultSetMetaData metaData = resultSet.getMetaData();
+            while (resultSet.next()) {
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    statistics.put(metaData.getColumnName(i), resultSet.getString(i));
+                }
+            }
+        } finally {
+            statement.close();
+        }
+        return statistics;
+    }
+
+    /**
+     * Count the sessions connected to the database using the {@code INFORMATION_SCHEMA.SYSTEM_SESSIONS} table.
+     *
+     * @return The number of sessions.
+     * @throws SQLException If there was an error querying the sessions.
+     */
+    @Override
+    protected int countSessions() throws SQLException {
+        return countSessions("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_SESSIONS");
+    }
+
+    /**
+     * Get the sessions waiting for locks using the {@code INFORMATION_SCHEMA.SYSTEM_SESSIONS} table which lists the
+     * sessions waiting for each session that holds a lock.
+     *
+     * @return The identifiers of the waiting sessions mapped to the identifiers of the sessions holding the locks.
+     * @throws SQLException If there was an error querying the sessions.
+     */
+    @Override
+    protected Map<String, Set<String>> getLockWaits() throws SQLException {
+        return getLockWaits("SELECT WAITING_FOR_THIS, SESSION_ID FROM INFORMATION_SCHEMA.SYSTEM_SESSIONS"
+                + " WHERE WAITING_FOR_THIS <> ''");
+    }
+
+    /**
+     * Get the prefix of the database path that selects the storage backend.
+     *
+     * @return {@code mem:} or {@code file:} followed by the path of the database directory.
+     */
+    private String getStoragePrefix() {
+        if (getStorage() == Storage.DISK) {
+            return DatabaseURL.S_FILE + getDatabaseDirectory().getAbsolutePath().replace('\\', '/') + "/";
+        }
+        return DatabaseURL.S_MEM;
+    }
+
+    /**
+     * HSQLDB can store the database on the heap or in cached tables backed by files.
+     *
+     * @param storage The storage backend.
+     * @return {@code true} for {@link Storage#HEAP} and {@link Storage#DISK}.
+     */
+    @Override
+    protected boolean isStorageSupported(final Storage storage) {
+        return storage == Storage.HEAP || storage == Storage.DISK;
+    }
+
+    /**
+     * HSQLDB supports all the transaction models.
+     *
+     * @param concurrency The transaction model.
+     * @return Always {@code true}.
+     */
+    @Override
+    protected boolean isConcurrencySupported(final Concurrency concurrency) {
+        return true;
+    }
+
+    /**
+     * Get the connection attribute that selects the transaction control mode.
+     *
+     * @param concurrency The transaction model.
+     * @return The {@code hsqldb.tx} attribute.
+     */
+    @Override
+    protected Map<String, String> getConcurrencyAttributes(final Concurrency concurrency) {
+        final Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("hsqldb.tx", concurrency.getConcurrencyName());
+        return attributes;
+    }
+
+    /**
+     * Get the connection attributes needed by the configured storage backend. Databases stored in files create
+     * cached tables by default so that only the configured cache size is held on the heap, use memory mapped data
+     * files and do not log changes because the files are discarded when the database is stopped.
+     *
+     * @return The connection attributes.
+     */
+    @Override
+    protected Map<String, String> getStorageAttributes() {
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        if (getStorage() == Storage.DISK) {
+            attributes.put("hsqldb.default_table_type", "cached");
+            attributes.put("hsqldb.nio_data_file", "true");
+            attributes.put("hsqldb.log_data", "false");
+            if (getCacheSize() > 0) {
+                attributes.put("hsqldb.cache_size", Integer.toString(getCacheSize() * 1024));
+            }
+        }
+        return attributes;
+    }
+
     /**
      * Get the data source that describes the connection to the in-memory HSQLDB
      * database.
@@ -89,13 +312,306 @@ public final class HSQLDBDatabase extends AbstractSQLDatabase {
      */
     @Override
     public DataSource getDataSource() {
+        return createDataSource(getUrl());
+    }
+
+    /**
+     * Get the data source used by the loaders which connects to the in-memory HSQLDB database from within the JVM
+     * that is hosting the server.
+     *
+     * @return The data source.
+     */
+    @Override
+    public DataSource getLoaderDataSource() {
+        return createDataSource(getEmbeddedUrl());
+    }
+
+    /**
+     * Create a data source for the in-memory HSQLDB database.
+     *
+     * @param url The JDBC URL.
+     * @return The data source.
+     */
+    private DataSource createDataSource(final String url) {
         final JDBCDataSource dataSource = new JDBCDataSource();
-        dataSource.setUrl(getUrl());
+        dataSource.setUrl(url);
         dataSource.setUser(getUsername());
         dataSource.setPassword(getPassword());
         return dataSource;
     }
 
+    /**
+     * Write a snapshot of the database using the {@code SCRIPT} command.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that will contain the script.
+     * @return {@code true} if the snapshot was written. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean snapshot(final Logger logger, final File directory) {
+        final File script = new File(directory, SNAPSHOT_FILE);
+        try {
+            executeStatement("SCRIPT " + quote(script.getAbsolutePath()));
+            return true;
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_CREATING_SNAPSHOT, getDatabaseName());
+            logger.logError(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Restore a snapshot by dropping the user schemas and then executing the statements from a script written by the
+     * {@code SCRIPT} command. The statements that recreate the default user, schema and the system LOB tables are
+     * skipped because those objects already exist in the database.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that contains the script.
+     * @return {@code true} if the snapshot was restored. Otherwise, {@code false}.
+     */
+    @Override
+    public boolean restore(final Logger logger, final File directory) {
+        final File script = new File(directory, SNAPSHOT_FILE);
+        if (!script.isFile()) {
+            return false;
+        }
+        try {
+            runScript(script, getLoaderDataSource());
+            return true;
+        } catch (final IOException exception) {
+            final String message = MessageUtil.getMessage(ERROR_RESTORING_SNAPSHOT, getDatabaseName());
+            logger.logError(message, exception);
+            return false;
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_RESTORING_SNAPSHOT, getDatabaseName());
+            logger.logError(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Get the JDBC URL that clients use to connect to a clone of the database. Clones are created after the server
+     * has started so the URL includes the {@code filepath} connection attribute that tells the server to open the
+     * in-memory database on demand.
+     *
+     * @param name The name of the clone.
+     * @return The JDBC URL.
+     */
+    @Override
+    public String getCloneUrl(final String name) {
+        final Map<String, String> attributes = new HashMap<String, String>();
+        if (!isEmbedded()) {
+            attributes.put(FILEPATH, getStoragePrefix() + name);
+        }
+        return getOtherUrl(name, attributes);
+    }
+
+    /**
+     * Create a copy of the database by executing the statements from the script against a new in-memory database.
+     * The copy is served by the same server because it was registered when the server was started.
+     *
+     * @param logger    Used to report errors and raise exceptions.
+     * @param directory The directory that contains the script.
+     * @param name      The name of the copy.
+     * @return {@code true} if the copy was created. Otherwise, {@code false}.
+     */
+    @Override
+    protected boolean copy(final Logger logger, final File directory, final String name) {
+        final File script = new File(directory, SNAPSHOT_FILE);
+        try {
+            runScript(script, createDataSource(getEmbeddedUrl(name, new HashMap<String, String>())));
+            return true;
+        } catch (final IOException exception) {
+            final String message = MessageUtil.getMessage(ERROR_CREATING_COPY, name);
+            logger.logError(message, exception);
+            return false;
+        } catch (final SQLException exception) {
+            final String message = MessageUtil.getMessage(ERROR_CREATING_COPY, name);
+            logger.logError(message, exception);
+            return false;
+        }
+    }
+
+    /**
+     * Drop the user schemas and then execute the statements from a script written by the {@code SCRIPT} command.
+     * The statements that recreate the default user, schema and the system LOB tables are skipped because those
+     * objects already exist in the database.
+     *
+     * @param script     The script.
+     * @param dataSource Used to connect to the database in which the statements are executed.
+     * @throws IOException  If there was an error reading the script.
+     * @throws SQLException If there was an error executing the statements.
+     */
+    private void runScript(final File script, final DataSource dataSource) throws IOException, SQLException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(script), "ISO-8859-1"));
+        try {
+            final Connection connection = dataSource.getConnection();
+            try {
+                final Statement statement = connection.createStatement();
+                dropSchemas(statement);
+                boolean systemSchema = false;
+                String line = reader.readLine();
+                while (line != null) {
+                    if (line.startsWith(SET_SCHEMA)) {
+                        systemSchema = line.startsWith(SET_SCHEMA + SYSTEM_LOBS_SCHEMA);
+                    }
+                    if (!systemSchema && !isPreamble(line)) {
+                        statement.execute(StringConverter.unicodeStringToString(line));
+                    }
+                    line = reader.readLine();
+                }
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Drop all the user schemas and the objects they contain. Dropping the {@code PUBLIC} schema leaves an empty
+     * {@code PUBLIC} schema in its place.
+     *
+     * @param statement Used to query and drop the schemas.
+     * @throws SQLException If there was an error dropping the schemas.
+     */
+    private static void dropSchemas(final Statement statement) throws SQLException {
+        final List<String> schemas = new ArrayList<String>();
+        final ResultSet resultSet = statement.executeQuery(SELECT_USER_SCHEMAS);
+        try {
+            while (resultSet.next()) {
+                schemas.add(resultSet.getString(1));
+            }
+        } finally {
+            resultSet.close();
+        }
+        for (final String schema : schemas) {
+            statement.execute("DROP SCHEMA \"" + schema + "\" CASCADE");
+        }
+    }
+
+    /**
+     * Determine whether a statement from a script written by the {@code SCRIPT} command recreates an object that
+     * already exists in a newly created database.
+     *
+     * @param line The statement.
+     * @return {@code true} if the statement should be skipped. Otherwise, {@code false}.
+     */
+    private boolean isPreamble(final String line) {
+        final String username = getUsername().toUpperCase(Locale.ENGLISH);
+        for (final String prefix : PREAMBLE_PREFIXES) {
+            if (line.startsWith(prefix.replace("{0}", username))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the statements that create the triggers which record that a table has been modified. HSQLDB triggers
+     * handle a single event so a trigger is created for each of {@code INSERT}, {@code UPDATE} and {@code DELETE}.
+     *
+     * @param schema The schema name.
+     * @param table  The table name.
+     * @param index  A number that is unique to the table.
+     * @return The statements.
+     */
+    @Override
+    protected List<String> getTrackingTriggers(final String schema, final String table, final int index) {
+        final List<String> statements = new ArrayList<String>(TRACKED_EVENTS.length);
+        for (final String event : TRACKED_EVENTS) {
+            statements.add("CREATE TRIGGER \"" + schema + "\".\"INMEMDB_TRACK_" + index + "_" + event + "\" AFTER "
+                    + event + " ON " + qualify(schema, table) + " FOR EACH STATEMENT MERGE INTO " + DIRTY_TABLE
+                    + " D USING (VALUES(" + quote(schema) + ", " + quote(table) + ")) AS V(S, T)"
+                    + " ON D.TABLE_SCHEMA = V.S AND D.TABLE_NAME = V.T WHEN NOT MATCHED THEN INSERT VALUES V.S, V.T");
+        }
+        return statements;
+    }
+
+    /**
+     * Get the statement that enables or disables referential integrity checks.
+     *
+     * @param enabled {@code true} if referential integrity checks are being enabled.
+     * @return The {@code SET DATABASE REFERENTIAL INTEGRITY} statement.
+     */
+    @Override
+    protected String getReferentialIntegrityStatement(final boolean enabled) {
+        return "SET DATABASE REFERENTIAL INTEGRITY " + (enabled ? "TRUE" : "FALSE");
+    }
+
+    /**
+     * Get the statement that removes all the rows from a table and restarts its identity column so that the identity
+     * values generated after a reset match those generated after the baseline was saved.
+     *
+     * @param qualifiedName The qualified table name.
+     * @return The {@code TRUNCATE TABLE} statement.
+     */
+    @Override
+    protected String getTruncateStatement(final String qualifiedName) {
+        return "TRUNCATE TABLE " + qualifiedName + " RESTART IDENTITY AND COMMIT NO CHECK";
+    }
+
+    /**
+     * Get the connection attributes that tune HSQLDB for a performance profile. They are also appended to the paths of
+     * the databases served by the network server because HSQLDB only applies them when a database is created:
+     * <ul>
+     * <li>{@code bulkLoad} and {@code lowMemory} use the two-phase locking transaction model which does not keep
+     * multiple versions of modified rows.</li>
+     * <li>{@code throughput} uses the multi-version transaction model so that readers are not blocked by writers.</li>
+     * <li>{@code strict} uses serializable isolation and enforces strict name, type and column reference checks.</li>
+     * </ul>
+     *
+     * @param profile The performance profile.
+     * @return The connection attributes.
+     */
+    @Override
+    protected Map<String, String> getProfileAttributes(final Profile profile) {
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        switch (profile) {
+            case BULK_LOAD:
+            case LOW_MEMORY:
+                attributes.put("hsqldb.tx", "locks");
+                break;
+            case THROUGHPUT:
+                attributes.put("hsqldb.tx", "mvcc");
+                attributes.put("hsqldb.tx_level", "read_committed");
+                break;
+            case STRICT:
+                attributes.put("hsqldb.tx", "mvcc");
+                attributes.put("hsqldb.tx_level", "serializable");
+                attributes.put("sql.enforce_names", "true");
+                attributes.put("sql.enforce_types", "true");
+                attributes.put("sql.enforce_refs", "true");
+                break;
+            default:
+                break;
+        }
+        return attributes;
+    }
+
+    /**
+     * Get the path of a database served by the network server including the connection attributes for the configured
+     * storage backend and performance profile.
+     *
+     * @param name The database name.
+     * @return The database path.
+     */
+    private String getDatabasePath(final String name) {
+        final StringBuilder path = new StringBuilder(getStoragePrefix());
+        path.append(name);
+        final Map<String, String> attributes = new LinkedHashMap<String, String>(getStorageAttributes());
+        attributes.putAll(getProfileAttributes());
+        attributes.putAll(getConcurrencyAttributes());
+        for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+            path.append(';');
+            path.append(entry.getKey());
+            path.append('=');
+            path.append(entry.getValue());
+        }
+        return path.toString();
+    }
+
     /**
      * Get the loaders that are supported for loading data or executing scripts.
      *
@@ -116,9 +632,44 @@ public final class HSQLDBDatabase extends AbstractSQLDatabase {
 
         logger.logInfo("Starting embedded HSQLDB database");
 
+        signalStarting();
+
+        applyProfile(logger);
+
+        if (getStorage() == Storage.DISK && !prepareDatabaseDirectory(logger)) {
+            signalFailed();
+            return;
+        }
+
+        if (isEmbedded()) {
+            try {
+                final Connection connection = getDataSource().getConnection();
+                connection.close();
+            } catch (final SQLException exception) {
+                final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
+                logger.logError(message, exception);
+                signalFailed();
+                return;
+            }
+            embeddedStarted = true;
+            startSessionSampler();
+            signalReady(logger);
+            logger.logInfo("Started embedded HSQLDB database");
+            return;
+        }
+
+        if (getMaxConnections() > 0 || getServerThreads() > 0) {
+            logger.logInfo("Ignoring maxConnections and serverThreads for database " + getDatabaseName()
+                    + " because the HSQLDB server handles each connection in its own thread without a limit");
+        }
+
         server = new Server();
-        server.setDatabasePath(0, DatabaseURL.S_MEM + getDatabaseName());
+        server.setDatabasePath(0, getDatabasePath(getDatabaseName()));
         server.setDatabaseName(0, getDatabaseName());
+        for (int i = 1; i <= getCopies(); i++) {
+            server.setDatabasePath(i, getDatabasePath(getCopyName(i)));
+            server.setDatabaseName(i, getCopyName(i));
+        }
         server.setDaemon(true);
         server.setAddress(ServerConstants.SC_DEFAULT_ADDRESS);
         server.setPort(getPort());
@@ -129,13 +680,41 @@ public final class HSQLDBDatabase extends AbstractSQLDatabase {
         server.setSilent(true);
         server.setNoSystemExit(true);
         server.setRestartOnShutdown(false);
+        if (isCloneable()) {
+            final HsqlProperties properties = new HsqlProperties();
+            properties.setProperty(REMOTE_OPEN, true);
+            try {
+                server.setProperties(properties);
+            } catch (final IOException exception) {
+                final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
+                logger.logError(message, exception);
+                signalFailed();
+                return;
+            } catch (final ServerAcl.AclFormatException exception) {
+                final String message = MessageUtil.getMessage(ERROR_STARTING_SERVER, getDatabaseName());
+                logger.logError(message, exception);
+                signalFailed();
+                return;
+            }
+        }
         server.start();
 
+        if (!waitForPort(getPort(), PING_RETRIES, PING_DELAY)) {
+            logger.logError(MessageUtil.getMessage(SERVER_NOT_READY, getDatabaseName()));
+            signalFailed();
+            return;
+        }
+
+        startSessionSampler();
+
+        signalReady(logger);
+
         logger.logInfo("Started embedded HSQLDB database");
     }
 
     /**
-     * Shutdown the in-memory HSQLDB database by sending it a SHUTDOWN command.
+     * Shutdown the in-memory HSQLDB database by sending it a SHUTDOWN command using an in-process connection and then
+     * stop the server. The peak number of concurrent sessions is reported before the database is shut down.
      *
      * @param logger Used to report errors and raise exceptions.
      */
@@ -144,16 +723,68 @@ public final class HSQLDBDatabase extends AbstractSQLDatabase {
 
         logger.logInfo("Stopping embedded HSQLDB database");
 
+        signalStopping();
+
+        stopSessionSampler(logger);
+
+        if (embeddedStarted || server != null) {
+            try {
+                final Connection connection = getLoaderDataSource().getConnection();
+                try {
+                    final Statement statement = connection.createStatement();
+                    statement.execute("SHUTDOWN");
+                } finally {
+                    connection.close();
+                }
+            } catch (final SQLException exception) {
+                final String message = MessageUtil.getMessage(ERROR_STOPPING_SERVER, getDatabaseName());
+                logger.logError(message, exception);
+                return;
+            }
+            for (final String clone : getClones()) {
+                try {
+                    final Connection connection = createDataSource(getEmbeddedUrl(clone,
+                            new HashMap<String, String>())).getConnection();
+                    try {
+                        connection.createStatement().execute("SHUTDOWN");
+                    } finally {
+                        connection.close();
+                    }
+                } catch (final SQLException exception) {
+                    // The clone was already shut down
+                }
+            }
+            embeddedStarted = false;
+        }
+
         if (server != null) {
             server.stop();
             server.shutdown();
         }
 
+        if (getStorage() == Storage.DISK) {
+            deleteDatabaseDirectory(logger);
+        }
+
+        releaseBaseline(logger);
+
         logger.logInfo("Stopping embedded HSQLDB database");
     }
 
+    /**
+     * Determine whether the database has started by waiting for it to signal that it is ready.
+     *
+     * @param logger Used to report errors and raise exceptions.
+     * @return {@code true} if the database has started. Otherwise, {@code false}.
+     */
     @Override
     public boolean isStarted(final Logger logger) {
+        if (!awaitReady()) {
+            return false;
+        }
+        if (isEmbedded()) {
+            return embeddedStarted;
+        }
         if (server != null) {
             try {
                 server.checkRunning(true);
@@ -167,6 +798,9 @@ public final class HSQLDBDatabase extends AbstractSQLDatabase {
 
     @Override
     public boolean isStopped(final Logger logger) {
+        if (isEmbedded()) {
+            return !embeddedStarted;
+        }
         try {
             server.checkRunning(false);
             return true;
@@ -69,7 +69,7 @@ public abstract class AbstractDBUnitLoader extends AbstractLoader {
         try {
             final IDataSet dataSet = loadDataSet(source);
             final IDatabaseConnection connection = new DatabaseDataSourceConnection(
-                    ((SQLDatabase)database).getDataSource());
+                    ((SQLDatabase)database).getLoaderDataSource());
             final Boolean qualifiedTableNames = source.getQualifiedTableNames();
             if (qualifiedTableNames != null) {
                 final DatabaseConfig config = connection.getConfig();
@@ -71,7 +71,7 @@ public final class SQLLoader extends AbstractLoader {
                     null,
                     false,
                     null);
-            final DataSource dataSource = ((SQLDatabase)database).getDataSource();
+            final DataSource dataSource = ((SQLDatabase)database).getLoaderDataSource();
             final Connection connection = dataSource.getConnection();
             try {
                 sqlFile.setConnection(connection);
@@ -0,0 +1,1195 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import com.btmatthews.maven.plugins.inmemdb.Database;
+import com.btmatthews.maven.plugins.inmemdb.SQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.Source;
+import com.btmatthews.maven.plugins.inmemdb.cache.Fingerprint;
+import com.btmatthews.maven.plugins.inmemdb.cache.SnapshotCache;
+import com.btmatthews.maven.plugins.inmemdb.client.MonitorClient;
+import com.btmatthews.maven.plugins.inmemdb.daemon.DaemonConfiguration;
+import com.btmatthews.maven.plugins.inmemdb.daemon.DaemonLauncher;
+import com.btmatthews.maven.plugins.inmemdb.db.composite.CompositeDatabase;
+import com.btmatthews.utils.monitor.Logger;
+import com.btmatthews.utils.monitor.Server;
+import com.btmatthews.utils.monitor.ServerFactory;
+import com.btmatthews.utils.monitor.ServerFactoryLocator;
+import com.btmatthews.utils.monitor.mojo.AbstractRunMojo;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declares the parameters of the Mojos that start an In Memory Database and implements starting and loading it.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public abstract class AbstractDatabaseRunMojo extends AbstractRunMojo {
+
+    /**
+     * The value of {@link #port} that requests a free port to be allocated.
+     */
+    private static final String AUTO_PORT = "auto";
+
+    /**
+     * The place holder for the fork number that is substituted by the Surefire and Failsafe plug-ins.
+     */
+    private static final String FORK_NUMBER = "${surefire.forkNumber}";
+
+    /**
+     * Discards the messages logged while configuring the server used to derive the published properties so that
+     * they are not repeated in the build log.
+     */
+    private static final Logger NULL_LOGGER = new Logger() {
+        public void logInfo(final String message) {
+        }
+
+        public void logError(final String message) {
+        }
+
+        public void logError(final String message, final Throwable cause) {
+        }
+    };
+
+    /**
+     * The source files used to populate the database.
+     */
+    @Parameter
+    private List<? extends Source> sources;
+    /**
+     * Several databases that are started and loaded concurrently by this execution. When this is specified the
+     * {@link #type}, {@link #database}, {@link #port}, {@link #attributes} and {@link #sources} parameters are
+     * ignored.
+     *
+     * @since 2.0.0
+     */
+    @Parameter
+    private List<DatabaseDefinition> databases;
+    /**
+     * The maximum number of {@link #databases} that are started and loaded concurrently.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.threads", defaultValue = "4")
+    private int threads = 4;
+    /**
+     * The database type.
+     */
+    @Parameter(property = "inmemdb.type", defaultValue = "hsqldb")
+    private String type = "hsqldb";
+    /**
+     * The database name.
+     */
+    @Parameter(property = "inmemdb.database", defaultValue = ".")
+    private String database = ".";
+    /**
+     * The username for database connections.
+     */
+    @Parameter(property = "inmemdb.username", defaultValue = "sa")
+    private String username = "sa";
+    /**
+     * The password for database connections.
+     */
+    @Parameter(property = "inmemdb.password", defaultValue = "")
+    private String password = "";
+    /**
+     * The port for database connections. If {@code 0} or {@code auto} a free port is allocated so that concurrent
+     * builds on the same machine do not conflict.
+     */
+    @Parameter(property = "inmemdb.port")
+    private String port;
+
+    /**
+     * The name of the project property to which the port of the database server is published.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.portProperty", defaultValue = "inmemdb.jdbc.port")
+    private String portProperty = "inmemdb.jdbc.port";
+
+    /**
+     * The name of the project property to which the JDBC URL of the database is published.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.urlProperty", defaultValue = "inmemdb.jdbc.url")
+    private String urlProperty = "inmemdb.jdbc.url";
+
+    /**
+     * The number of identical copies of the database that are created after the sources have been loaded. The copies
+     * are named after the database with the suffixes {@code _1} to {@code _N} so that each test fork created by the
+     * Surefire or Failsafe plug-ins with {@code forkCount=N} can use its own copy.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.forkCopies", defaultValue = "0")
+    private int forkCopies;
+
+    /**
+     * The name of the project property to which the JDBC URL template of the {@link #forkCopies} is published. The
+     * template contains the {@code ${surefire.forkNumber}} place holder which is substituted by the Surefire and
+     * Failsafe plug-ins.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.forkUrlProperty", defaultValue = "inmemdb.jdbc.fork.url")
+    private String forkUrlProperty = "inmemdb.jdbc.fork.url";
+
+    /**
+     * If {@code true} clones of the loaded database can be created on demand, for example from the
+     * {@code @BeforeClass} method of a test, by sending a {@code configure clone=<template> <name>} command to the
+     * monitor using {@link com.btmatthews.maven.plugins.inmemdb.client.MonitorClient}.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.cloneable", defaultValue = "false")
+    private boolean cloneable;
+
+    /**
+     * If {@code true} the state of the database is saved once the sources have been loaded and the database can be
+     * returned to it, for example between test classes, by sending a {@code configure reset=<database>} command to the
+     * monitor using {@link com.btmatthews.maven.plugins.inmemdb.client.MonitorClient}. This is much faster than
+     * stopping and starting the database or running clean-up scripts.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.resettable", defaultValue = "false")
+    private boolean resettable;
+
+    /**
+     * If {@code true} triggers are installed on every table when the baseline of a {@link #resettable} database is
+     * saved so that a reset only reloads the tables that were modified since. Changes that do not fire triggers, such
+     * as {@code TRUNCATE} or schema changes, are not tracked. Databases that do not support change tracking are reset
+     * by restoring the whole baseline.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.trackChanges", defaultValue = "false")
+    private boolean trackChanges;
+
+    /**
+     * If {@code true} the optimizer statistics are refreshed after the sources have been loaded so that the first
+     * queries are not planned using the statistics of empty tables. H2 runs {@code ANALYZE} and Derby updates the
+     * statistics of every table. HSQLDB does not keep optimizer statistics.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.refreshStatistics", defaultValue = "false")
+    private boolean refreshStatistics;
+
+    /**
+     * If {@code true} the database and its copies are switched to read-only mode after the sources have been loaded
+     * so that suites which only read reference data do not pay for write locking and accidental writes fail fast.
+     * HSQLDB marks every table read-only, Derby makes new connections read-only and H2 rejects modifications using
+     * triggers. Clones remain writable and resetting a read-only database has no effect.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.readOnlyAfterLoad", defaultValue = "false")
+    private boolean readOnlyAfterLoad;
+
+    /**
+     * The name of the project property to which the JDBC URL template of the clones is published if the database is
+     * {@link #cloneable}. The template contains the {@code {name}} place holder for the name of the clone.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.cloneUrlProperty", defaultValue = "inmemdb.jdbc.clone.url")
+    private String cloneUrlProperty = "inmemdb.jdbc.clone.url";
+
+    /**
+     * The project properties to which the port and JDBC URL are published so that they can be passed on to the tests
+     * by later plug-ins such as failsafe.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(defaultValue = "${project.properties}", readonly = true)
+    private Properties projectProperties;
+
+    /**
+     * The port resolved from {@link #port}.
+     */
+    private Integer resolvedPort;
+
+    /**
+     * The member databases of the composite server created from {@link #databases}.
+     */
+    private List<CompositeDatabase.Member> members;
+
+    /**
+     * The database server shared by the reactor when this execution is responsible for starting it.
+     */
+    private volatile SharedServer sharedServer;
+
+    /**
+     * Additional attributes used to configure the database connection.
+     */
+    @Parameter(property = "inmemdb.attribute")
+    private Map<String, String> attributes;
+
+    /**
+     * The performance profile translated into tuning settings specific to the database type. One of
+     * {@code bulkLoad}, {@code throughput}, {@code lowMemory} or {@code strict}. The settings applied are logged when
+     * the database starts and can be overridden using {@link #attributes}.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.profile")
+    private String profile;
+
+    /**
+     * The storage backend used to hold the rows of the database. One of {@code heap}, {@code offHeap},
+     * {@code offHeapCompressed} or {@code disk}. The off-heap backends keep large datasets out of the garbage
+     * collected heap and are only supported by H2. The {@code disk} backend keeps the rows in files in
+     * {@link #spillDirectory} and only caches {@link #cacheSize} megabytes of them on the heap. It is supported by H2,
+     * HSQLDB and Derby.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.storage", defaultValue = "heap")
+    private String storage = "heap";
+
+    /**
+     * The directory in which databases using the {@code disk} storage backend keep their files. Defaults to
+     * {@code /dev/shm} if it exists and is writable or the system temporary directory otherwise. The files are
+     * deleted when the database is stopped.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.spillDirectory")
+    private File spillDirectory;
+
+    /**
+     * The size in megabytes of the cache used by databases using the {@code disk} storage backend or {@code 0} to use
+     * the default cache size of the database type.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.cacheSize", defaultValue = "0")
+    private int cacheSize;
+
+    /**
+     * The transaction model used to isolate concurrent sessions. One of {@code locks}, {@code mvlocks} or
+     * {@code mvcc}. HSQLDB supports all of them, H2 supports {@code locks} and {@code mvcc} and Derby only supports
+     * {@code locks}. The default transaction model of the database type is used if none is specified. The lock waits
+     * and deadlocks observed while the database is running are reported when it is stopped.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.concurrency")
+    private String concurrency;
+
+    /**
+     * The maximum number of concurrent connections accepted by the network server or {@code 0} to use the default
+     * limit of the database type.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.maxConnections", defaultValue = "0")
+    private int maxConnections;
+
+    /**
+     * The maximum number of threads the network server uses to handle connections or {@code 0} to use the default of
+     * the database type. Only the Derby network server has a configurable thread pool.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.serverThreads", defaultValue = "0")
+    private int serverThreads;
+
+    /**
+     * If {@code true} the database is created in-process using the embedded JDBC driver and no network server is
+     * started. This avoids the overhead of the network layer when the database is only accessed from within the
+     * Maven JVM.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.embedded", defaultValue = "false")
+    private boolean embedded;
+
+    /**
+     * If {@code true} a snapshot of the database is cached after each source has been loaded. Later builds restore
+     * the deepest snapshot whose sources, and the sources preceding them, are unchanged and only load the sources
+     * that follow it. Snapshots cannot be cached when {@link #databases} are specified.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.cache", defaultValue = "false")
+    private boolean cache;
+
+    /**
+     * The directory in which database snapshots are cached. Snapshots of sources that have changed are removed from
+     * the directory, so each execution that caches snapshots needs a directory of its own.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.cacheDirectory", defaultValue = "${project.build.directory}/inmemdb-cache")
+    private File cacheDirectory;
+
+    /**
+     * The JSON file to which the memory used by the database is written once it has been loaded. The same report is
+     * always logged and lists the heap in use before and after loading and the number of rows and bytes of each table
+     * so that the heap of the build can be sized from it. When {@link #databases} are specified each database writes
+     * its own report with the name of the database appended to the file name. No file is written unless one is
+     * specified.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.memoryReport")
+    private File memoryReport;
+
+    /**
+     * If {@code true} the number of concurrent sessions and the lock waits are sampled while the database is running
+     * and the peak number of sessions and the lock contention are logged when it is stopped. Sampling adds load to
+     * the database and short-lived sessions can be missed between samples, so it is intended for sizing the
+     * connection pools of the tests rather than for every build.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.sampleSessions", defaultValue = "false")
+    private boolean sampleSessions;
+
+    /**
+     * If {@code true} the database server is started in a detached JVM that keeps running after the build. Later
+     * builds with an identical configuration and unchanged sources reattach to it instead of starting a new server.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.reuse", defaultValue = "false")
+    private boolean reuse;
+
+    /**
+     * The number of minutes a reusable database server can be idle before it is stopped.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.idleTimeout", defaultValue = "30")
+    private int idleTimeout = 30;
+
+    /**
+     * The directory containing the configuration, status and log files of reusable database servers. It is outside
+     * the build directory so that a reusable server can still be found after {@code mvn clean}.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.reuseDirectory", defaultValue = "${java.io.tmpdir}/inmemdb")
+    private File reuseDirectory;
+
+    /**
+     * If {@code true} the database server is started and loaded in a child JVM with its own heap and garbage
+     * collector settings so that large data sets do not compete with Maven for memory. The child JVM is controlled
+     * through the monitor port and is stopped by the {@code stop} goal or when the build exits.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.fork", defaultValue = "false")
+    private boolean fork;
+
+    /**
+     * The maximum heap size of a forked or reusable database server, such as {@code 2g}. Passed to the JVM as
+     * {@code -Xmx}.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.forkMaxHeap")
+    private String forkMaxHeap;
+
+    /**
+     * The garbage collector used by a forked or reusable database server, such as {@code G1}, {@code Parallel} or
+     * {@code Serial}. Passed to the JVM as {@code -XX:+Use<name>GC}.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.forkGarbageCollector")
+    private String forkGarbageCollector;
+
+    /**
+     * Additional whitespace separated options passed to the JVM of a forked or reusable database server.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.forkArgLine")
+    private String forkArgLine;
+
+    /**
+     * The directory containing the configuration, status and log files of forked database servers.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.forkDirectory", defaultValue = "${project.build.directory}/inmemdb-fork")
+    private File forkDirectory;
+
+    /**
+     * The directory containing the class data sharing archives of forked and reusable database servers. The first
+     * server started for a database type writes an archive of the classes it loaded when it stops and later servers
+     * map it to start faster. Archives require Java 13 or later.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.forkArchiveDirectory", defaultValue = "${project.build.directory}/inmemdb-cds")
+    private File forkArchiveDirectory;
+
+    /**
+     * If {@code false} forked and reusable database servers do not use class data sharing archives.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.forkSharedArchive", defaultValue = "true")
+    private boolean forkSharedArchive = true;
+
+    /**
+     * If {@code true} the database server is shared by the modules of a reactor build that use the same monitor port.
+     * The first module to run it starts and loads it, later modules only load the sources that have not already been
+     * loaded, and it is stopped when the last module runs the {@code stop} goal with {@code shared} set. The server
+     * runs in the Maven JVM and cannot be combined with {@link #reuse}, {@link #fork} or {@link #databases}.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.shared", defaultValue = "false")
+    private boolean shared;
+
+    /**
+     * Indicates whether or not the Mojo execution should be skipped.
+     * @since 1.4.0
+     */
+    @Parameter(property = "inmemdb.skip", defaultValue = "false")
+    private boolean skip;
+
+    /**
+     * Checks whether the Mojo execution is being skipped before delegating to the super class to
+     * run the in-memory database.
+     *
+     * @throws MojoFailureException If there was a problem executing the Mojo.
+     * @since 1.4.0
+     */
+    @Override
+    public void execute() throws MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping inmemdb:run because inmemdb.skip=='true'");
+        } else if (shared) {
+            runShared();
+        } else {
+            prepare();
+            start();
+        }
+    }
+
+    /**
+     * Start the database server shared by the reactor or attach to it if it was started by another module, loading
+     * the sources that have not already been loaded. The server is run by a background thread so that the build can
+     * continue once it has been loaded.
+     *
+     * @throws MojoFailureException If the configuration is invalid or the shared server could not be started.
+     * @since 2.0.0
+     */
+    private void runShared() throws MojoFailureException {
+        if (reuse || fork || databases != null && !databases.isEmpty()) {
+            throw new MojoFailureException("A shared database server cannot be reused, forked or run multiple "
+                    + "databases");
+        }
+        final SharedServer server = SharedServer.acquire(MonitorSettings.getMonitorPort(this), type, database);
+        if (server.claim()) {
+            getLog().info("Starting database server shared by the reactor");
+            try {
+                MonitorSettings.setDaemon(this, false);
+                prepare();
+            } catch (final MojoFailureException exception) {
+                server.failed(exception.getMessage());
+                throw exception;
+            }
+            sharedServer = server;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start();
+                        server.failed("Shared database server stopped before it was loaded");
+                    } catch (final MojoFailureException exception) {
+                        server.failed(exception.getMessage());
+                    } catch (final RuntimeException exception) {
+                        logError("Error starting shared database server", exception);
+                        server.failed("Error starting shared database server");
+                    }
+                }
+            }, "inmemdb-shared");
+            thread.setDaemon(true);
+            server.setThread(thread);
+            thread.start();
+            server.await();
+        } else {
+            getLog().info("Attaching to database server shared by the reactor");
+            final Server running = server.await();
+            resolvedPort = server.getPort();
+            publish();
+            loadSharedSources((Database) running, server);
+        }
+    }
+
+    /**
+     * Load the sources that have not already been loaded into the database server shared by the reactor.
+     *
+     * @param running The shared database server.
+     * @param server  Tracks the sources loaded into the shared database server.
+     * @since 2.0.0
+     */
+    private void loadSharedSources(final Database running, final SharedServer server) {
+        if (sources == null) {
+            return;
+        }
+        synchronized (server) {
+            int count = 0;
+            for (final Source source : sources) {
+                if (server.markLoaded(fingerprint(source))) {
+                    logInfo("Loading " + source.toString());
+                    running.load(this, source);
+                    count++;
+                }
+            }
+            logInfo("Loaded " + count + " additional source(s) into the shared database server");
+        }
+    }
+
+    /**
+     * Compute the fingerprint that identifies a source loaded into the database server shared by the reactor so
+     * that modules referring to the same content by different paths do not load it twice. Only the type and content
+     * of the source are fingerprinted, not its path.
+     *
+     * @param source The source.
+     * @return The fingerprint or the source file if the source could not be read.
+     * @since 2.0.0
+     */
+    private static String fingerprint(final Source source) {
+        try {
+            return new Fingerprint().addContent(source).toHex();
+        } catch (final IOException exception) {
+            return source.getSourceFile();
+        }
+    }
+
+    /**
+     * Determine whether the Mojo execution should be skipped.
+     *
+     * @return The value of {@link #skip}.
+     * @since 2.0.0
+     */
+    boolean isSkip() {
+        return skip;
+    }
+
+    /**
+     * Determine whether the database server runs in a detached or child JVM. Such servers have been loaded when
+     * {@link #start()} returns whereas servers running in the Maven JVM are loaded by {@link #started(Server, Logger)}
+     * and {@link #start()} only returns when they are stopped.
+     *
+     * @return {@code true} if {@link #reuse} or {@link #fork} are set for a single database. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    boolean isDetached() {
+        return (databases == null || databases.isEmpty()) && (reuse || fork);
+    }
+
+    /**
+     * Validate the configuration, allocate the ports and publish the project properties describing the database
+     * server. This is done before the server is started so that the properties are available to later plug-ins even
+     * if the server is started in the background.
+     *
+     * @throws MojoFailureException If the configuration is invalid or a port could not be allocated.
+     * @since 2.0.0
+     */
+    void prepare() throws MojoFailureException {
+        if (databases != null && !databases.isEmpty()) {
+            if (reuse) {
+                throw new MojoFailureException("A reusable database server cannot run multiple databases");
+            }
+            if (fork) {
+                throw new MojoFailureException("A forked database server cannot run multiple databases");
+            }
+            if (cache) {
+                throw new MojoFailureException("A cached database server cannot run multiple databases");
+            }
+            members = createMembers();
+        } else {
+            resolvedPort = resolvePort();
+            publish();
+        }
+    }
+
+    /**
+     * Start and load the database server prepared by {@link #prepare()}.
+     *
+     * @throws MojoFailureException If the database server could not be started.
+     * @since 2.0.0
+     */
+    void start() throws MojoFailureException {
+        if (reuse && members == null) {
+            runReusable();
+        } else if (fork && members == null) {
+            runForked();
+        } else {
+            super.execute();
+        }
+    }
+
+    /**
+     * Get the file to which the memory report of one of the {@link #databases} is written by appending the name of
+     * the database to the name of {@link #memoryReport}.
+     *
+     * @param database The name of the database.
+     * @return The memory report file.
+     */
+    private File getMemoryReport(final String database) {
+        final String name = memoryReport.getName();
+        final int extension = name.lastIndexOf('.');
+        if (extension < 0) {
+            return new File(memoryReport.getParentFile(), name + "-" + database);
+        }
+        return new File(memoryReport.getParentFile(),
+                name.substring(0, extension) + "-" + database + name.substring(extension));
+    }
+
+    /**
+     * Create and configure the database servers described by {@link #databases} and publish their ports and JDBC
+     * URLs as project properties named {@code inmemdb.<database>.jdbc.port} and {@code inmemdb.<database>.jdbc.url}.
+     *
+     * @return The member databases of the composite server.
+     * @throws MojoFailureException If a database type is not supported or a port could not be resolved.
+     * @since 2.0.0
+     */
+    private List<CompositeDatabase.Member> createMembers() throws MojoFailureException {
+        final List<CompositeDatabase.Member> result = new ArrayList<CompositeDatabase.Member>(databases.size());
+        for (final DatabaseDefinition definition : databases) {
+            final ServerFactory factory = ServerFactoryLocator.getInstance(this).getFactory(definition.getType());
+            if (factory == null) {
+                throw new MojoFailureException("Unsupported database type: " + definition.getType());
+            }
+            final Map<String, Object> config = createServerConfig(definition, resolvePort(definition.getPort()),
+                    memoryReport == null ? null : getMemoryReport(definition.getDatabase()));
+            final Server server = factory.createServer();
+            for (final Map.Entry<String, Object> entry : config.entrySet()) {
+                server.configure(entry.getKey(), entry.getValue(), this);
+            }
+            final String prefix = "inmemdb." + definition.getDatabase() + ".jdbc.";
+            publish(server, prefix + "port", prefix + "url", prefix + "fork.url", prefix + "clone.url");
+            result.add(new CompositeDatabase.Member(definition.getDatabase(), server, definition.getSources()));
+        }
+        return result;
+    }
+
+    /**
+     * Resolve the port for database connections, allocating a free port if {@link #port} is {@code 0} or
+     * {@code auto}. A reusable server that is already running keeps the port it was allocated. The port is found by
+     * binding and releasing a server socket, so there is a short window in which another process could take it.
+     *
+     * @return The port or {@code null} if the default port for the database type should be used.
+     * @throws MojoFailureException If the port is invalid or a free port could not be allocated.
+     * @since 2.0.0
+     */
+    private Integer resolvePort() throws MojoFailureException {
+        if (reuse && isAutoPort(port)) {
+            final Integer runningPort = DaemonLauncher.getRunningPort(reuseDirectory,
+                    MonitorSettings.getMonitorPort(this));
+            if (runningPort != null) {
+                return runningPort;
+            }
+        }
+        return resolvePort(port);
+    }
+
+    /**
+     * Determine whether a port value requests a free port to be allocated.
+     *
+     * @param value The port value.
+     * @return {@code true} if the value is {@code 0} or {@code auto}. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    private static boolean isAutoPort(final String value) {
+        return value != null && (AUTO_PORT.equalsIgnoreCase(value.trim()) || "0".equals(value.trim()));
+    }
+
+    /**
+     * Convert a port value to a port number, allocating a free port if the value is {@code 0} or {@code auto}.
+     *
+     * @param value The port value.
+     * @return The port or {@code null} if the default port for the database type should be used.
+     * @throws MojoFailureException If the port is invalid or a free port could not be allocated.
+     * @since 2.0.0
+     */
+    private Integer resolvePort(final String value) throws MojoFailureException {
+        if (value == null || value.trim().length() == 0) {
+            return null;
+        }
+        if (!isAutoPort(value)) {
+            try {
+                return Integer.valueOf(value.trim());
+            } catch (final NumberFormatException exception) {
+                throw new MojoFailureException("Invalid port: " + value, exception);
+            }
+        }
+        try {
+            final ServerSocket socket = new ServerSocket(0);
+            try {
+                getLog().info("Allocated port " + socket.getLocalPort() + " for the database server");
+                return socket.getLocalPort();
+            } finally {
+                socket.close();
+            }
+        } catch (final IOException exception) {
+            throw new MojoFailureException("Cannot allocate a free port", exception);
+        }
+    }
+
+    /**
+     * Publish the port and JDBC URL of the database server as project properties. They are derived from a server
+     * that is configured but never started, so they are available before the execution returns even if the server
+     * is started by a daemon thread or in a detached JVM.
+     *
+     * @since 2.0.0
+     */
+    private void publish() {
+        final ServerFactory factory = ServerFactoryLocator.getInstance(this).getFactory(type);
+        if (factory == null) {
+            return;
+        }
+        final Server server = factory.createServer();
+        for (final Map.Entry<String, Object> entry : getServerConfig().entrySet()) {
+            server.configure(entry.getKey(), entry.getValue(), NULL_LOGGER);
+        }
+        publish(server, portProperty, urlProperty, forkUrlProperty, cloneUrlProperty);
+    }
+
+    /**
+     * Publish the port and JDBC URL of a configured database server as project properties. The JDBC URL templates of
+     * the copies and clones are also published if {@link #forkCopies} were requested or the database is
+     * {@link #cloneable}.
+     *
+     * @param server       The configured database server.
+     * @param portName     The name of the project property to which the port is published.
+     * @param urlName      The name of the project property to which the JDBC URL is published.
+     * @param forkUrlName  The name of the project property to which the JDBC URL template of the copies is published.
+     * @param cloneUrlName The name of the project property to which the JDBC URL template of the clones is published.
+     * @since 2.0.0
+     */
+    private void publish(final Server server, final String portName, final String urlName, final String forkUrlName,
+                         final String cloneUrlName) {
+        if (server instanceof SQLDatabase) {
+            final SQLDatabase database = (SQLDatabase) server;
+            final String url = database.getUrl();
+            if (projectProperties != null) {
+                projectProperties.setProperty(portName, Integer.toString(database.getPort()));
+                projectProperties.setProperty(urlName, url);
+            }
+            getLog().info("Database is available at " + url);
+            if (forkCopies > 0) {
+                final String forkUrl = database.getCopyUrl(FORK_NUMBER);
+                if (projectProperties != null) {
+                    projectProperties.setProperty(forkUrlName, forkUrl);
+                }
+                getLog().info("Database copies are available at " + forkUrl);
+            }
+            if (cloneable) {
+                final String cloneUrl = database.getCloneUrl(MonitorClient.NAME_PLACE_HOLDER);
+                if (projectProperties != null) {
+                    projectProperties.setProperty(cloneUrlName, cloneUrl);
+                }
+                getLog().info("Database clones will be available at " + cloneUrl);
+            }
+        }
+    }
+
+    /**
+     * Reattach to a reusable database server with an identical configuration or launch a new one in a detached JVM.
+     *
+     * @throws MojoFailureException If the database server could not be started.
+     * @since 2.0.0
+     */
+    private void runReusable() throws MojoFailureException {
+        if (embedded) {
+            throw new MojoFailureException("A reusable database server cannot run in embedded mode");
+        }
+        final DaemonConfiguration configuration = new DaemonConfiguration(
+                type,
+                MonitorSettings.getMonitorKey(this),
+                MonitorSettings.getMonitorPort(this),
+                idleTimeout,
+                getServerConfig(),
+                sources);
+        final DaemonLauncher launcher = new DaemonLauncher(reuseDirectory, configuration, getJvmArguments(),
+                getArchiveDirectory());
+        try {
+            if (!launcher.attach(this) && !launcher.launch(this)) {
+                throw new MojoFailureException("Cannot start reusable database server");
+            }
+        } catch (final IOException exception) {
+            throw new MojoFailureException("Cannot start reusable database server", exception);
+        }
+    }
+
+    /**
+     * Launch the database server in a child JVM that runs until it is stopped by the {@code stop} goal or the build
+     * exits. A server left running on the same monitor port by an earlier build that was killed is stopped first.
+     *
+     * @throws MojoFailureException If the database server could not be started.
+     * @since 2.0.0
+     */
+    private void runForked() throws MojoFailureException {
+        if (embedded) {
+            throw new MojoFailureException("A forked database server cannot run in embedded mode");
+        }
+        final DaemonConfiguration configuration = new DaemonConfiguration(
+                type,
+                MonitorSettings.getMonitorKey(this),
+                MonitorSettings.getMonitorPort(this),
+                0,
+                getServerConfig(),
+                sources);
+        final DaemonLauncher launcher = new DaemonLauncher(forkDirectory, configuration, getJvmArguments(),
+                getArchiveDirectory());
+        launcher.stop(this);
+        try {
+            if (!launcher.launch(this)) {
+                throw new MojoFailureException("Cannot start forked database server");
+            }
+        } catch (final IOException exception) {
+            throw new MojoFailureException("Cannot start forked database server", exception);
+        }
+        launcher.destroyOnExit();
+    }
+
+    /**
+     * Get the directory containing the class data sharing archives of forked and reusable database servers.
+     *
+     * @return The value of {@link #forkArchiveDirectory} or {@code null} if {@link #forkSharedArchive} is
+     *         {@code false}.
+     * @since 2.0.0
+     */
+    private File getArchiveDirectory() {
+        return forkSharedArchive ? forkArchiveDirectory : null;
+    }
+
+    /**
+     * Get the options passed to the JVM of a forked or reusable database server from {@link #forkMaxHeap},
+     * {@link #forkGarbageCollector} and {@link #forkArgLine}.
+     *
+     * @return The JVM options.
+     * @since 2.0.0
+     */
+    private List<String> getJvmArguments() {
+        final List<String> arguments = new ArrayList<String>();
+        if (forkMaxHeap != null && forkMaxHeap.trim().length() > 0) {
+            arguments.add("-Xmx" + forkMaxHeap.trim());
+        }
+        if (forkGarbageCollector != null && forkGarbageCollector.trim().length() > 0) {
+            arguments.add("-XX:+Use" + forkGarbageCollector.trim() + "GC");
+        }
+        if (forkArgLine != null && forkArgLine.trim().length() > 0) {
+            for (final String argument : forkArgLine.trim().split("\\s+")) {
+                arguments.add(argument);
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Get the server type.
+     *
+     * @return The value of {@link #type}.
+     */
+    @Override
+    public String getServerType() {
+        if (members != null) {
+            return CompositeDatabase.TYPE;
+        }
+        return type;
+    }
+
+    /**
+     * Get the server configuration parameters. These are {@link #database}, the resolved {@link #port},
+     * {@link #username}, {@link #password}, {@link #attributes}, {@link #profile}, {@link #storage},
+     * {@link #spillDirectory}, {@link #cacheSize}, {@link #concurrency}, {@link #memoryReport},
+     * {@link #maxConnections}, {@link #serverThreads}, {@link #embedded}, {@link #forkCopies}, {@link #cloneable},
+     * {@link #resettable}, {@link #trackChanges}, {@link #sampleSessions}, {@link #refreshStatistics} and
+     * {@link #readOnlyAfterLoad}, or the
+     * member databases and {@link #threads} if {@link #databases} were specified.
+     *
+     * @return A {@link Map} containing the configuration parameters.
+     */
+    @Override
+    public Map<String, Object> getServerConfig() {
+        final Map<String, Object> config = new HashMap<String, Object>();
+        if (members != null) {
+            config.put(CompositeDatabase.MEMBERS, members);
+            config.put(CompositeDatabase.THREADS, threads);
+            return config;
+        }
+        final DatabaseDefinition definition = new DatabaseDefinition();
+        definition.setDatabase(database);
+        definition.setUsername(username);
+        definition.setPassword(password);
+        definition.setAttributes(attributes);
+        config.putAll(createServerConfig(definition, resolvedPort, memoryReport));
+        config.put("embedded", embedded);
+        return config;
+    }
+
+    /**
+     * Build the configuration parameters shared by a single database server and the member databases of a composite
+     * server. The {@link #profile}, {@link #storage} and {@link #concurrency} are used when the definition does not
+     * override them and the remaining settings apply to every database.
+     *
+     * @param definition The name, credentials, attributes and overrides of the database.
+     * @param serverPort The resolved port for database connections or {@code null} if the database type does not
+     *                   use one.
+     * @param report     The file to which the memory report is written or {@code null} if there is no report.
+     * @return A {@link Map} containing the configuration parameters.
+     */
+    private Map<String, Object> createServerConfig(final DatabaseDefinition definition, final Integer serverPort,
+                                                   final File report) {
+        final Map<String, Object> config = new HashMap<String, Object>();
+        config.put("database", definition.getDatabase());
+        config.put("username", definition.getUsername());
+        config.put("password", definition.getPassword() == null ? "" : definition.getPassword());
+        if (serverPort != null) {
+            config.put("port", serverPort);
+        }
+        if (definition.getAttributes() != null) {
+            config.put("attributes", definition.getAttributes());
+        }
+        if (definition.getProfile() != null) {
+            config.put("profile", definition.getProfile());
+        } else if (profile != null) {
+            config.put("profile", profile);
+        }
+        if (definition.getStorage() != null) {
+            config.put("storage", definition.getStorage());
+        } else if (storage != null) {
+            config.put("storage", storage);
+        }
+        if (definition.getConcurrency() != null) {
+            config.put("concurrency", definition.getConcurrency());
+        } else if (concurrency != null) {
+            config.put("concurrency", concurrency);
+        }
+        if (spillDirectory != null) {
+            config.put("spillDirectory", spillDirectory);
+        }
+        if (cacheSize > 0) {
+            config.put("cacheSize", cacheSize);
+        }
+        if (report != null) {
+            config.put("memoryReport", report);
+        }
+        if (maxConnections > 0) {
+            config.put("maxConnections", maxConnections);
+        }
+        if (serverThreads > 0) {
+            config.put("serverThreads", serverThreads);
+        }
+        if (forkCopies > 0) {
+            config.put("copies", forkCopies);
+        }
+        if (cloneable) {
+            config.put("cloneable", cloneable);
+        }
+        if (resettable) {
+            config.put("resettable", resettable);
+            config.put("trackChanges", trackChanges);
+        }
+        if (sampleSessions) {
+            config.put("sampleSessions", sampleSessions);
+        }
+        if (refreshStatistics) {
+            config.put("refreshStatistics", refreshStatistics);
+        }
+        if (readOnlyAfterLoad) {
+            config.put("readOnlyAfterLoad", readOnlyAfterLoad);
+        }
+        return config;
+    }
+
+    /**
+     * This callback is invoked after the server has started and is used load the scripts
+     * and datasets that will initialise the database and then create the {@link #forkCopies} and save the baseline
+     * used to {@link #resettable reset} the database. The memory used by the database is reported once it has been
+     * loaded.
+     *
+     * @param server The database server.
+     * @param logger Used to log information and error messages.
+     */
+    @Override
+    public void started(final Server server, final Logger logger) {
+        logger.logInfo("Server has been started");
+        boolean loaded = true;
+        if (sources != null && members == null) {
+            if (cache && server instanceof SQLDatabase) {
+                loaded = loadCached((SQLDatabase) server, logger);
+            } else {
+                loadSources((Database) server, logger);
+            }
+        }
+        if (!loaded) {
+            logger.logError("The database was not loaded so its copies, baseline and memory report were skipped");
+            if (sharedServer != null) {
+                sharedServer.failed("Shared database server could not be loaded");
+            }
+            return;
+        }
+        if (members == null && server instanceof SQLDatabase) {
+            ((SQLDatabase) server).endLoad(logger);
+            ((SQLDatabase) server).refreshStatistics(logger);
+            ((SQLDatabase) server).createCopies(logger);
+            ((SQLDatabase) server).saveBaseline(logger);
+            ((SQLDatabase) server).makeReadOnly(logger);
+            ((SQLDatabase) server).logMemoryUsage(logger);
+        }
+        if (sharedServer != null) {
+            final List<String> fingerprints = new ArrayList<String>();
+            if (sources != null) {
+                for (final Source source : sources) {
+                    fingerprints.add(fingerprint(source));
+                }
+            }
+            sharedServer.ready(server, resolvedPort, fingerprints);
+        }
+    }
+
+    /**
+     * Restore the database from the deepest cached snapshot whose sources are unchanged and then load the sources that
+     * follow it, caching a snapshot after each one so that later builds can skip them as well. The snapshots of
+     * sources that have changed are removed from the cache. If the snapshot cannot be restored the state of the
+     * database is unknown, so the snapshot is removed from the cache and the database is recreated and loaded from
+     * all the sources rather than loading the sources on top of a partially restored database.
+     *
+     * @param database The database.
+     * @param logger   Used to log information and error messages.
+     * @return {@code true} if the database was loaded or {@code false} if it could not be recreated.
+     */
+    private boolean loadCached(final SQLDatabase database, final Logger logger) {
+        final SnapshotCache snapshotCache = new SnapshotCache(cacheDirectory);
+        final List<String> keys = computeKeys(snapshotCache, database, logger);
+        if (keys == null) {
+            loadSources(database, logger);
+            return true;
+        }
+        snapshotCache.retainOnly(logger, keys);
+        int restored = keys.size() - 1;
+        while (restored >= 0 && !snapshotCache.contains(keys.get(restored))) {
+            restored--;
+        }
+        if (restored >= 0 && !snapshotCache.restore(logger, database, keys.get(restored))) {
+            snapshotCache.evict(logger, keys.get(restored));
+            logger.logInfo("Cannot restore the database from cached snapshot " + keys.get(restored)
+                    + ". The snapshot has been removed from the cache and the database will be recreated");
+            if (!recreate(database, logger)) {
+                return false;
+            }
+            restored = -1;
+        }
+        if (restored >= 0) {
+            logger.logInfo("Restored " + (restored + 1) + " of " + sources.size() + " source(s) from the cache");
+        }
+        if (restored + 1 < sources.size()) {
+            logger.logInfo("Executing initialization scripts and loading data sets");
+            final long startTime = System.nanoTime();
+            final ErrorTrackingLogger trackingLogger = new ErrorTrackingLogger(logger);
+            for (int i = restored + 1; i < sources.size(); i++) {
+                final Source source = sources.get(i);
+                logger.logInfo("Loading " + source.toString());
+                database.load(trackingLogger, source);
+                if (!trackingLogger.hasErrors()) {
+                    snapshotCache.store(logger, database, keys.get(i));
+                }
+            }
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            logger.logInfo("Loaded " + (sources.size() - restored - 1) + " source(s) in " + elapsed + " ms");
+        }
+        return true;
+    }
+
+    /**
+     * Recreate an empty database by stopping and starting it. Stopping the database discards its contents, including
+     * those stored on disk.
+     *
+     * @param database The database.
+     * @param logger   Used to log information and error messages.
+     * @return {@code true} if the database was recreated. Otherwise, {@code false}.
+     */
+    private boolean recreate(final SQLDatabase database, final Logger logger) {
+        final Server server = (Server) database;
+        server.stop(logger);
+        server.start(logger);
+        if (!server.isStarted(logger)) {
+            logger.logError("Cannot recreate database " + this.database + " after failing to restore it");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compute the chain of fingerprints that identify the snapshots taken after each source has been loaded.
+     *
+     * @param snapshotCache The snapshot cache.
+     * @param database      The database.
+     * @param logger        Used to log information and error messages.
+     * @return The fingerprints or {@code null} if they could not be computed.
+     */
+    private List<String> computeKeys(final SnapshotCache snapshotCache, final SQLDatabase database,
+                                     final Logger logger) {
+        try {
+            final List<String> keys = new ArrayList<String>(sources.size());
+            String key = snapshotCache.computeKey(type, database);
+            for (final Source source : sources) {
+                key = snapshotCache.computeKey(key, source);
+                keys.add(key);
+            }
+            return keys;
+        } catch (final IOException exception) {
+            logger.logError("Cannot compute the database snapshot keys", exception);
+        } catch (final SQLException exception) {
+            logger.logError("Cannot compute the database snapshot keys", exception);
+        }
+        return null;
+    }
+
+    /**
+     * Execute the scripts and load the data sets that initialise the database.
+     *
+     * @param database The database.
+     * @param logger   Used to log information and error messages.
+     */
+    private void loadSources(final Database database, final Logger logger) {
+        logger.logInfo("Executing initialization scripts and loading data sets");
+        final long startTime = System.nanoTime();
+        for (final Source source : sources) {
+            logger.logInfo("Loading " + source.toString());
+            database.load(logger, source);
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.logInfo("Loaded " + sources.size() + " source(s) in " + elapsed + " ms");
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a database server that is being started and loaded in the background by the {@code start-async} goal so that
+ * the {@code await} goal can wait for it. Servers are identified by their monitor port, which is unique within the
+ * Maven JVM, and the outcome is shared between goals that load the same copy of the plug-in's classes. A goal that
+ * loads another copy fails, see {@link PluginRealm}.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class AsyncStart {
+
+    /**
+     * The kind of tracking used to register the servers with {@link PluginRealm}.
+     */
+    private static final String REALM_KIND = "async";
+    /**
+     * The servers being started in the background keyed by their monitor port.
+     */
+    private static final ConcurrentMap<Integer, AsyncStart> STARTS = new ConcurrentHashMap<Integer, AsyncStart>();
+    /**
+     * Released when the server has been started and loaded or has failed.
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+    /**
+     * The time at which the server started to be started.
+     */
+    private final long startTime = System.nanoTime();
+    /**
+     * The reason the server failed or {@code null} if it succeeded or has not finished.
+     */
+    private volatile String failure;
+    /**
+     * The cause of the failure or {@code null}.
+     */
+    private volatile Throwable cause;
+    /**
+     * The time at which the server was loaded or failed.
+     */
+    private volatile long endTime;
+
+    /**
+     * Private constructor used by {@link #begin(int)}.
+     */
+    private AsyncStart() {
+    }
+
+    /**
+     * Start tracking a server that is being started in the background, replacing one tracked for an earlier build.
+     *
+     * @param monitorPort The monitor port of the server.
+     * @return The tracker.
+     */
+    static AsyncStart begin(final int monitorPort) {
+        final AsyncStart start = new AsyncStart();
+        STARTS.put(monitorPort, start);
+        PluginRealm.register(REALM_KIND, monitorPort);
+        return start;
+    }
+
+    /**
+     * Stop tracking a server.
+     *
+     * @param monitorPort The monitor port of the server.
+     * @return The tracker or {@code null} if no server was started in the background on the monitor port.
+     * @throws MojoFailureException If the server was started in the background by another copy of the plug-in's
+     *                              classes.
+     */
+    static AsyncStart end(final int monitorPort) throws MojoFailureException {
+        final AsyncStart start = STARTS.remove(monitorPort);
+        if (start == null) {
+            PluginRealm.check(REALM_KIND, monitorPort);
+        } else {
+            PluginRealm.unregister(REALM_KIND, monitorPort);
+        }
+        return start;
+    }
+
+    /**
+     * Record that the server has been started and loaded. Only the first outcome is recorded.
+     */
+    void succeeded() {
+        complete(null, null);
+    }
+
+    /**
+     * Record that the server could not be started or loaded. Only the first outcome is recorded.
+     *
+     * @param message   The reason for the failure.
+     * @param throwable The cause of the failure or {@code null}.
+     */
+    void failed(final String message, final Throwable throwable) {
+        complete(message, throwable);
+    }
+
+    /**
+     * Record the outcome if it has not already been recorded.
+     *
+     * @param message   The reason for the failure or {@code null} if the server succeeded.
+     * @param throwable The cause of the failure or {@code null}.
+     */
+    private synchronized void complete(final String message, final Throwable throwable) {
+        if (done.getCount() > 0) {
+            failure = message;
+            cause = throwable;
+            endTime = System.nanoTime();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Wait for the outcome to be recorded.
+     *
+     * @param timeout The maximum time to wait in seconds.
+     * @return {@code true} if the outcome was recorded. Otherwise, {@code false}.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    boolean await(final long timeout) throws InterruptedException {
+        return done.await(timeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Get the reason the server failed.
+     *
+     * @return The reason or {@code null} if the server succeeded.
+     */
+    String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get the cause of the failure.
+     *
+     * @return The cause or {@code null}.
+     */
+    Throwable getCause() {
+        return cause;
+    }
+
+    /**
+     * Get the time taken to start and load the server.
+     *
+     * @return The time in milliseconds.
+     */
+    long getElapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
+    }
+}
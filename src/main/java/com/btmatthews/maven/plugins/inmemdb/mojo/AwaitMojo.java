@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import com.btmatthews.utils.monitor.mojo.AbstractServerMojo;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Wait for an in-memory database server started by the {@code start-async} goal to be loaded and fail the build if it
+ * could not be started or loaded.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+@Mojo(name = "await", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST)
+public final class AwaitMojo extends AbstractServerMojo {
+
+    /**
+     * The maximum number of seconds to wait for the database server to be loaded.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.awaitTimeout", defaultValue = "300")
+    private int timeout = 300;
+
+    /**
+     * Indicates whether or not the Mojo execution should be skipped.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.skip", defaultValue = "false")
+    private boolean skip;
+
+    /**
+     * Wait for the database server started in the background on the monitor port to be loaded.
+     *
+     * @throws MojoFailureException If no database server was started in the background, it was not loaded within the
+     *                              timeout or it could not be started or loaded.
+     */
+    @Override
+    public void execute() throws MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping inmemdb:await because inmemdb.skip=='true'");
+            return;
+        }
+        final int monitorPort = MonitorSettings.getMonitorPort(this);
+        final AsyncStart asyncStart = AsyncStart.end(monitorPort);
+        if (asyncStart == null) {
+            throw new MojoFailureException("No database server was started by inmemdb:start-async with monitor port "
+                    + monitorPort);
+        }
+        getLog().info("Waiting for database server to be loaded");
+        final long startTime = System.currentTimeMillis();
+        try {
+            if (!asyncStart.await(timeout)) {
+                throw new MojoFailureException("Timed out waiting for database server to be loaded");
+            }
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted waiting for database server to be loaded", exception);
+        }
+        if (asyncStart.getFailure() != null) {
+            throw new MojoFailureException(asyncStart.getFailure(), asyncStart.getCause());
+        }
+        getLog().info("Database server was loaded in " + asyncStart.getElapsed() + " ms, of which "
+                + (System.currentTimeMillis() - startTime) + " ms delayed the build");
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import com.btmatthews.maven.plugins.inmemdb.Source;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes one of several databases started by a single execution of the run goal using the {@code databases}
+ * parameter. Each database has its own type, name, port, attributes, profile, storage, concurrency and sources.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class DatabaseDefinition {
+
+    /**
+     * The database type.
+     */
+    private String type = "hsqldb";
+    /**
+     * The database name.
+     */
+    private String database;
+    /**
+     * The username for database connections.
+     */
+    private String username = "sa";
+    /**
+     * The password for database connections.
+     */
+    private String password = "";
+    /**
+     * The port for database connections. If {@code 0} or {@code auto} a free port is allocated.
+     */
+    private String port;
+    /**
+     * Additional attributes used to configure the database connection.
+     */
+    private Map<String, String> attributes;
+    /**
+     * The performance profile or {@code null} to use the profile configured for the execution.
+     */
+    private String profile;
+    /**
+     * The storage backend or {@code null} to use the storage backend configured for the execution.
+     */
+    private String storage;
+    /**
+     * The transaction model or {@code null} to use the transaction model configured for the execution.
+     */
+    private String concurrency;
+    /**
+     * The source files used to populate the database.
+     */
+    private List<? extends Source> sources;
+
+    /**
+     * Get the database type.
+     *
+     * @return The database type.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Set the database type.
+     *
+     * @param type The database type.
+     */
+    public void setType(final String type) {
+        this.type = type;
+    }
+
+    /**
+     * Get the database name.
+     *
+     * @return The database name.
+     */
+    public String getDatabase() {
+        return database;
+    }
+
+    /**
+     * Set the database name.
+     *
+     * @param database The database name.
+     */
+    public void setDatabase(final String database) {
+        this.database = database;
+    }
+
+    /**
+     * Get the username for database connections.
+     *
+     * @return The username.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Set the username for database connections.
+     *
+     * @param username The username.
+     */
+    public void setUsername(final String username) {
+        this.username = username;
+    }
+
+    /**
+     * Get the password for database connections.
+     *
+     * @return The password.
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Set the password for database connections.
+     *
+     * @param password The password.
+     */
+    public void setPassword(final String password) {
+        this.password = password;
+    }
+
+    /**
+     * Get the port for database connections.
+     *
+     * @return The port, {@code 0}, {@code auto} or {@code null} to use the default port for the database type.
+     */
+    public String getPort() {
+        return port;
+    }
+
+    /**
+     * Set the port for database connections.
+     *
+     * @param port The port, {@code 0}, {@code auto} or {@code null} to use the default port for the database type.
+     */
+    public void setPort(final String port) {
+        this.port = port;
+    }
+
+    /**
+     * Get the additional attributes used to configure the database connection.
+     *
+     * @return The attributes.
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Set the additional attributes used to configure the database connection.
+     *
+     * @param attributes The attributes.
+     */
+    public void setAttributes(final Map<String, String> attributes) {
+        this.attributes = attributes;
+    }
+
+    /**
+     * Get the performance profile.
+     *
+     * @return The profile or {@code null} to use the profile configured for the execution.
+     */
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * Set the performance profile.
+     *
+     * @param profile The profile.
+     */
+    public void setProfile(final String profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Get the storage backend.
+     *
+     * @return The storage backend or {@code null} to use the storage backend configured for the execution.
+     */
+    public String getStorage() {
+        return storage;
+    }
+
+    /**
+     * Set the storage backend.
+     *
+     * @param storage The storage backend.
+     */
+    public void setStorage(final String storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Get the transaction model.
+     *
+     * @return The transaction model or {@code null} to use the transaction model configured for the execution.
+     */
+    public String getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Set the transaction model.
+     *
+     * @param concurrency The transaction model.
+     */
+    public void setConcurrency(final String concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Get the source files used to populate the database.
+     *
+     * @return The sources.
+     */
+    public List<? extends Source> getSources() {
+        return sources;
+    }
+
+    /**
+     * Set the source files used to populate the database.
+     *
+     * @param sources The sources.
+     */
+    public void setSources(final List<? extends Source> sources) {
+        this.sources = sources;
+    }
+
+    /**
+     * Get a string representation of the database definition.
+     *
+     * @return The database type and name.
+     */
+    @Override
+    public String toString() {
+        return "DatabaseDefinition[" + type + ":" + database + "]";
+    }
+}
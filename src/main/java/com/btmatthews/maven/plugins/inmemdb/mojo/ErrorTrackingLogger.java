@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import com.btmatthews.utils.monitor.Logger;
+
+/**
+ * A {@link Logger} that delegates to another logger and remembers whether any errors were reported. It is used to
+ * decide whether the database is in a fit state to be cached after the sources have been loaded.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public final class ErrorTrackingLogger implements Logger {
+
+    /**
+     * The logger to which messages are delegated.
+     */
+    private final Logger delegate;
+    /**
+     * Set to {@code true} when an error is reported.
+     */
+    private boolean errors;
+
+    /**
+     * Construct a logger that delegates to {@code delegate}.
+     *
+     * @param delegate The logger to which messages are delegated.
+     */
+    public ErrorTrackingLogger(final Logger delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Determine whether any errors have been reported.
+     *
+     * @return {@code true} if errors have been reported. Otherwise, {@code false}.
+     */
+    public boolean hasErrors() {
+        return errors;
+    }
+
+    /**
+     * Write an information message to the log file.
+     *
+     * @param message The information message.
+     */
+    @Override
+    public void logInfo(final String message) {
+        delegate.logInfo(message);
+    }
+
+    /**
+     * Write an error message to the log file.
+     *
+     * @param message The error message.
+     */
+    @Override
+    public void logError(final String message) {
+        errors = true;
+        delegate.logError(message);
+    }
+
+    /**
+     * Write an error message to the log file.
+     *
+     * @param message The error message.
+     * @param cause   The exception that is associated with the error message.
+     */
+    @Override
+    public void logError(final String message, final Throwable cause) {
+        errors = true;
+        delegate.logError(message, cause);
+    }
+}
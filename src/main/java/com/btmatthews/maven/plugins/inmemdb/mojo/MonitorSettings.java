@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import com.btmatthews.utils.monitor.mojo.AbstractRunMojo;
+import com.btmatthews.utils.monitor.mojo.AbstractServerMojo;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.ReflectionUtils;
+
+/**
+ * Reads and changes the monitor settings of the plug-in's Mojos. The settings are parameters declared privately by
+ * the super classes in the monitor library, which provides no accessors for them. They cannot be redeclared by the
+ * Mojos because Maven would then inject the configured values into the redeclared fields instead of the fields used by
+ * the monitor library.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class MonitorSettings {
+
+    /**
+     * The name of the monitor port parameter.
+     */
+    private static final String MONITOR_PORT = "monitorPort";
+    /**
+     * The name of the monitor key parameter.
+     */
+    private static final String MONITOR_KEY = "monitorKey";
+    /**
+     * The name of the parameter that determines whether the monitor runs on a daemon thread.
+     */
+    private static final String DAEMON = "daemon";
+
+    /**
+     * The constructor is private because this class only has static methods.
+     */
+    private MonitorSettings() {
+    }
+
+    /**
+     * Get the port on which the monitor of the database server listens. It uniquely identifies the database server
+     * within the Maven JVM.
+     *
+     * @param mojo The Mojo.
+     * @return The monitor port.
+     * @throws MojoFailureException If the monitor port could not be read.
+     */
+    static int getMonitorPort(final AbstractServerMojo mojo) throws MojoFailureException {
+        return (Integer) get(mojo, MONITOR_PORT);
+    }
+
+    /**
+     * Get the key that must prefix the commands sent to the monitor of the database server.
+     *
+     * @param mojo The Mojo.
+     * @return The monitor key.
+     * @throws MojoFailureException If the monitor key could not be read.
+     */
+    static String getMonitorKey(final AbstractServerMojo mojo) throws MojoFailureException {
+        return (String) get(mojo, MONITOR_KEY);
+    }
+
+    /**
+     * Determine whether the monitor of the database server runs on a daemon thread so that the build continues while
+     * the server is running.
+     *
+     * @param mojo   The Mojo.
+     * @param daemon {@code true} if the monitor runs on a daemon thread or {@code false} if it runs on the thread that
+     *               executes the Mojo.
+     * @throws MojoFailureException If the setting could not be changed.
+     */
+    static void setDaemon(final AbstractRunMojo mojo, final boolean daemon) throws MojoFailureException {
+        try {
+            ReflectionUtils.setVariableValueInObject(mojo, DAEMON, daemon);
+        } catch (final IllegalAccessException exception) {
+            throw new MojoFailureException("Cannot change monitor setting " + DAEMON, exception);
+        }
+    }
+
+    /**
+     * Read one of the monitor settings.
+     *
+     * @param mojo The Mojo.
+     * @param name The name of the monitor setting.
+     * @return The value of the monitor setting.
+     * @throws MojoFailureException If the monitor setting could not be read.
+     */
+    private static Object get(final AbstractServerMojo mojo, final String name) throws MojoFailureException {
+        try {
+            return ReflectionUtils.getValueIncludingSuperclasses(name, mojo);
+        } catch (final IllegalAccessException exception) {
+            throw new MojoFailureException("Cannot read monitor setting " + name, exception);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Detects database servers that are tracked by another copy of the plug-in's classes. The {@code shared},
+ * {@code start-async} and {@code await} goals track servers in static fields, which only works if the plug-in's
+ * classes are loaded once per build. Maven loads them again for each module that declares different
+ * {@code <dependencies>} for the plug-in, so each copy registers the servers it tracks in the system properties,
+ * which are visible to all copies, and a copy that finds a server registered by another copy fails the build rather
+ * than starting a second server or waiting for a server it cannot see.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class PluginRealm {
+
+    /**
+     * Identifies this copy of the plug-in's classes.
+     */
+    private static final String REALM = UUID.randomUUID().toString();
+
+    /**
+     * The constructor is private because this class only has static methods.
+     */
+    private PluginRealm() {
+    }
+
+    /**
+     * Register a server tracked by this copy of the plug-in's classes, replacing a registration left by an earlier
+     * build.
+     *
+     * @param kind        The kind of tracking, {@code shared} or {@code async}.
+     * @param monitorPort The monitor port of the server.
+     */
+    static void register(final String kind, final int monitorPort) {
+        System.getProperties().setProperty(getKey(kind, monitorPort), REALM);
+    }
+
+    /**
+     * Register a server tracked by this copy of the plug-in's classes unless it is registered by another copy.
+     *
+     * @param kind        The kind of tracking, {@code shared} or {@code async}.
+     * @param monitorPort The monitor port of the server.
+     * @throws MojoFailureException If the server is registered by another copy of the plug-in's classes.
+     */
+    static void claim(final String kind, final int monitorPort) throws MojoFailureException {
+        final Properties properties = System.getProperties();
+        synchronized (properties) {
+            check(kind, monitorPort);
+            properties.setProperty(getKey(kind, monitorPort), REALM);
+        }
+    }
+
+    /**
+     * Check that a server is not registered by another copy of the plug-in's classes.
+     *
+     * @param kind        The kind of tracking, {@code shared} or {@code async}.
+     * @param monitorPort The monitor port of the server.
+     * @throws MojoFailureException If the server is registered by another copy of the plug-in's classes.
+     */
+    static void check(final String kind, final int monitorPort) throws MojoFailureException {
+        final String realm = System.getProperty(getKey(kind, monitorPort));
+        if (realm != null && !realm.equals(REALM)) {
+            throw new MojoFailureException("The database server on monitor port " + monitorPort + " is tracked by "
+                    + "another copy of the plug-in, which Maven loads for modules that declare different "
+                    + "<dependencies> for it. Declare the same plug-in dependencies in every module that uses the "
+                    + "server or give each copy its own monitor port");
+        }
+    }
+
+    /**
+     * Remove the registration of a server tracked by this copy of the plug-in's classes.
+     *
+     * @param kind        The kind of tracking, {@code shared} or {@code async}.
+     * @param monitorPort The monitor port of the server.
+     */
+    static void unregister(final String kind, final int monitorPort) {
+        final Properties properties = System.getProperties();
+        synchronized (properties) {
+            if (REALM.equals(properties.getProperty(getKey(kind, monitorPort)))) {
+                properties.remove(getKey(kind, monitorPort));
+            }
+        }
+    }
+
+    /**
+     * Get the name of the system property that registers a server.
+     *
+     * @param kind        The kind of tracking, {@code shared} or {@code async}.
+     * @param monitorPort The monitor port of the server.
+     * @return The name of the system property.
+     */
+    private static String getKey(final String kind, final int monitorPort) {
+        return "inmemdb." + kind + "." + monitorPort + ".realm";
+    }
+}
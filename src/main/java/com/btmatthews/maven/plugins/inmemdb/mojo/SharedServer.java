@@ -0,0 +1,319 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import com.btmatthews.utils.monitor.Server;
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A database server shared by the modules of a reactor build. The first module to run the server starts and loads it
+ * and later modules attach to it and only load the sources that have not already been loaded. Each module holds a
+ * reference to the server that it releases when it stops the server and the server is only stopped when the last
+ * reference is released and no module that has still to be built will use it. Servers are identified by their monitor
+ * port, which is unique within the Maven JVM, and are shared between modules that load the same copy of the plug-in's
+ * classes. A module that loads another copy fails, see {@link PluginRealm}. All operations are safe for parallel
+ * builds.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+final class SharedServer {
+
+    /**
+     * The kind of tracking used to register the shared servers with {@link PluginRealm}.
+     */
+    private static final String REALM_KIND = "shared";
+    /**
+     * The shared servers keyed by their monitor port. Guarded by the {@link SharedServer} class.
+     */
+    private static final Map<Integer, SharedServer> SERVERS = new HashMap<Integer, SharedServer>();
+    /**
+     * The monitor port of the server.
+     */
+    private final int monitorPort;
+    /**
+     * The database type.
+     */
+    private final String type;
+    /**
+     * The database name.
+     */
+    private final String database;
+    /**
+     * Released when the server has been started and loaded or has failed.
+     */
+    private final CountDownLatch ready = new CountDownLatch(1);
+    /**
+     * The fingerprints of the sources that have been loaded. Guarded by this object.
+     */
+    private final Set<String> loaded = new HashSet<String>();
+    /**
+     * The number of modules holding a reference to the server. Guarded by the {@link SharedServer} class.
+     */
+    private int references;
+    /**
+     * Set when the last reference has been released and the server is being stopped. Guarded by the
+     * {@link SharedServer} class.
+     */
+    private boolean stopping;
+    /**
+     * Set when a module has claimed responsibility for starting the server. Guarded by this object.
+     */
+    private boolean claimed;
+    /**
+     * The thread running the server.
+     */
+    private volatile Thread thread;
+    /**
+     * The server once it has been started.
+     */
+    private volatile Server server;
+    /**
+     * The port on which the server accepts connections or {@code null} for the default port of the database type.
+     */
+    private volatile Integer port;
+    /**
+     * The reason the server failed or {@code null}.
+     */
+    private volatile String failure;
+
+    /**
+     * Private constructor used by {@link #acquire(int, String, String)}.
+     *
+     * @param monitorPort The monitor port of the server.
+     * @param type        The database type.
+     * @param database    The database name.
+     */
+    private SharedServer(final int monitorPort, final String type, final String database) {
+        this.monitorPort = monitorPort;
+        this.type = type;
+        this.database = database;
+    }
+
+    /**
+     * Acquire a reference to the shared server with a monitor port, creating it if it does not exist. If the server
+     * is being stopped because its last reference was released this waits for it to stop and a new server is created.
+     *
+     * @param monitorPort The monitor port of the server.
+     * @param type        The database type.
+     * @param database    The database name.
+     * @return The shared server.
+     * @throws MojoFailureException If the shared server has a different database type or name or is shared by another
+     *                              copy of the plug-in's classes.
+     */
+    static synchronized SharedServer acquire(final int monitorPort, final String type, final String database)
+            throws MojoFailureException {
+        SharedServer sharedServer = SERVERS.get(monitorPort);
+        while (sharedServer != null && sharedServer.stopping) {
+            try {
+                SharedServer.class.wait();
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new MojoFailureException("Interrupted waiting for the shared database server to stop",
+                        exception);
+            }
+            sharedServer = SERVERS.get(monitorPort);
+        }
+        if (sharedServer == null) {
+            PluginRealm.claim(REALM_KIND, monitorPort);
+            sharedServer = new SharedServer(monitorPort, type, database);
+            SERVERS.put(monitorPort, sharedServer);
+        } else if (!sharedServer.type.equals(type) || !sharedServer.database.equals(database)) {
+            throw new MojoFailureException("The database server shared on monitor port " + monitorPort + " is a "
+                    + sharedServer.type + " database named " + sharedServer.database);
+        }
+        sharedServer.references++;
+        return sharedServer;
+    }
+
+    /**
+     * Release a reference to the shared server with a monitor port. When the last reference is released and no module
+     * that has still to be built will use the server it is marked as stopping and the caller must stop it and then
+     * call {@link #stopped(long)}. Otherwise, the server is left running for the modules that have still to be built,
+     * which acquire it again, so that it is not stopped and restarted between modules that are built one after another.
+     *
+     * @param monitorPort    The monitor port of the server.
+     * @param pendingModules The number of modules that have still to be built and will use the server.
+     * @return The shared server or {@code null} if there is no shared server with the monitor port.
+     * @throws MojoFailureException If there is no shared server with the monitor port because it is shared by another
+     *                              copy of the plug-in's classes.
+     */
+    static synchronized SharedServer release(final int monitorPort, final int pendingModules)
+            throws MojoFailureException {
+        final SharedServer sharedServer = SERVERS.get(monitorPort);
+        if (sharedServer == null) {
+            PluginRealm.check(REALM_KIND, monitorPort);
+        } else {
+            if (sharedServer.references > 0) {
+                sharedServer.references--;
+            }
+            sharedServer.stopping = sharedServer.references == 0 && pendingModules == 0;
+        }
+        return sharedServer;
+    }
+
+    /**
+     * Get the number of modules holding a reference to the server.
+     *
+     * @return The number of references.
+     */
+    int getReferences() {
+        synchronized (SharedServer.class) {
+            return references;
+        }
+    }
+
+    /**
+     * Determine whether the last reference to the server has been released and it must be stopped.
+     *
+     * @return {@code true} if the server must be stopped. Otherwise, {@code false}.
+     */
+    boolean isStopping() {
+        synchronized (SharedServer.class) {
+            return stopping;
+        }
+    }
+
+    /**
+     * Claim responsibility for starting the server. Only the first caller succeeds.
+     *
+     * @return {@code true} if the caller must start the server. Otherwise, {@code false}.
+     */
+    synchronized boolean claim() {
+        if (claimed) {
+            return false;
+        }
+        claimed = true;
+        return true;
+    }
+
+    /**
+     * Record the thread running the server so that {@link #stopped(long)} can wait for it to finish.
+     *
+     * @param thread The thread running the server.
+     */
+    void setThread(final Thread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * Record that the server has been started and loaded.
+     *
+     * @param server  The server.
+     * @param port    The port on which the server accepts connections.
+     * @param sources The fingerprints of the sources that were loaded.
+     */
+    void ready(final Server server, final Integer port, final Collection<String> sources) {
+        synchronized (this) {
+            loaded.addAll(sources);
+        }
+        this.server = server;
+        this.port = port;
+        ready.countDown();
+    }
+
+    /**
+     * Record that the server could not be started or loaded and forget it so that a later module can start a new
+     * server. Nothing happens if the server has already been started and loaded.
+     *
+     * @param message The reason for the failure.
+     */
+    void failed(final String message) {
+        if (ready.getCount() > 0) {
+            failure = message;
+            ready.countDown();
+            forget();
+        }
+    }
+
+    /**
+     * Wait for the server to be started and loaded.
+     *
+     * @return The server.
+     * @throws MojoFailureException If the server could not be started or loaded.
+     */
+    Server await() throws MojoFailureException {
+        try {
+            ready.await();
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted waiting for the shared database server", exception);
+        }
+        if (failure != null) {
+            throw new MojoFailureException(failure);
+        }
+        return server;
+    }
+
+    /**
+     * Get the port on which the server accepts connections.
+     *
+     * @return The port or {@code null} for the default port of the database type.
+     */
+    Integer getPort() {
+        return port;
+    }
+
+    /**
+     * Record that a source is being loaded by a module.
+     *
+     * @param fingerprint The fingerprint of the source.
+     * @return {@code true} if the source has not been loaded before. Otherwise, {@code false}.
+     */
+    synchronized boolean markLoaded(final String fingerprint) {
+        return loaded.add(fingerprint);
+    }
+
+    /**
+     * Wait for the server that was sent the stop command after its last reference was released to stop and then
+     * forget it so that a later module can start a new server on the same ports.
+     *
+     * @param timeout The maximum time to wait in milliseconds.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    void stopped(final long timeout) throws InterruptedException {
+        try {
+            final Thread serverThread = thread;
+            if (serverThread != null) {
+                serverThread.join(timeout);
+            }
+        } finally {
+            forget();
+        }
+    }
+
+    /**
+     * Remove the server from the shared servers and wake the modules waiting for it to stop.
+     */
+    private void forget() {
+        synchronized (SharedServer.class) {
+            if (SERVERS.get(monitorPort) == this) {
+                SERVERS.remove(monitorPort);
+                PluginRealm.unregister(REALM_KIND, monitorPort);
+            }
+            SharedServer.class.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.btmatthews.maven.plugins.inmemdb.mojo;
+
+import com.btmatthews.utils.monitor.Logger;
+import com.btmatthews.utils.monitor.Server;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+
+/**
+ * This plug-in Mojo starts an In Memory Database and loads it on a background thread so that the start-up overlaps
+ * with the rest of the build. It accepts the same parameters as the {@code run} goal and is intended to be bound to
+ * an early phase such as {@code initialize}. The {@code await} goal waits for the database to be loaded and fails the
+ * build if it could not be started or loaded.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+@Mojo(name = "start-async", defaultPhase = LifecyclePhase.INITIALIZE)
+public final class StartAsyncMojo extends AbstractDatabaseRunMojo {
+
+    /**
+     * Tracks the database server being started in the background.
+     */
+    private volatile AsyncStart asyncStart;
+    /**
+     * Set to {@code true} when an error is reported while the database server is being started or loaded.
+     */
+    private volatile boolean errors;
+
+    /**
+     * Publish the properties describing the database server and then start and load it on a background thread. The
+     * server is run by the background thread rather than a monitor daemon thread so that it is known when the
+     * server has been loaded.
+     *
+     * @throws MojoFailureException If the configuration is invalid or a port could not be allocated.
+     */
+    @Override
+    public void execute() throws MojoFailureException {
+        if (isSkip()) {
+            getLog().info("Skipping inmemdb:start-async because inmemdb.skip=='true'");
+            return;
+        }
+        MonitorSettings.setDaemon(this, false);
+        prepare();
+        asyncStart = AsyncStart.begin(MonitorSettings.getMonitorPort(this));
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runInBackground();
+            }
+        }, "inmemdb-start-async");
+        thread.setDaemon(true);
+        thread.start();
+        getLog().info("Starting database server in the background");
+    }
+
+    /**
+     * Start and load the database server and record the outcome. Servers running in the Maven JVM are loaded by
+     * {@link #started(Server, Logger)} and only return from {@link #start()} when they are stopped, so if they return
+     * without having been loaded they failed to start.
+     */
+    private void runInBackground() {
+        try {
+            start();
+            if (isDetached()) {
+                complete();
+            } else {
+                asyncStart.failed("Database server stopped before it was loaded", null);
+            }
+        } catch (final MojoFailureException exception) {
+            asyncStart.failed(exception.getMessage(), exception);
+        } catch (final RuntimeException exception) {
+            asyncStart.failed("Error starting database server", exception);
+        }
+    }
+
+    /**
+     * Load the database server and record that it is ready or that errors were reported while loading it.
+     *
+     * @param server The database server.
+     * @param logger Used to log information and error messages.
+     */
+    @Override
+    public void started(final Server server, final Logger logger) {
+        try {
+            super.started(server, logger);
+        } catch (final RuntimeException exception) {
+            asyncStart.failed("Error loading database server", exception);
+            throw exception;
+        }
+        complete();
+    }
+
+    /**
+     * Record that the database server is ready or that errors were reported while starting or loading it.
+     */
+    private void complete() {
+        if (errors) {
+            asyncStart.failed("Errors were reported while starting or loading the database server", null);
+        } else {
+            asyncStart.succeeded();
+        }
+    }
+
+    /**
+     * Write an error message to the build log and remember that an error was reported.
+     *
+     * @param message The error message.
+     */
+    @Override
+    public void logError(final String message) {
+        errors = true;
+        super.logError(message);
+    }
+
+    /**
+     * Write an error message and exception to the build log and remember that an error was reported.
+     *
+     * @param message The error message.
+     * @param cause   The exception that caused the error.
+     */
+    @Override
+    public void logError(final String message, final Throwable cause) {
+        errors = true;
+        super.logError(message, cause);
+    }
+}
@@ -17,10 +17,18 @@
 package com.btmatthews.maven.plugins.inmemdb.mojo;
 
 import com.btmatthews.utils.monitor.mojo.AbstractStopMojo;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Stop an in-memory database server that is running as a daemon.
@@ -31,6 +39,16 @@ import org.apache.maven.plugins.annotations.Parameter;
 @Mojo(name = "stop", defaultPhase = LifecyclePhase.POST_INTEGRATION_TEST)
 public class StopMojo extends AbstractStopMojo {
 
+    /**
+     * The maximum number of milliseconds to wait for a shared database server to stop.
+     */
+    private static final long SHARED_STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The goal that runs a database server shared by the reactor.
+     */
+    private static final String RUN_GOAL = "run";
+
     /**
      * Indicates whether or not the Mojo execution should be skipped.
      *
@@ -39,6 +57,41 @@ public class StopMojo extends AbstractStopMojo {
     @Parameter(property = "inmemdb.skip", defaultValue = "false")
     private boolean skip;
 
+    /**
+     * If {@code true} the database server was started in a detached JVM for reuse by later builds. Instead of being
+     * stopped its lease is renewed so that the idle timeout is measured from the end of this build.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.reuse", defaultValue = "false")
+    private boolean reuse;
+
+    /**
+     * If {@code true} the database server is shared by the modules of a reactor build. Instead of being stopped the
+     * reference held by this module is released and the server is only stopped when the last reference is released
+     * and none of the modules that have still to be built run the shared server.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(property = "inmemdb.shared", defaultValue = "false")
+    private boolean shared;
+
+    /**
+     * The Maven session used to find the modules of the reactor that have still to be built.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    /**
+     * The descriptor of this plug-in used to find its executions in the modules of the reactor.
+     *
+     * @since 2.0.0
+     */
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    private PluginDescriptor plugin;
+
     /**
      * Checks whether the Mojo execution is being skipped before delegating to the super class to
      * stop the in-memory database.
@@ -50,8 +103,130 @@ public class StopMojo extends AbstractStopMojo {
     public void execute() throws MojoFailureException {
         if (skip) {
             getLog().info("Skipping inmemdb:stop because inmemdb.skip=='true'");
+        } else if (reuse) {
+            getLog().info("Leaving database server running for reuse by later builds");
+            createMonitor().sendCommand("configure lease=release", this);
+        } else if (shared) {
+            stopShared();
         } else {
             super.execute();
         }
     }
+
+    /**
+     * Release the reference this module holds to the database server shared by the reactor and stop the server if
+     * it was the last reference and none of the modules that have still to be built run the shared server. The
+     * server is stopped even if it was not started by this build.
+     *
+     * @throws MojoFailureException If there was a problem stopping the server.
+     * @since 2.0.0
+     */
+    private void stopShared() throws MojoFailureException {
+        final int monitorPort = MonitorSettings.getMonitorPort(this);
+        final int pendingModules = countPendingModules(monitorPort);
+        final SharedServer server = SharedServer.release(monitorPort, pendingModules);
+        if (server != null && !server.isStopping()) {
+            if (server.getReferences() > 0) {
+                getLog().info("Leaving database server running for " + server.getReferences()
+                        + " other module(s) in the reactor");
+            } else {
+                getLog().info("Leaving database server running for " + pendingModules
+                        + " module(s) that have still to be built");
+            }
+            return;
+        }
+        super.execute();
+        if (server != null) {
+            try {
+                server.stopped(SHARED_STOP_TIMEOUT);
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new MojoFailureException("Interrupted waiting for the shared database server to stop",
+                        exception);
+            }
+        }
+    }
+
+    /**
+     * Count the modules of the reactor, other than the current module, that have still to be built and run the
+     * database server shared on a monitor port. The count is zero if the Maven session is not available.
+     *
+     * @param monitorPort The monitor port of the shared database server.
+     * @return The number of modules.
+     * @since 2.0.0
+     */
+    private int countPendingModules(final int monitorPort) {
+        if (session == null || plugin == null || session.getProjects() == null) {
+            return 0;
+        }
+        int count = 0;
+        for (final MavenProject project : session.getProjects()) {
+            if (!project.equals(session.getCurrentProject())
+                    && session.getResult().getBuildSummary(project) == null
+                    && runsSharedServer(project, monitorPort)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Determine whether a module has an execution of the {@code run} goal of this plug-in with {@code shared} set
+     * and the same monitor port.
+     *
+     * @param project     The module.
+     * @param monitorPort The monitor port of the shared database server.
+     * @return {@code true} if the module runs the shared database server. Otherwise, {@code false}.
+     * @since 2.0.0
+     */
+    private boolean runsSharedServer(final MavenProject project, final int monitorPort) {
+        final Plugin buildPlugin = project.getPlugin(plugin.getPluginLookupKey());
+        if (buildPlugin == null) {
+            return false;
+        }
+        for (final PluginExecution execution : buildPlugin.getExecutions()) {
+            if (execution.getGoals().contains(RUN_GOAL)
+                    && Boolean.parseBoolean(getSetting(project, buildPlugin, execution, "shared", "inmemdb.shared"))
+                    && String.valueOf(monitorPort).equals(
+                    getSetting(project, buildPlugin, execution, "monitorPort", "monitor.port"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the value of a parameter of an execution of this plug-in in a module from the configuration of the
+     * execution, the configuration of the plug-in or the property from which the parameter defaults.
+     *
+     * @param project      The module.
+     * @param buildPlugin  The plug-in as declared by the module.
+     * @param execution    The execution.
+     * @param name         The name of the parameter.
+     * @param propertyName The name of the property from which the parameter defaults.
+     * @return The value or {@code null} if the parameter is not set.
+     * @since 2.0.0
+     */
+    private String getSetting(final MavenProject project, final Plugin buildPlugin, final PluginExecution execution,
+                              final String name, final String propertyName) {
+        for (final Object configuration : new Object[]{execution.getConfiguration(), buildPlugin.getConfiguration()}) {
+            if (configuration instanceof Xpp3Dom) {
+                final Xpp3Dom child = ((Xpp3Dom) configuration).getChild(name);
+                if (child != null && child.getValue() != null) {
+                    return child.getValue().trim();
+                }
+            }
+        }
+        String value = null;
+        if (session.getUserProperties() != null) {
+            value = session.getUserProperties().getProperty(propertyName);
+        }
+        if (value == null) {
+            value = System.getProperty(propertyName);
+        }
+        if (value == null) {
+            value = project.getProperties().getProperty(propertyName);
+        }
+        return value;
+    }
 }
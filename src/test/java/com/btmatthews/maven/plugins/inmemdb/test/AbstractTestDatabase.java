@@ -16,17 +16,48 @@
 
 package com.btmatthews.maven.plugins.inmemdb.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.matches;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Properties;
+
 import com.btmatthews.maven.plugins.inmemdb.Database;
+import com.btmatthews.maven.plugins.inmemdb.SQLDatabase;
+import com.btmatthews.maven.plugins.inmemdb.client.TransactionScope;
+import com.btmatthews.maven.plugins.inmemdb.db.AbstractDatabase;
+import com.btmatthews.maven.plugins.inmemdb.db.Concurrency;
+import com.btmatthews.maven.plugins.inmemdb.db.Profile;
+import com.btmatthews.maven.plugins.inmemdb.db.Storage;
+import com.btmatthews.maven.plugins.inmemdb.db.h2.H2Database;
 import com.btmatthews.maven.plugins.inmemdb.mojo.DataSet;
 import com.btmatthews.maven.plugins.inmemdb.mojo.Script;
 import com.btmatthews.utils.monitor.Logger;
 import com.btmatthews.utils.monitor.Server;
 import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 
 /**
@@ -44,6 +75,12 @@ public abstract class AbstractTestDatabase {
     @Mock
     private Logger logger;
 
+    /**
+     * Used to create temporary directories for database snapshots.
+     */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     /**
      * The main test fixture.
      */
@@ -56,19 +93,59 @@ public abstract class AbstractTestDatabase {
      */
     protected abstract Server createDatabaseServer();
 
+    /**
+     * Concrete classes can override this method to run the database server in embedded mode.
+     *
+     * @return {@code true} if the database server should run in embedded mode. Otherwise, {@code false}.
+     */
+    protected boolean isEmbedded() {
+        return false;
+    }
+
+    /**
+     * Concrete classes can override this method to store the database outside the heap or in files.
+     *
+     * @return The storage backend.
+     */
+    protected Storage getStorage() {
+        return Storage.HEAP;
+    }
+
     /**
      * Prepare for test case execute by creating, configuring and starting the main test fixture.
      */
     @Before
     public void setUp() {
         initMocks(this);
-        database = createDatabaseServer();
-        database.configure("database", "test", logger);
-        database.configure("username", "sa", logger);
-        database.configure("password", "", logger);
+        database = createDatabaseServer(null);
         database.start(logger);
     }
 
+    /**
+     * Create and configure the main test fixture.
+     *
+     * @param profile The performance profile or {@code null} to use the default settings.
+     * @return The main test fixture.
+     */
+    private Server createDatabaseServer(final Profile profile) {
+        final Server server = createDatabaseServer();
+        server.configure("database", "test", logger);
+        server.configure("username", "sa", logger);
+        server.configure("password", "", logger);
+        server.configure("embedded", isEmbedded(), logger);
+        server.configure("storage", getStorage().getStorageName(), logger);
+        if (getStorage() == Storage.DISK) {
+            server.configure("cacheSize", 8, logger);
+        }
+        server.configure("copies", 2, logger);
+        server.configure("serverThreads", 8, logger);
+        server.configure("resettable", Boolean.TRUE, logger);
+        if (profile != null) {
+            server.configure("profile", profile.getProfileName(), logger);
+        }
+        return server;
+    }
+
     /**
      * Clean up after test case execution by stopping the main test fixture.
      */
@@ -84,6 +161,37 @@ public abstract class AbstractTestDatabase {
     public void testStartStop() {
     }
 
+    /**
+     * Verify that the database server reports that it has started as soon as start returns.
+     */
+    @Test
+    public void testReadyAfterStart() {
+        assertTrue(database.isStarted(logger));
+    }
+
+    /**
+     * Verify that a thread asking whether the database server has started before it has begun starting waits for it
+     * to become ready, as the monitor does when it runs as a daemon.
+     *
+     * @throws InterruptedException If the test was interrupted.
+     */
+    @Test
+    public void testReadyBeforeStart() throws InterruptedException {
+        database.stop(logger);
+        final boolean[] started = new boolean[1];
+        final Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started[0] = database.isStarted(logger);
+            }
+        });
+        waiter.start();
+        Thread.sleep(200L);
+        database.start(logger);
+        waiter.join();
+        assertTrue(started[0]);
+    }
+
     /**
      * Verify that a valid DDL/DML script can be loaded.
      */
@@ -185,4 +293,693 @@ public abstract class AbstractTestDatabase {
         source.setSourceFile("src/test/resources/users.xls");
         ((Database)database).load(logger, source);
     }
+
+    /**
+     * Verify that data loaded through the loader data source is visible to clients using the data source
+     * that describes the connection to the database.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testLoaderDataSourceSharesDatabase() throws SQLException {
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        assertEquals(3, countUsers());
+    }
+
+    /**
+     * Verify that a snapshot of the database can be restored after the data has been modified.
+     *
+     * @throws IOException  If there was an error creating the snapshot directory.
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testSnapshotRestore() throws IOException, SQLException {
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        final File directory = temporaryFolder.newFolder("snapshot");
+        assertTrue(((SQLDatabase)database).snapshot(logger, directory));
+        executeUpdate("DELETE FROM users");
+        assertEquals(0, countUsers());
+        assertTrue(((SQLDatabase)database).restore(logger, directory));
+        assertEquals(3, countUsers());
+    }
+
+    /**
+     * Verify that the settings used to key the snapshot cache do not depend on the port, which changes from run to run
+     * when it is chosen automatically.
+     */
+    @Test
+    public void testSettingsIgnorePort() {
+        final Server other = createDatabaseServer(null);
+        other.configure("port", 1, logger);
+        assertEquals(((SQLDatabase)database).getSettings(), ((SQLDatabase)other).getSettings());
+        assertEquals("test", ((SQLDatabase)database).getSettings().get("database"));
+    }
+
+    /**
+     * Verify that clones are created from the snapshot saved once the database was loaded and that a clone cannot
+     * replace the database, one of its copies or another clone.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testCloneDuplicateName() throws SQLException {
+        database.stop(logger);
+        database = createDatabaseServer(null);
+        database.configure("cloneable", Boolean.TRUE, logger);
+        database.start(logger);
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        assertTrue(((SQLDatabase)database).saveBaseline(logger));
+        executeUpdate("DELETE FROM users");
+        database.configure("clone", "test cloned", logger);
+        database.configure("clone", "test cloned", logger);
+        database.configure("clone", "test test", logger);
+        verify(logger).logInfo(startsWith("Cloned database test as cloned"));
+        verify(logger, times(2)).logError(matches("Cannot clone database 'test' as '(cloned|test)' because a database"
+                + " with that name already exists\\."));
+        final Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        final Connection connection = DriverManager.getConnection(((SQLDatabase)database).getCloneUrl("cloned"),
+                properties);
+        try {
+            final ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM users");
+            assertTrue(resultSet.next());
+            assertEquals(3, resultSet.getInt(1));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Verify that clones of a database whose changes are tracked do not inherit the table and triggers that track
+     * the changes.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testCloneWithoutChangeTracker() throws SQLException {
+        database.stop(logger);
+        database = createDatabaseServer(null);
+        database.configure("cloneable", Boolean.TRUE, logger);
+        database.configure("trackChanges", Boolean.TRUE, logger);
+        database.start(logger);
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        assertTrue(((SQLDatabase)database).saveBaseline(logger));
+        database.configure("clone", "test untracked", logger);
+        final Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        final Connection connection = DriverManager.getConnection(((SQLDatabase)database).getCloneUrl("untracked"),
+                properties);
+        try {
+            final ResultSet resultSet = connection.getMetaData().getTables(null, null, "INMEMDB_DIRTY", null);
+            assertFalse(resultSet.next());
+            assertEquals(1, connection.createStatement().executeUpdate(
+                    "INSERT INTO users VALUES ('clone', 'secret', 'Clone')"));
+        } finally {
+            connection.close();
+        }
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+    }
+
+    /**
+     * Verify that the copies of the database are created from its current state and that they are independent of
+     * each other.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testCreateCopies() throws SQLException {
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        assertTrue(((SQLDatabase)database).createCopies(logger));
+        final Connection first = getCopyConnection("1");
+        try {
+            first.createStatement().executeUpdate("DELETE FROM users");
+        } finally {
+            first.close();
+        }
+        final Connection second = getCopyConnection("2");
+        try {
+            final ResultSet resultSet = second.createStatement().executeQuery("SELECT COUNT(*) FROM users");
+            resultSet.next();
+            assertEquals(3, resultSet.getInt(1));
+        } finally {
+            second.close();
+        }
+        assertEquals(3, countUsers());
+    }
+
+    /**
+     * Verify that the reset command returns the database to the state that was saved as its baseline.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testReset() throws SQLException {
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        assertTrue(((SQLDatabase)database).saveBaseline(logger));
+        executeUpdate("DELETE FROM users");
+        assertEquals(0, countUsers());
+        database.configure("reset", "test", logger);
+        assertEquals(3, countUsers());
+    }
+
+    /**
+     * Verify that a reset of a database whose changes are tracked returns the modified tables to the state that was
+     * saved as the baseline even when they are referred to by foreign keys.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testResetTrackedChanges() throws SQLException {
+        database.configure("trackChanges", Boolean.TRUE, logger);
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        executeUpdate("CREATE TABLE roles (username_txt VARCHAR(16) NOT NULL REFERENCES users (username_txt), "
+                + "role_txt VARCHAR(16) NOT NULL)");
+        executeUpdate("INSERT INTO roles VALUES ('bmatthews68', 'admin')");
+        assertTrue(((SQLDatabase)database).saveBaseline(logger));
+        executeUpdate("DELETE FROM users WHERE username_txt = 'yaromir'");
+        executeUpdate("UPDATE users SET name_txt = 'Brian Matthews' WHERE username_txt = 'bmatthews68'");
+        assertEquals(2, countUsers());
+        database.configure("reset", "test", logger);
+        assertEquals(3, countUsers());
+        final Connection connection = ((SQLDatabase)database).getDataSource().getConnection();
+        try {
+            final ResultSet resultSet = connection.createStatement().executeQuery(
+                    "SELECT name_txt FROM users WHERE username_txt = 'bmatthews68'");
+            assertTrue(resultSet.next());
+            assertEquals("Brian", resultSet.getString(1));
+        } finally {
+            connection.close();
+        }
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+    }
+
+    /**
+     * Verify that the optimizer statistics can be refreshed after the database has been loaded and that the time taken
+     * is logged.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testRefreshStatistics() throws SQLException {
+        ((SQLDatabase)database).refreshStatistics(logger);
+        verify(logger, never()).logInfo(startsWith("Refreshed the optimizer statistics"));
+        database.configure("refreshStatistics", Boolean.TRUE, logger);
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        ((SQLDatabase)database).refreshStatistics(logger);
+        verify(logger).logInfo(matches("Refreshed the optimizer statistics of database test in \\d+ ms"
+                + "|Database test does not keep optimizer statistics"));
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+        assertEquals(3, countUsers());
+    }
+
+    /**
+     * Verify that the database and its copies reject modifications once they have been made read-only but can still
+     * be queried.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testReadOnlyAfterLoad() throws SQLException {
+        database.configure("readOnlyAfterLoad", Boolean.TRUE, logger);
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        assertTrue(((SQLDatabase)database).createCopies(logger));
+        ((SQLDatabase)database).makeReadOnly(logger);
+        verify(logger).logInfo(matches("Made database test read-only in \\d+ ms"));
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+        try {
+            executeUpdate("INSERT INTO users VALUES ('writer', 'secret', 'Writer')");
+            fail("The database should be read-only");
+        } catch (final SQLException exception) {
+            // Expected
+        }
+        final Connection connection = getCopyConnection("1");
+        try {
+            connection.createStatement().executeUpdate("DELETE FROM users");
+            fail("The copy should be read-only");
+        } catch (final SQLException exception) {
+            // Expected
+        } finally {
+            connection.close();
+        }
+        assertEquals(3, countUsers());
+    }
+
+    /**
+     * Verify that the memory in use is logged after the database has been loaded and that the size of the database is
+     * included if it is stored outside the heap.
+     */
+    @Test
+    public void testLogMemoryUsage() throws IOException {
+        final File report = new File(temporaryFolder.getRoot(), "inmemdb-memory.json");
+        database.configure("memoryReport", report, logger);
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        ((SQLDatabase)database).logMemoryUsage(logger);
+        final String heap = "Memory in use after loading database test: heap \\d+ MB \\(\\d+ MB before loading\\),"
+                + " native \\d+ MB";
+        if (getStorage() == Storage.HEAP) {
+            verify(logger).logInfo(matches(heap));
+        } else {
+            verify(logger).logInfo(matches(heap + ", " + getStorage().getStorageName() + " storage \\d+ MB"));
+        }
+        verify(logger).logInfo(matches("Table \\w+\\.USERS of database test: 3 rows, (about )?[1-9]\\d* KB"));
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+        final String json = FileUtils.fileRead(report);
+        assertTrue(json.contains("\"database\": \"test\""));
+        assertTrue(json.contains("\"heapBeforeLoad\": "));
+        assertTrue(json.matches("(?s).*\\{\"schema\": \"\\w+\", \"name\": \"USERS\", \"rows\": 3,"
+                + " \"bytes\": [1-9]\\d*, .*"));
+    }
+
+    /**
+     * Verify that the memory in use is logged, including the heap in use before the database was created, even if no
+     * memory report file was requested and no sources were loaded.
+     */
+    @Test
+    public void testLogMemoryUsageWithoutReport() {
+        ((SQLDatabase)database).logMemoryUsage(logger);
+        verify(logger).logInfo(matches("Memory in use after loading database test: heap \\d+ MB \\(\\d+ MB before"
+                + " loading\\), native \\d+ MB.*"));
+        verify(logger, never()).logInfo(startsWith("Wrote the memory report"));
+    }
+
+    /**
+     * Verify that the heap in use before loading is reported as unavailable when it was not measured.
+     *
+     * @throws IOException If there was an error reading the memory report.
+     */
+    @Test
+    public void testLogMemoryUsageWithoutHeapMeasurement() throws IOException {
+        database.stop(logger);
+        database = createDatabaseServer(null);
+        final File report = new File(temporaryFolder.getRoot(), "inmemdb-memory.json");
+        database.configure("memoryReport", report, logger);
+        database.configure("measureHeap", Boolean.FALSE, logger);
+        database.start(logger);
+        assertTrue(database.isStarted(logger));
+        ((SQLDatabase)database).logMemoryUsage(logger);
+        verify(logger).logInfo(matches("Memory in use after loading database test: heap \\d+ MB \\(unavailable before"
+                + " loading\\), native \\d+ MB.*"));
+        assertFalse(FileUtils.fileRead(report).contains("\"heapBeforeLoad\""));
+    }
+
+    /**
+     * Verify that the peak number of concurrent sessions is reported when the database is stopped.
+     *
+     * @throws Exception If there was an error connecting to the database or the test was interrupted.
+     */
+    @Test
+    public void testPeakSessions() throws Exception {
+        database.stop(logger);
+        database = createDatabaseServer(null);
+        database.configure("sampleSessions", Boolean.TRUE, logger);
+        database.start(logger);
+        final Connection first = ((SQLDatabase)database).getDataSource().getConnection();
+        final Connection second = ((SQLDatabase)database).getDataSource().getConnection();
+        final Connection third = ((SQLDatabase)database).getDataSource().getConnection();
+        try {
+            Thread.sleep(1000);
+        } finally {
+            third.close();
+            second.close();
+            first.close();
+        }
+        database.stop(logger);
+        verify(logger).logInfo(matches("Peak concurrent sessions for database test: ([3-9]|\\d{2,})"));
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+    }
+
+    /**
+     * Verify that the sessions are not sampled unless session sampling was configured.
+     */
+    @Test
+    public void testNoSessionSampling() {
+        database.stop(logger);
+        verify(logger, never()).logInfo(startsWith("Peak concurrent sessions"));
+        verify(logger, never()).logInfo(startsWith("Lock contention"));
+    }
+
+    /**
+     * Verify that the database can be started and loaded using each of the transaction models it supports and that
+     * the others are rejected.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testConcurrency() throws SQLException {
+        int rejected = 0;
+        for (final Concurrency concurrency : Concurrency.values()) {
+            database.stop(logger);
+            database = createDatabaseServer(null);
+            database.configure("concurrency", concurrency.getConcurrencyName(), logger);
+            database.start(logger);
+            if (((AbstractDatabase)database).getConcurrency() != concurrency) {
+                rejected++;
+                continue;
+            }
+            final Script script = new Script();
+            script.setSourceFile("src/test/resources/create_database.sql");
+            ((Database)database).load(logger, script);
+            final DataSet source = new DataSet();
+            source.setSourceFile("src/test/resources/users.csv");
+            ((Database)database).load(logger, source);
+            assertEquals(3, countUsers());
+        }
+        assertTrue(rejected < Concurrency.values().length);
+        verify(logger, times(rejected)).logError(matches("'\\w+' is not a concurrency option .*"));
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+    }
+
+    /**
+     * Verify that a session waiting for a row locked by another session is reported when the database is stopped.
+     * H2 does not expose its lock waits.
+     *
+     * @throws Exception If there was an error updating the database or the test was interrupted.
+     */
+    @Test
+    public void testLockContention() throws Exception {
+        database.stop(logger);
+        database = createDatabaseServer(null);
+        database.configure("sampleSessions", Boolean.TRUE, logger);
+        database.start(logger);
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        final Connection holder = ((SQLDatabase)database).getDataSource().getConnection();
+        final Connection waiter = ((SQLDatabase)database).getDataSource().getConnection();
+        try {
+            holder.setAutoCommit(false);
+            holder.createStatement().executeUpdate(
+                    "UPDATE users SET name_txt = 'Holder' WHERE username_txt = 'bmatthews68'");
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        waiter.createStatement().executeUpdate(
+                                "UPDATE users SET name_txt = 'Waiter' WHERE username_txt = 'bmatthews68'");
+                    } catch (final SQLException exception) {
+                        // The lock wait may time out before the holder commits
+                    }
+                }
+            };
+            thread.start();
+            Thread.sleep(1000);
+            holder.commit();
+            thread.join();
+        } finally {
+            waiter.close();
+            holder.close();
+        }
+        database.stop(logger);
+        if (database instanceof H2Database) {
+            verify(logger, never()).logInfo(startsWith("Lock contention"));
+        } else {
+            verify(logger).logInfo(matches("Lock contention for database test: waits in [1-9]\\d* of \\d+ samples,"
+                    + " peak 1 waiting, 0 deadlock\\(s\\)"));
+        }
+    }
+
+    /**
+     * Verify that the database can be started and loaded using each of the performance profiles.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testProfiles() throws SQLException {
+        for (final Profile profile : Profile.values()) {
+            database.stop(logger);
+            database = createDatabaseServer(profile);
+            database.start(logger);
+            assertTrue(database.isStarted(logger));
+            final Script script = new Script();
+            script.setSourceFile("src/test/resources/create_database.sql");
+            ((Database)database).load(logger, script);
+            final DataSet source = new DataSet();
+            source.setSourceFile("src/test/resources/users.csv");
+            ((Database)database).load(logger, source);
+            assertEquals(3, countUsers());
+        }
+        verify(logger, times(Profile.values().length)).logInfo(startsWith("Applied profile "));
+        verify(logger, never()).logError(anyString());
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+    }
+
+    /**
+     * Verify that the settings the bulk load profile uses while the database is loaded do not apply to the clients
+     * that connect using the published JDBC URL once loading has ended, so that they can roll back.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testBulkLoadRollback() throws SQLException {
+        database.stop(logger);
+        database = createDatabaseServer(Profile.BULK_LOAD);
+        database.start(logger);
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        ((SQLDatabase)database).endLoad(logger);
+        final Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        final Connection connection = DriverManager.getConnection(((SQLDatabase)database).getUrl(), properties);
+        try {
+            connection.setAutoCommit(false);
+            assertEquals(3, connection.createStatement().executeUpdate("DELETE FROM users"));
+            connection.rollback();
+            final ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM users");
+            assertTrue(resultSet.next());
+            assertEquals(3, resultSet.getInt(1));
+            resultSet.close();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        assertEquals(3, countUsers());
+        verify(logger, never()).logError(anyString(), any(Throwable.class));
+    }
+
+    /**
+     * Verify that starting and stopping databases with each performance profile leaves the system properties of the
+     * JVM as they were, apart from where the engine sends its error log.
+     */
+    @Test
+    public void testProfilesRestoreSystemProperties() {
+        database.stop(logger);
+        final Properties before = getSystemProperties();
+        for (final Profile profile : Profile.values()) {
+            database = createDatabaseServer(profile);
+            database.start(logger);
+            assertTrue(database.isStarted(logger));
+            database.stop(logger);
+            assertEquals(before, getSystemProperties());
+        }
+        database = createDatabaseServer(null);
+        database.start(logger);
+    }
+
+    /**
+     * Verify that the work done through the connection pinned by a transaction scope is discarded when the scope
+     * ends even if the code that did the work committed it.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testTransactionScope() throws SQLException {
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        final TransactionScope scope = new TransactionScope("test", ((SQLDatabase)database).getDataSource().getConnection());
+        final Connection connection = DriverManager.getConnection(scope.getUrl());
+        connection.createStatement().executeUpdate("DELETE FROM users");
+        connection.commit();
+        connection.close();
+        final ResultSet resultSet = scope.getConnection().createStatement().executeQuery("SELECT COUNT(*) FROM users");
+        assertTrue(resultSet.next());
+        assertEquals(0, resultSet.getInt(1));
+        scope.end();
+        assertEquals(3, countUsers());
+    }
+
+    /**
+     * Verify that the work done in a nested transaction scope can be discarded without discarding the work done
+     * before it began and that the pinned connection cannot be unwrapped to escape the scope.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testNestedTransactionScope() throws SQLException {
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        final Connection rawConnection = ((SQLDatabase)database).getDataSource().getConnection();
+        final Class<? extends Connection> rawClass = rawConnection.getClass();
+        final TransactionScope scope = new TransactionScope("nested", rawConnection);
+        try {
+            final Connection connection = scope.getConnection();
+            final Statement statement = connection.createStatement();
+            statement.executeUpdate("DELETE FROM users WHERE username_txt = 'bmatthews68'");
+            final Savepoint savepoint = scope.beginNested();
+            statement.executeUpdate("DELETE FROM users");
+            scope.rollback(savepoint);
+            final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM users");
+            assertTrue(resultSet.next());
+            assertEquals(2, resultSet.getInt(1));
+            resultSet.close();
+            assertTrue(connection.isWrapperFor(Connection.class));
+            assertFalse(connection.isWrapperFor(rawClass));
+            try {
+                connection.unwrap(rawClass);
+                fail();
+            } catch (final SQLException exception) {
+            }
+        } finally {
+            scope.end();
+        }
+        assertEquals(3, countUsers());
+    }
+
+    /**
+     * Verify that a transaction scope begun on the server with the {@code begin} command can be used from the JVM
+     * hosting the server and that its work is discarded by the {@code end} command.
+     *
+     * @throws SQLException If there was an error querying the database.
+     */
+    @Test
+    public void testServerTransactionScope() throws SQLException {
+        final Script script = new Script();
+        script.setSourceFile("src/test/resources/create_database.sql");
+        ((Database)database).load(logger, script);
+        final DataSet source = new DataSet();
+        source.setSourceFile("src/test/resources/users.csv");
+        ((Database)database).load(logger, source);
+        database.configure("begin", "test scoped", logger);
+        verify(logger).logInfo(startsWith("Began transaction scope scoped on database test"));
+        final Connection connection = DriverManager.getConnection("jdbc:inmemdb:session:scoped");
+        connection.createStatement().executeUpdate("DELETE FROM users");
+        connection.commit();
+        connection.close();
+        database.configure("end", "test scoped", logger);
+        verify(logger).logInfo(startsWith("Rolled back transaction scope scoped on database test"));
+        assertEquals(3, countUsers());
+        database.configure("end", "test scoped", logger);
+        verify(logger).logError("Cannot roll back transaction scope 'scoped' on database 'test'.");
+        database.configure("begin", "other scoped", logger);
+        verify(logger).logError("Cannot execute begin command 'other scoped' for database 'test'.");
+    }
+
+    /**
+     * Connect to one of the copies of the database using its JDBC URL.
+     *
+     * @param number The number of the copy.
+     * @return The connection.
+     * @throws SQLException If there was an error connecting to the copy.
+     */
+    private Connection getCopyConnection(final String number) throws SQLException {
+        final Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        return DriverManager.getConnection(((SQLDatabase)database).getCopyUrl(number), properties);
+    }
+
+    /**
+     * Get a copy of the system properties excluding the property that Derby uses to find its error log.
+     *
+     * @return The system properties.
+     */
+    private static Properties getSystemProperties() {
+        final Properties properties = new Properties();
+        properties.putAll(System.getProperties());
+        properties.remove("derby.stream.error.field");
+        return properties;
+    }
+
+    /**
+     * Count the rows in the users table using the data source that describes the connection to the database.
+     *
+     * @return The number of rows.
+     * @throws SQLException If there was an error querying the database.
+     */
+    private int countUsers() throws SQLException {
+        final Connection connection = ((SQLDatabase)database).getDataSource().getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM users");
+            resultSet.next();
+            return resultSet.getInt(1);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Execute a DML statement using the data source that describes the connection to the database.
+     *
+     * @param sql The DML statement.
+     * @throws SQLException If there was an error executing the statement.
+     */
+    private void executeUpdate(final String sql) throws SQLException {
+        final Connection connection = ((SQLDatabase)database).getDataSource().getConnection();
+        try {
+            connection.createStatement().executeUpdate(sql);
+        } finally {
+            connection.close();
+        }
+    }
 }
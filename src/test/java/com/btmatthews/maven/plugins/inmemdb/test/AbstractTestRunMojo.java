@@ -16,23 +16,58 @@
 
 package com.btmatthews.maven.plugins.inmemdb.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 import java.util.Timer;
 import java.util.TimerTask;
 
 import com.btmatthews.maven.plugins.inmemdb.Source;
+import com.btmatthews.maven.plugins.inmemdb.client.MonitorClient;
+import com.btmatthews.maven.plugins.inmemdb.mojo.AwaitMojo;
 import com.btmatthews.maven.plugins.inmemdb.mojo.RunMojo;
 import com.btmatthews.maven.plugins.inmemdb.mojo.Script;
+import com.btmatthews.maven.plugins.inmemdb.mojo.StartAsyncMojo;
+import com.btmatthews.maven.plugins.inmemdb.mojo.StopMojo;
 import com.btmatthews.utils.monitor.Logger;
 import com.btmatthews.utils.monitor.Monitor;
+import org.apache.maven.execution.BuildSuccess;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.Mojo;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.ReflectionUtils;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.dbunit.database.DatabaseConnection;
 import org.dbunit.database.IDatabaseConnection;
 import org.dbunit.dataset.IDataSet;
@@ -104,6 +139,101 @@ public abstract class AbstractTestRunMojo {
         return getType() + "_users";
     }
 
+    /**
+     * Wait for the database server started on a daemon thread to be loaded by polling for the table created by the
+     * create script, giving up after a minute so that the assertions that follow report the failure.
+     *
+     * @param url The JDBC URL of the database.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private void awaitLoaded(final String url) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 60000L;
+        while (!isLoaded(url) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+        }
+    }
+
+    /**
+     * Wait for the database server listening on {@code port} to stop accepting connections, giving up after a
+     * minute.
+     *
+     * @param port The port of the database server.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private void awaitStopped(final int port) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 60000L;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                new Socket("localhost", port).close();
+            } catch (final IOException exception) {
+                return;
+            }
+            Thread.sleep(100L);
+        }
+    }
+
+    /**
+     * Wait for a snapshot to be stored in the cache directory, giving up after a minute.
+     *
+     * @param cacheDirectory The cache directory.
+     * @return The snapshot directory or {@code null} if no snapshot was stored.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private File awaitSnapshot(final File cacheDirectory) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 60000L;
+        while (System.currentTimeMillis() < deadline) {
+            final File[] files = cacheDirectory.listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    if (file.isDirectory() && !file.getName().contains(".tmp")) {
+                        return file;
+                    }
+                }
+            }
+            Thread.sleep(100L);
+        }
+        return null;
+    }
+
+    /**
+     * Overwrite every file beneath {@code directory} with content that no database engine can restore.
+     *
+     * @param directory The directory.
+     * @throws IOException If there was an error writing a file.
+     */
+    private static void corrupt(final File directory) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.isDirectory()) {
+                    corrupt(file);
+                } else {
+                    FileUtils.fileWrite(file.getPath(), "corrupt");
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine whether the table created by the create script can be found in a database.
+     *
+     * @param url The JDBC URL of the database.
+     * @return {@code true} if the table was found. Otherwise, {@code false}.
+     */
+    private boolean isLoaded(final String url) {
+        try {
+            final Connection jdbcConnection = DriverManager.getConnection(url);
+            try {
+                new DatabaseConnection(jdbcConnection).createDataSet().getTable(getTableName());
+                return true;
+            } finally {
+                jdbcConnection.close();
+            }
+        } catch (final Exception exception) {
+            return false;
+        }
+    }
+
     /**
      * Get the relative path of the database script used to create the database schema.
      *
@@ -197,6 +327,603 @@ public abstract class AbstractTestRunMojo {
         }
     }
 
+    /**
+     * Verify that a free port is allocated when the port is {@code auto} and that the port and JDBC URL are published
+     * as project properties.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunAutoPort() throws Exception {
+        final Properties projectProperties = new Properties();
+        final int monitorPort = getMonitorPort() + 2;
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(mojo, "database", "auto");
+        ReflectionUtils.setVariableValueInObject(mojo, "port", "auto");
+        ReflectionUtils.setVariableValueInObject(mojo, "projectProperties", projectProperties);
+        ReflectionUtils.setVariableValueInObject(mojo, "daemon", Boolean.TRUE);
+        try {
+            mojo.execute();
+            final int port = Integer.parseInt(projectProperties.getProperty("inmemdb.jdbc.port"));
+            final String url = projectProperties.getProperty("inmemdb.jdbc.url");
+            awaitLoaded(url + ";user=sa");
+            assertTrue(port > 0);
+            assertTrue(url, url.contains(Integer.toString(port)));
+            final Connection jdbcConnection = DriverManager.getConnection(url + ";user=sa");
+            final IDatabaseConnection connection = new DatabaseConnection(jdbcConnection);
+            assertNotNull(connection.createDataSet().getTable(getTableName()));
+            connection.close();
+            jdbcConnection.close();
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that a cached snapshot that cannot be restored is replaced by recreating the database and loading the
+     * sources again.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunCorruptSnapshot() throws Exception {
+        final File cacheDirectory = outputDirectory.newFolder("cache");
+        final Properties projectProperties = new Properties();
+        final Log log = mock(Log.class);
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", getMonitorPort() + 12);
+        ReflectionUtils.setVariableValueInObject(mojo, "database", "cached");
+        ReflectionUtils.setVariableValueInObject(mojo, "port", "auto");
+        ReflectionUtils.setVariableValueInObject(mojo, "projectProperties", projectProperties);
+        ReflectionUtils.setVariableValueInObject(mojo, "daemon", Boolean.TRUE);
+        ReflectionUtils.setVariableValueInObject(mojo, "cache", Boolean.TRUE);
+        ReflectionUtils.setVariableValueInObject(mojo, "cacheDirectory", cacheDirectory);
+        try {
+            mojo.execute();
+            final File snapshot = awaitSnapshot(cacheDirectory);
+            assertNotNull(snapshot);
+        } finally {
+            new Monitor("inmemdb", getMonitorPort() + 12).sendCommand("stop", logger);
+        }
+        awaitStopped(Integer.parseInt(projectProperties.getProperty("inmemdb.jdbc.port")));
+        final File snapshot = awaitSnapshot(cacheDirectory);
+        corrupt(snapshot);
+
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", getMonitorPort() + 13);
+        mojo.setLog(log);
+        try {
+            mojo.execute();
+            final String url = projectProperties.getProperty("inmemdb.jdbc.url") + ";user=sa";
+            verify(log, timeout(60000L)).info("Cannot restore the database from cached snapshot " + snapshot.getName()
+                    + ". The snapshot has been removed from the cache and the database will be recreated");
+            verify(log, timeout(60000L)).info(startsWith("Stored database snapshot " + snapshot.getName()));
+            assertTrue(snapshot.isDirectory());
+            assertTrue(isLoaded(url));
+        } finally {
+            new Monitor("inmemdb", getMonitorPort() + 13).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that a clone of the loaded database is created on demand by sending a clone command to the monitor and
+     * that it can be reached using the published JDBC URL template.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunClone() throws Exception {
+        final Properties projectProperties = new Properties();
+        final int monitorPort = getMonitorPort() + 3;
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(mojo, "database", "template");
+        ReflectionUtils.setVariableValueInObject(mojo, "port", "auto");
+        ReflectionUtils.setVariableValueInObject(mojo, "cloneable", Boolean.TRUE);
+        ReflectionUtils.setVariableValueInObject(mojo, "projectProperties", projectProperties);
+        ReflectionUtils.setVariableValueInObject(mojo, "daemon", Boolean.TRUE);
+        final Log log = mock(Log.class);
+        mojo.setLog(log);
+        try {
+            mojo.execute();
+            verify(log, timeout(60000L)).info(startsWith("Memory in use after loading database template"));
+            final MonitorClient client = new MonitorClient("inmemdb", monitorPort);
+            final String urlTemplate = projectProperties.getProperty("inmemdb.jdbc.clone.url");
+            final String url = client.cloneDatabase("template", "cloned", urlTemplate);
+            final Connection jdbcConnection = DriverManager.getConnection(url + ";user=sa");
+            final IDatabaseConnection connection = new DatabaseConnection(jdbcConnection);
+            assertNotNull(connection.createDataSet().getTable(getTableName()));
+            connection.close();
+            jdbcConnection.close();
+            try {
+                client.cloneDatabase("template", "cloned", urlTemplate);
+                fail();
+            } catch (final IOException exception) {
+                assertTrue(exception.getMessage().contains("already exists"));
+            }
+            try {
+                client.cloneDatabase("missing", "orphan", urlTemplate);
+                fail();
+            } catch (final IOException exception) {
+                assertTrue(exception.getMessage().startsWith("Cannot clone database missing"));
+            }
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that a transaction scope begun on the server through the monitor can be used from the JVM hosting the
+     * server and that its work is discarded when it is ended.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunTransactionScope() throws Exception {
+        final Properties projectProperties = new Properties();
+        final int monitorPort = getMonitorPort() + 14;
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(mojo, "database", "scoped");
+        ReflectionUtils.setVariableValueInObject(mojo, "port", "auto");
+        ReflectionUtils.setVariableValueInObject(mojo, "projectProperties", projectProperties);
+        ReflectionUtils.setVariableValueInObject(mojo, "daemon", Boolean.TRUE);
+        try {
+            mojo.execute();
+            final String url = projectProperties.getProperty("inmemdb.jdbc.url") + ";user=sa";
+            awaitLoaded(url);
+            final MonitorClient client = new MonitorClient("inmemdb", monitorPort);
+            final String scopeUrl = client.beginScope("scoped", "orders");
+            final Connection scopeConnection = DriverManager.getConnection(scopeUrl);
+            scopeConnection.createStatement().executeUpdate("INSERT INTO " + getTableName()
+                    + " (username_txt, password_txt, name_txt) VALUES ('bmatthews68', 'secret', 'Brian Matthews')");
+            scopeConnection.commit();
+            scopeConnection.close();
+            client.endScope("scoped", "orders");
+            final Connection jdbcConnection = DriverManager.getConnection(url);
+            final ResultSet resultSet = jdbcConnection.createStatement().executeQuery(
+                    "SELECT COUNT(*) FROM " + getTableName());
+            assertTrue(resultSet.next());
+            assertEquals(0, resultSet.getInt(1));
+            jdbcConnection.close();
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that a reusable server is started in a detached JVM, survives the stop goal and is reattached by a
+     * later execution with the same configuration and the port that was allocated to it.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunReuse() throws Exception {
+        final File reuseDirectory = outputDirectory.newFolder("reuse");
+        final int monitorPort = getMonitorPort() + 1;
+        final Properties projectProperties = new Properties();
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(mojo, "database", "reuse");
+        ReflectionUtils.setVariableValueInObject(mojo, "port", "auto");
+        ReflectionUtils.setVariableValueInObject(mojo, "projectProperties", projectProperties);
+        ReflectionUtils.setVariableValueInObject(mojo, "reuse", Boolean.TRUE);
+        ReflectionUtils.setVariableValueInObject(mojo, "reuseDirectory", reuseDirectory);
+        try {
+            mojo.execute();
+            final File statusFile = new File(reuseDirectory, "inmemdb-" + monitorPort + ".status");
+            assertTrue(statusFile.exists());
+            final long launched = statusFile.lastModified();
+            final String url = projectProperties.getProperty("inmemdb.jdbc.url");
+
+            final Mojo stopMojo = new StopMojo();
+            ReflectionUtils.setVariableValueInObject(stopMojo, "monitorPort", monitorPort);
+            ReflectionUtils.setVariableValueInObject(stopMojo, "monitorKey", "inmemdb");
+            ReflectionUtils.setVariableValueInObject(stopMojo, "reuse", Boolean.TRUE);
+            stopMojo.execute();
+
+            mojo.execute();
+            assertEquals(launched, statusFile.lastModified());
+            assertEquals(url, projectProperties.getProperty("inmemdb.jdbc.url"));
+            final Connection jdbcConnection = DriverManager.getConnection(url + ";user=sa");
+            final IDatabaseConnection connection = new DatabaseConnection(jdbcConnection);
+            assertNotNull(connection.createDataSet().getTable(getTableName()));
+            connection.close();
+            jdbcConnection.close();
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that a forked server is started and loaded in a child JVM with the requested heap size and is stopped by
+     * the stop goal.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunFork() throws Exception {
+        final File forkDirectory = outputDirectory.newFolder("fork");
+        final int monitorPort = getMonitorPort() + 4;
+        final Properties projectProperties = new Properties();
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(mojo, "database", "fork");
+        ReflectionUtils.setVariableValueInObject(mojo, "port", "auto");
+        ReflectionUtils.setVariableValueInObject(mojo, "projectProperties", projectProperties);
+        ReflectionUtils.setVariableValueInObject(mojo, "fork", Boolean.TRUE);
+        ReflectionUtils.setVariableValueInObject(mojo, "forkMaxHeap", "128m");
+        ReflectionUtils.setVariableValueInObject(mojo, "forkDirectory", forkDirectory);
+        try {
+            mojo.execute();
+            final File statusFile = new File(forkDirectory, "inmemdb-" + monitorPort + ".status");
+            assertTrue(statusFile.exists());
+            final String log = FileUtils.fileRead(new File(forkDirectory, "inmemdb-" + monitorPort + ".log"));
+            assertTrue(log.contains("-Xmx128m"));
+            final String url = projectProperties.getProperty("inmemdb.jdbc.url");
+            final Connection jdbcConnection = DriverManager.getConnection(url + ";user=sa");
+            final IDatabaseConnection connection = new DatabaseConnection(jdbcConnection);
+            assertNotNull(connection.createDataSet().getTable(getTableName()));
+            connection.close();
+            jdbcConnection.close();
+
+            final Mojo stopMojo = new StopMojo();
+            ReflectionUtils.setVariableValueInObject(stopMojo, "monitorPort", monitorPort);
+            ReflectionUtils.setVariableValueInObject(stopMojo, "monitorKey", "inmemdb");
+            stopMojo.execute();
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (statusFile.exists() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertFalse(statusFile.exists());
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that a forked server still starts when its classes cannot be archived because the classpath contains
+     * directories, as the test classpath does, and that no class data sharing options are passed to it.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunForkWithoutSharedArchive() throws Exception {
+        final File forkDirectory = outputDirectory.newFolder("fork");
+        final File archiveDirectory = outputDirectory.newFolder("cds");
+        final int monitorPort = getMonitorPort() + 5;
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(mojo, "database", "cds");
+        ReflectionUtils.setVariableValueInObject(mojo, "port", "auto");
+        ReflectionUtils.setVariableValueInObject(mojo, "projectProperties", new Properties());
+        ReflectionUtils.setVariableValueInObject(mojo, "fork", Boolean.TRUE);
+        ReflectionUtils.setVariableValueInObject(mojo, "forkDirectory", forkDirectory);
+        ReflectionUtils.setVariableValueInObject(mojo, "forkArchiveDirectory", archiveDirectory);
+        try {
+            mojo.execute();
+            assertTrue(new File(forkDirectory, "inmemdb-" + monitorPort + ".status").exists());
+            final String log = FileUtils.fileRead(new File(forkDirectory, "inmemdb-" + monitorPort + ".log"));
+            assertFalse(log.contains("-XX:ArchiveClassesAtExit="));
+            assertFalse(log.contains("-XX:SharedArchiveFile="));
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that the start-async goal returns before the server has been loaded, publishes the JDBC URL straight
+     * away and that the await goal returns once the server has been loaded.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testStartAsync() throws Exception {
+        final int monitorPort = getMonitorPort() + 6;
+        final Properties projectProperties = new Properties();
+        final Mojo startMojo = createStartAsyncMojo(monitorPort, "async", getCreateScript());
+        ReflectionUtils.setVariableValueInObject(startMojo, "projectProperties", projectProperties);
+        try {
+            startMojo.execute();
+            final String url = projectProperties.getProperty("inmemdb.jdbc.url");
+            assertNotNull(url);
+
+            createAwaitMojo(monitorPort).execute();
+            final Connection jdbcConnection = DriverManager.getConnection(url + ";user=sa");
+            final IDatabaseConnection connection = new DatabaseConnection(jdbcConnection);
+            assertNotNull(connection.createDataSet().getTable(getTableName()));
+            connection.close();
+            jdbcConnection.close();
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that the await goal fails the build if errors were reported while the server was being loaded.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test(expected = MojoFailureException.class)
+    public void testStartAsyncFailure() throws Exception {
+        final int monitorPort = getMonitorPort() + 7;
+        try {
+            createStartAsyncMojo(monitorPort, "asyncfailure", "src/test/resources/missing.sql").execute();
+            createAwaitMojo(monitorPort).execute();
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that the await goal fails the build if no server was started in the background.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test(expected = MojoFailureException.class)
+    public void testAwaitWithoutStartAsync() throws Exception {
+        createAwaitMojo(getMonitorPort() + 8).execute();
+    }
+
+    /**
+     * Verify that a server shared by the reactor is started by the first module, that later modules attach to it and
+     * only load their additional sources and that it is only stopped when the last module releases it.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunShared() throws Exception {
+        final int monitorPort = getMonitorPort() + 9;
+        final Properties firstProperties = new Properties();
+        final Properties secondProperties = new Properties();
+        final Log secondLog = mock(Log.class);
+        final Mojo firstMojo = createSharedRunMojo(monitorPort, firstProperties, getCreateScript());
+        final Mojo secondMojo = createSharedRunMojo(monitorPort, secondProperties, getCreateScript(),
+                "src/test/resources/create_database.sql");
+        secondMojo.setLog(secondLog);
+        try {
+            firstMojo.execute();
+            secondMojo.execute();
+            final String url = firstProperties.getProperty("inmemdb.jdbc.url");
+            assertEquals(url, secondProperties.getProperty("inmemdb.jdbc.url"));
+            verify(secondLog, never()).error(any(CharSequence.class));
+            verify(secondLog, never()).error(any(CharSequence.class), any(Throwable.class));
+
+            createSharedStopMojo(monitorPort).execute();
+            final Connection jdbcConnection = DriverManager.getConnection(url + ";user=sa");
+            final IDatabaseConnection connection = new DatabaseConnection(jdbcConnection);
+            assertNotNull(connection.createDataSet().getTable(getTableName()));
+            assertEquals(0, connection.getRowCount("users"));
+            connection.close();
+            jdbcConnection.close();
+
+            createSharedStopMojo(monitorPort).execute();
+            try {
+                DriverManager.getConnection(url + ";user=sa").close();
+                fail("The shared server was not stopped by the last module");
+            } catch (final SQLException exception) {
+                // expected
+            }
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that a server shared by a reactor whose modules are built one after another is left running when the
+     * first module stops it because the second module has still to be built, that the second module attaches to it
+     * without loading the same script found under another path again and that the second module stops it.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunSharedSequentially() throws Exception {
+        final int monitorPort = getMonitorPort() + 10;
+        final File copy = new File(outputDirectory.getRoot(), new File(getCreateScript()).getName());
+        FileUtils.copyFile(new File(getCreateScript()), copy);
+        final MavenProject firstProject = createReactorProject("first", monitorPort);
+        final MavenProject secondProject = createReactorProject("second", monitorPort);
+        final List<MavenProject> projects = new ArrayList<MavenProject>();
+        projects.add(firstProject);
+        projects.add(secondProject);
+        final MavenExecutionResult result = new DefaultMavenExecutionResult();
+        final MavenSession session = new MavenSession(null, new DefaultMavenExecutionRequest(), result, projects);
+        final Properties firstProperties = new Properties();
+        final Properties secondProperties = new Properties();
+        final Log firstStopLog = mock(Log.class);
+        final Log secondLog = mock(Log.class);
+        final Mojo firstMojo = createSharedRunMojo(monitorPort, firstProperties, getCreateScript());
+        final Mojo secondMojo = createSharedRunMojo(monitorPort, secondProperties, copy.getPath());
+        secondMojo.setLog(secondLog);
+        try {
+            session.setCurrentProject(firstProject);
+            firstMojo.execute();
+            final Mojo firstStopMojo = createSharedStopMojo(monitorPort, session);
+            firstStopMojo.setLog(firstStopLog);
+            firstStopMojo.execute();
+            verify(firstStopLog).info("Leaving database server running for 1 module(s) that have still to be built");
+            final String url = firstProperties.getProperty("inmemdb.jdbc.url");
+            DriverManager.getConnection(url + ";user=sa").close();
+            result.addBuildSummary(new BuildSuccess(firstProject, 0));
+
+            session.setCurrentProject(secondProject);
+            secondMojo.execute();
+            assertEquals(url, secondProperties.getProperty("inmemdb.jdbc.url"));
+            verify(secondLog).info("Attaching to database server shared by the reactor");
+            verify(secondLog).info("Loaded 0 additional source(s) into the shared database server");
+            verify(secondLog, never()).error(any(CharSequence.class));
+            verify(secondLog, never()).error(any(CharSequence.class), any(Throwable.class));
+
+            createSharedStopMojo(monitorPort, session).execute();
+            try {
+                DriverManager.getConnection(url + ";user=sa").close();
+                fail("The shared server was not stopped by the last module");
+            } catch (final SQLException exception) {
+                // expected
+            }
+        } finally {
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that the shared server and the await goal fail the build if the server on the monitor port is tracked by
+     * another copy of the plug-in.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunSharedInAnotherRealm() throws Exception {
+        final int monitorPort = getMonitorPort() + 11;
+        System.setProperty("inmemdb.shared." + monitorPort + ".realm", "another");
+        System.setProperty("inmemdb.async." + monitorPort + ".realm", "another");
+        try {
+            try {
+                createSharedRunMojo(monitorPort, new Properties(), getCreateScript()).execute();
+                fail("The shared server was started by a second copy of the plug-in");
+            } catch (final MojoFailureException exception) {
+                assertTrue(exception.getMessage().contains("another copy of the plug-in"));
+            }
+            try {
+                createAwaitMojo(monitorPort).execute();
+                fail("The await goal did not fail");
+            } catch (final MojoFailureException exception) {
+                assertTrue(exception.getMessage().contains("another copy of the plug-in"));
+            }
+        } finally {
+            System.clearProperty("inmemdb.shared." + monitorPort + ".realm");
+            System.clearProperty("inmemdb.async." + monitorPort + ".realm");
+            new Monitor("inmemdb", monitorPort).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Create a module of a reactor that runs a server shared by the reactor.
+     *
+     * @param artifactId  The artifact identifier of the module.
+     * @param monitorPort The port on which the monitor listens for commands.
+     * @return The module.
+     */
+    private MavenProject createReactorProject(final String artifactId, final int monitorPort) {
+        final Xpp3Dom configuration = new Xpp3Dom("configuration");
+        final Xpp3Dom sharedSetting = new Xpp3Dom("shared");
+        sharedSetting.setValue("true");
+        configuration.addChild(sharedSetting);
+        final Xpp3Dom monitorPortSetting = new Xpp3Dom("monitorPort");
+        monitorPortSetting.setValue(String.valueOf(monitorPort));
+        configuration.addChild(monitorPortSetting);
+        final PluginExecution execution = new PluginExecution();
+        execution.setId("run");
+        execution.addGoal("run");
+        execution.setConfiguration(configuration);
+        final Plugin plugin = new Plugin();
+        plugin.setGroupId("com.btmatthews.maven.plugins");
+        plugin.setArtifactId("inmemdb-maven-plugin");
+        plugin.addExecution(execution);
+        final Build build = new Build();
+        build.addPlugin(plugin);
+        final Model model = new Model();
+        model.setGroupId("com.btmatthews.maven.plugins.inmemdb.test");
+        model.setArtifactId(artifactId);
+        model.setVersion("1.0.0");
+        model.setBuild(build);
+        return new MavenProject(model);
+    }
+
+    /**
+     * Create a mojo that runs a server shared by the reactor and loads scripts into it.
+     *
+     * @param monitorPort       The port on which the monitor listens for commands.
+     * @param projectProperties The project properties to which the JDBC URL is published.
+     * @param scripts           The paths of the scripts.
+     * @return The mojo.
+     * @throws Exception If there was an error configuring the mojo.
+     */
+    private Mojo createSharedRunMojo(final int monitorPort, final Properties projectProperties,
+                                     final String... scripts) throws Exception {
+        final Mojo runMojo = new RunMojo();
+        ReflectionUtils.setVariableValueInObject(runMojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(runMojo, "monitorKey", "inmemdb");
+        ReflectionUtils.setVariableValueInObject(runMojo, "type", getType());
+        ReflectionUtils.setVariableValueInObject(runMojo, "database", "shared");
+        ReflectionUtils.setVariableValueInObject(runMojo, "port", "auto");
+        ReflectionUtils.setVariableValueInObject(runMojo, "projectProperties", projectProperties);
+        ReflectionUtils.setVariableValueInObject(runMojo, "shared", Boolean.TRUE);
+        final List<Source> sources = new ArrayList<Source>();
+        for (final String script : scripts) {
+            final Script source = new Script();
+            source.setSourceFile(script);
+            sources.add(source);
+        }
+        ReflectionUtils.setVariableValueInObject(runMojo, "sources", sources);
+        return runMojo;
+    }
+
+    /**
+     * Create a mojo that releases a server shared by the reactor.
+     *
+     * @param monitorPort The port on which the monitor listens for commands.
+     * @return The mojo.
+     * @throws Exception If there was an error configuring the mojo.
+     */
+    private Mojo createSharedStopMojo(final int monitorPort) throws Exception {
+        final Mojo stopMojo = new StopMojo();
+        ReflectionUtils.setVariableValueInObject(stopMojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(stopMojo, "monitorKey", "inmemdb");
+        ReflectionUtils.setVariableValueInObject(stopMojo, "shared", Boolean.TRUE);
+        return stopMojo;
+    }
+
+    /**
+     * Create a mojo that releases a server shared by the modules of a reactor.
+     *
+     * @param monitorPort The port on which the monitor listens for commands.
+     * @param session     The Maven session of the reactor.
+     * @return The mojo.
+     * @throws Exception If there was an error configuring the mojo.
+     */
+    private Mojo createSharedStopMojo(final int monitorPort, final MavenSession session) throws Exception {
+        final Mojo stopMojo = createSharedStopMojo(monitorPort);
+        final PluginDescriptor plugin = new PluginDescriptor();
+        plugin.setGroupId("com.btmatthews.maven.plugins");
+        plugin.setArtifactId("inmemdb-maven-plugin");
+        ReflectionUtils.setVariableValueInObject(stopMojo, "session", session);
+        ReflectionUtils.setVariableValueInObject(stopMojo, "plugin", plugin);
+        return stopMojo;
+    }
+
+    /**
+     * Create a mojo that starts a server in the background and loads a script into it.
+     *
+     * @param monitorPort The port on which the monitor listens for commands.
+     * @param database    The name of the database.
+     * @param script      The path of the script.
+     * @return The mojo.
+     * @throws Exception If there was an error configuring the mojo.
+     */
+    private Mojo createStartAsyncMojo(final int monitorPort, final String database, final String script)
+            throws Exception {
+        final Mojo startMojo = new StartAsyncMojo();
+        ReflectionUtils.setVariableValueInObject(startMojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(startMojo, "monitorKey", "inmemdb");
+        ReflectionUtils.setVariableValueInObject(startMojo, "type", getType());
+        ReflectionUtils.setVariableValueInObject(startMojo, "database", database);
+        ReflectionUtils.setVariableValueInObject(startMojo, "port", "auto");
+        final Script source = new Script();
+        source.setSourceFile(script);
+        final List<Source> sources = new ArrayList<Source>();
+        sources.add(source);
+        ReflectionUtils.setVariableValueInObject(startMojo, "sources", sources);
+        return startMojo;
+    }
+
+    /**
+     * Create a mojo that waits for a server started in the background to be loaded.
+     *
+     * @param monitorPort The port on which the monitor listens for commands.
+     * @return The mojo.
+     * @throws Exception If there was an error configuring the mojo.
+     */
+    private Mojo createAwaitMojo(final int monitorPort) throws Exception {
+        final Mojo awaitMojo = new AwaitMojo();
+        ReflectionUtils.setVariableValueInObject(awaitMojo, "monitorPort", monitorPort);
+        ReflectionUtils.setVariableValueInObject(awaitMojo, "monitorKey", "inmemdb");
+        return awaitMojo;
+    }
+
     /**
      * Send a stop signal to monitor controlling the server.
      */
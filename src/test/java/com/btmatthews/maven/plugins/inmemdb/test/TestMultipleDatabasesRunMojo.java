@@ -0,0 +1,217 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.matches;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.net.ServerSocket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import com.btmatthews.maven.plugins.inmemdb.mojo.DatabaseDefinition;
+import com.btmatthews.maven.plugins.inmemdb.mojo.RunMojo;
+import com.btmatthews.maven.plugins.inmemdb.mojo.Script;
+import com.btmatthews.utils.monitor.Logger;
+import com.btmatthews.utils.monitor.Monitor;
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/**
+ * Unit tests for the run goal when it starts several databases concurrently.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public class TestMultipleDatabasesRunMojo {
+
+    /**
+     * The port on which the monitor listens for commands.
+     */
+    private static final int MONITOR_PORT = 19100;
+
+    /**
+     * The port on which the monitor listens for commands when one of the databases cannot be started.
+     */
+    private static final int FAILURE_MONITOR_PORT = 19101;
+
+    /**
+     * The database types started by the test.
+     */
+    private static final String[] TYPES = {"derby", "h2", "hsqldb"};
+
+    /**
+     * Mock the logger.
+     */
+    @Mock
+    private Logger logger;
+
+    /**
+     * The mojo being tested.
+     */
+    private Mojo mojo;
+
+    /**
+     * The definitions of the databases started by the test.
+     */
+    private List<DatabaseDefinition> databases;
+
+    /**
+     * The project properties to which the ports and JDBC URLs are published.
+     */
+    private Properties projectProperties;
+
+    /**
+     * Prepare for test execution by initialising the mock objects and test fixture.
+     *
+     * @throws Exception If there was an error configuring the test fixture.
+     */
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        Class.forName("org.apache.derby.jdbc.ClientDriver");
+        Class.forName("org.h2.Driver");
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        projectProperties = new Properties();
+        final List<DatabaseDefinition> databases = new ArrayList<DatabaseDefinition>();
+        for (final String type : TYPES) {
+            final DatabaseDefinition definition = new DatabaseDefinition();
+            definition.setType(type);
+            definition.setDatabase("multi" + type);
+            definition.setPort("auto");
+            definition.setSources(Collections.singletonList(
+                    new Script("src/test/resources/create_" + type + "_database.sql")));
+            databases.add(definition);
+        }
+        mojo = new RunMojo();
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", MONITOR_PORT);
+        ReflectionUtils.setVariableValueInObject(mojo, "monitorKey", "inmemdb");
+        ReflectionUtils.setVariableValueInObject(mojo, "databases", databases);
+        this.databases = databases;
+        ReflectionUtils.setVariableValueInObject(mojo, "projectProperties", projectProperties);
+        ReflectionUtils.setVariableValueInObject(mojo, "daemon", Boolean.TRUE);
+    }
+
+    /**
+     * Verify that every database is started and loaded, that its JDBC URL is published and that the heap in use
+     * before loading is reported as unavailable because the databases were loaded at the same time.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunMultipleDatabases() throws Exception {
+        final Log log = mock(Log.class);
+        mojo.setLog(log);
+        try {
+            mojo.execute();
+            Thread.sleep(5000L);
+            for (final String type : TYPES) {
+                verify(log, timeout(60000L)).info(matches("Memory in use after loading database multi" + type
+                        + ": heap \\d+ MB \\(unavailable before loading\\), native \\d+ MB.*"));
+                final String url = projectProperties.getProperty("inmemdb.multi" + type + ".jdbc.url");
+                assertNotNull(url);
+                final Connection jdbcConnection = DriverManager.getConnection(url + ";user=sa");
+                final IDatabaseConnection connection = new DatabaseConnection(jdbcConnection);
+                assertNotNull(connection.createDataSet().getTable(type + "_users"));
+                connection.close();
+                jdbcConnection.close();
+            }
+        } finally {
+            new Monitor("inmemdb", MONITOR_PORT).sendCommand("stop", logger);
+        }
+    }
+
+    /**
+     * Verify that the databases that were started are stopped again when one of the other databases cannot be
+     * started because its port is already in use.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunMemberFailure() throws Exception {
+        final Log log = mock(Log.class);
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            databases.get(1).setPort(Integer.toString(socket.getLocalPort()));
+            ReflectionUtils.setVariableValueInObject(mojo, "monitorPort", FAILURE_MONITOR_PORT);
+            mojo.setLog(log);
+            try {
+                mojo.execute();
+                verify(log, timeout(60000L)).error(startsWith("Cannot start database(s) [multih2]"));
+                for (final String type : new String[]{"derby", "hsqldb"}) {
+                    final String url = projectProperties.getProperty("inmemdb.multi" + type + ".jdbc.url");
+                    assertFalse(url, isAvailable(url + ";user=sa"));
+                }
+            } finally {
+                new Monitor("inmemdb", FAILURE_MONITOR_PORT).sendCommand("stop", logger);
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Verify that snapshots cannot be cached when several databases are started.
+     *
+     * @throws Exception If there was an error.
+     */
+    @Test
+    public void testRunMultipleDatabasesCached() throws Exception {
+        ReflectionUtils.setVariableValueInObject(mojo, "cache", Boolean.TRUE);
+        try {
+            mojo.execute();
+            fail();
+        } catch (final MojoFailureException exception) {
+            assertEquals("A cached database server cannot run multiple databases", exception.getMessage());
+        }
+    }
+
+    /**
+     * Determine whether a connection can be made to a database.
+     *
+     * @param url The JDBC URL of the database.
+     * @return {@code true} if a connection was made. Otherwise, {@code false}.
+     */
+    private static boolean isAvailable(final String url) {
+        try {
+            DriverManager.getConnection(url).close();
+            return true;
+        } catch (final SQLException exception) {
+            return false;
+        }
+    }
+}
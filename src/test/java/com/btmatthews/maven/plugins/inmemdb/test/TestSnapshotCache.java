@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011-2012 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.inmemdb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+
+import com.btmatthews.maven.plugins.inmemdb.cache.SnapshotCache;
+import com.btmatthews.maven.plugins.inmemdb.mojo.DataSet;
+import com.btmatthews.maven.plugins.inmemdb.mojo.Script;
+import com.btmatthews.utils.monitor.Logger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the chained fingerprints used to key cached database snapshots.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 2.0.0
+ */
+public class TestSnapshotCache {
+
+    /**
+     * Used to create the cache directory and the source files.
+     */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * The main test fixture.
+     */
+    private SnapshotCache snapshotCache;
+
+    /**
+     * Create the main test fixture.
+     *
+     * @throws IOException If there was an error creating the cache directory.
+     */
+    @Before
+    public void setUp() throws IOException {
+        snapshotCache = new SnapshotCache(temporaryFolder.newFolder("cache"));
+    }
+
+    /**
+     * Verify that the same source loaded on top of the same parent produces the same fingerprint.
+     *
+     * @throws IOException If there was an error reading the source.
+     */
+    @Test
+    public void testKeyIsStable() throws IOException {
+        final Script source = createScript("CREATE TABLE users (id INT);");
+        assertEquals(snapshotCache.computeKey("parent", source), snapshotCache.computeKey("parent", source));
+    }
+
+    /**
+     * Verify that the fingerprint changes when the content of the source changes.
+     *
+     * @throws IOException If there was an error reading the source.
+     */
+    @Test
+    public void testKeyChangesWithContent() throws IOException {
+        final Script source = createScript("CREATE TABLE users (id INT);");
+        final String before = snapshotCache.computeKey("parent", source);
+        writeFile(new File(source.getSourceFile()), "CREATE TABLE users (id BIGINT);");
+        assertNotEquals(before, snapshotCache.computeKey("parent", source));
+    }
+
+    /**
+     * Verify that the fingerprint of a source depends on the fingerprint of the sources loaded before it.
+     *
+     * @throws IOException If there was an error reading the source.
+     */
+    @Test
+    public void testKeyChangesWithParent() throws IOException {
+        final Script source = createScript("CREATE TABLE users (id INT);");
+        assertNotEquals(snapshotCache.computeKey("parent1", source), snapshotCache.computeKey("parent2", source));
+    }
+
+    /**
+     * Verify that scripts and data sets with the same file produce different fingerprints.
+     *
+     * @throws IOException If there was an error reading the source.
+     */
+    @Test
+    public void testKeyChangesWithSourceType() throws IOException {
+        final Script script = createScript("CREATE TABLE users (id INT);");
+        final DataSet dataSet = new DataSet();
+        dataSet.setSourceFile(script.getSourceFile());
+        assertNotEquals(snapshotCache.computeKey("parent", script), snapshotCache.computeKey("parent", dataSet));
+    }
+
+    /**
+     * Verify that the cache does not report snapshots that have not been stored.
+     */
+    @Test
+    public void testDoesNotContainMissingSnapshot() {
+        assertFalse(snapshotCache.contains("missing"));
+    }
+
+    /**
+     * Verify that pruning the cache removes the snapshots that are not on the current key chain but keeps the
+     * snapshots that are still being written.
+     *
+     * @throws IOException If there was an error creating the snapshot directories.
+     */
+    @Test
+    public void testRetainOnly() throws IOException {
+        final File cache = new File(temporaryFolder.getRoot(), "cache");
+        assertTrue(new File(cache, "current").mkdir());
+        assertTrue(new File(cache, "stale").mkdir());
+        assertTrue(new File(cache, "pending.tmp123").mkdir());
+        snapshotCache.retainOnly(mock(Logger.class), Collections.singletonList("current"));
+        assertTrue(snapshotCache.contains("current"));
+        assertFalse(snapshotCache.contains("stale"));
+        assertTrue(snapshotCache.contains("pending.tmp123"));
+    }
+
+    /**
+     * Verify that the fingerprint of a class path resource is computed from its content.
+     *
+     * @throws IOException If there was an error reading the source.
+     */
+    @Test
+    public void testKeyForClasspathResource() throws IOException {
+        final Script source = new Script();
+        source.setSourceFile("classpath:create_database.sql");
+        final Script missing = new Script();
+        missing.setSourceFile("classpath:missing.sql");
+        assertEquals(64, snapshotCache.computeKey("parent", source).length());
+        assertNotEquals(snapshotCache.computeKey("parent", source), snapshotCache.computeKey("parent", missing));
+    }
+
+    /**
+     * Create a script source backed by a temporary file.
+     *
+     * @param content The content of the script.
+     * @return The script source.
+     * @throws IOException If there was an error writing the file.
+     */
+    private Script createScript(final String content) throws IOException {
+        final File file = temporaryFolder.newFile("script.sql");
+        writeFile(file, content);
+        final Script source = new Script();
+        source.setSourceFile(file.getAbsolutePath());
+        return source;
+    }
+
+    /**
+     * Write content to a file.
+     *
+     * @param file    The file.
+     * @param content The content.
+     * @throws IOException If there was an error writing the file.
+     */
+    private static void writeFile(final File file, final String content) throws IOException {
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}